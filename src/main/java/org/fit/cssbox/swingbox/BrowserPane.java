@@ -17,11 +17,17 @@
 
 package org.fit.cssbox.swingbox;
 
+import org.fit.cssbox.io.StreamDocumentSource;
+import org.fit.cssbox.swingbox.performance.ResourceLoader;
 import org.fit.cssbox.swingbox.util.*;
 import org.fit.cssbox.swingbox.util.GeneralEvent.EventType;
+import org.fit.cssbox.swingbox.view.TileRenderer;
+import org.fit.cssbox.swingbox.view.ViewportView;
 import org.fit.net.DataURLHandler;
 
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.text.*;
 import java.awt.*;
 import java.awt.geom.Rectangle2D;
@@ -29,6 +35,7 @@ import java.awt.image.BufferedImage;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.lang.reflect.InvocationTargetException;
 import java.net.HttpURLConnection;
 import java.net.URL;
@@ -36,6 +43,16 @@ import java.net.URLConnection;
 import java.security.Security;
 import java.util.List;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+import static org.fit.cssbox.swingbox.util.LoadTimings.Stage.*;
 
 /**
  * The Class BrowserPane - JEditorPane based component capable to render HTML +
@@ -48,10 +65,34 @@ import java.util.*;
 @SuppressWarnings("unused")
 public class BrowserPane extends JEditorPane {
   private static final long serialVersionUID = 7303652028812084960L;
-  private InputStream loadingStream;
+  private final PageLoader pageLoader = new PageLoader();
+  private final PreloadCache preloads = PreloadCache.fromProperties();
+  private final HistoryCache history = HistoryCache.fromProperties();
   private Hashtable<String, Object> pageProperties;
   private Document document;
   private static EditorKit swingBoxEditorKit;
+  private TextIndex searchIndex;
+  private String searchQuery;
+  private int[] searchHits;
+  private SearchHighlightPainter searchPainter;
+  private Object searchTag;
+  /** finds the string again when the document changes, e.g. on relayout */
+  private final DocumentListener searchUpdater = new DocumentListener() {
+    @Override
+    public void insertUpdate( DocumentEvent e ) {
+      SwingUtilities.invokeLater( BrowserPane.this::refreshSearch );
+    }
+
+    @Override
+    public void removeUpdate( DocumentEvent e ) {
+      SwingUtilities.invokeLater( BrowserPane.this::refreshSearch );
+    }
+
+    @Override
+    public void changedUpdate( DocumentEvent e ) {
+      SwingUtilities.invokeLater( BrowserPane.this::refreshSearch );
+    }
+  };
 
   /**
    * Instantiates a new browser pane.
@@ -101,6 +142,25 @@ public class BrowserPane extends JEditorPane {
 
   @Override
   public void setDocument( Document document ) {
+    // the found text refers to the previous document
+    if( searchTag != null && getHighlighter() != null ) {
+      getHighlighter().removeHighlight( searchTag );
+    }
+    searchIndex = null;
+    searchQuery = null;
+    searchHits = null;
+    searchPainter = null;
+    searchTag = null;
+    // not initialized yet when called from the constructor of the superclass
+    if( searchUpdater != null ) {
+      if( this.document != null ) {
+        this.document.removeDocumentListener( searchUpdater );
+      }
+      if( document != null ) {
+        document.addDocumentListener( searchUpdater );
+      }
+    }
+
     this.document = document;
     super.setDocument( document );
   }
@@ -174,16 +234,16 @@ public class BrowserPane extends JEditorPane {
   /**
    * Renders current content to graphic context, which is returned. May return
    * null;
+   * <p>
+   * The whole content is rendered to a single image. For long documents,
+   * {@link #exportContent(int, TileRenderer.TileSink)} renders the content
+   * with a bounded amount of memory.
    *
    * @return the Graphics2D context
    * @see Graphics2D
    */
   public Graphics2D renderContent() {
-    View view = null;
-    ViewFactory factory = getEditorKit().getViewFactory();
-    if( factory instanceof SwingBoxViewFactory ) {
-      view = ((SwingBoxViewFactory) factory).getViewport();
-    }
+    final var view = getViewport();
 
     if( view != null ) {
       int w = (int) view.getPreferredSpan( View.X_AXIS );
@@ -195,7 +255,7 @@ public class BrowserPane extends JEditorPane {
                                              BufferedImage.TYPE_INT_RGB );
       Graphics2D g = img.createGraphics();
       g.setClip( rec );
-      view.paint( g, rec );
+      view.paintContent( g, rec );
 
       return g;
     }
@@ -218,27 +278,95 @@ public class BrowserPane extends JEditorPane {
       throw new NullPointerException(
           "Clip is not set on graphics context" );
     }
+    final var view = getViewport();
+    if( view != null ) {
+      view.paintContent( g, g.getClip() );
+    }
+
+    return g;
+  }
+
+  /**
+   * Renders current content tile by tile and passes the tiles to the given
+   * sink. Only a single tile image is allocated, so that the content of any
+   * size may be exported, e.g. streamed to a file.
+   *
+   * @param tileSize the tile width and height in pixels
+   * @param sink     the sink that receives the tiles
+   * @return true, if there was any content to be exported
+   * @throws IOException when the sink fails
+   */
+  public boolean exportContent( int tileSize, TileRenderer.TileSink sink )
+      throws IOException {
+    final var view = getViewport();
+
+    if( view != null ) {
+      final var size = new Dimension(
+          (int) view.getPreferredSpan( View.X_AXIS ),
+          (int) view.getPreferredSpan( View.Y_AXIS ) );
+      TileRenderer.export( view::paintContent, size, tileSize, sink );
+      return true;
+    }
+
+    return false;
+  }
+
+  /**
+   * Sets the tile renderer used for painting the content. The rendered tiles
+   * are cached and reused while scrolling until the content changes. The
+   * renderer is used for the following documents as well.
+   *
+   * @param renderer the tile renderer or <code>null</code> for painting the
+   *                 content directly
+   * @return true, if successful
+   */
+  public boolean setTileRenderer( TileRenderer renderer ) {
     ViewFactory factory = getEditorKit().getViewFactory();
     if( factory instanceof SwingBoxViewFactory ) {
-      View view = ((SwingBoxViewFactory) factory).getViewport();
-      if( view != null ) {
-        view.paint( g, g.getClip() );
-      }
+      ((SwingBoxViewFactory) factory).setTileRenderer( renderer );
+      repaint();
+      return true;
     }
 
-    return g;
+    return false;
+  }
+
+  private ViewportView getViewport() {
+    ViewFactory factory = getEditorKit().getViewFactory();
+    if( factory instanceof SwingBoxViewFactory ) {
+      return ((SwingBoxViewFactory) factory).getViewport();
+    }
+
+    return null;
   }
 
   @Override
   public void setText( String t ) {
     try {
-      final var url = DataURLHandler.createURL( null, "data:text/html," + t );
-      setPage( url );
+      setPage( textURL( t ) );
     } catch( IOException e ) {
       e.printStackTrace();
     }
   }
 
+  /**
+   * Sets the HTML content of the component asynchronously.
+   *
+   * @param t the HTML code to display
+   * @return the outcome of the load, see {@link #setPageAsync(URL)}
+   */
+  public CompletableFuture<LoadTimings> setTextAsync( String t ) {
+    try {
+      return setPageAsync( textURL( t ) );
+    } catch( IOException e ) {
+      return CompletableFuture.failedFuture( e );
+    }
+  }
+
+  private static URL textURL( String t ) throws IOException {
+    return DataURLHandler.createURL( null, "data:text/html," + t );
+  }
+
   /**
    * Sets the css box analyzer.
    *
@@ -268,8 +396,10 @@ public class BrowserPane extends JEditorPane {
    * @param reference the named location to scroll to
    */
   public void tryScrollToReference( String reference ) {
-    Element dst = findElementToScroll( reference,
-                                       getDocument().getDefaultRootElement() );
+    final var doc = getDocument();
+    Element dst = doc instanceof SwingBoxDocument
+        ? ((SwingBoxDocument) doc).getReferencedElement( reference )
+        : findElementToScroll( reference, doc.getDefaultRootElement() );
     if( dst != null ) {
       try {
         Rectangle bottom = new Rectangle( 0, getHeight() - 1, 1, 1 );
@@ -320,6 +450,143 @@ public class BrowserPane extends JEditorPane {
     return null;
   }
 
+  /**
+   * Finds all the occurrences of a string in the document, ignoring the case,
+   * and highlights them. The plain text of the document is indexed once for
+   * each layout. When the string extends the string found previously, e.g.
+   * while it is being typed, only the previous occurrences are checked.
+   *
+   * @param query the string to be found, an empty string or
+   *              <code>null</code> clears the search
+   * @return the number of the occurrences found
+   */
+  public int find( String query ) {
+    final var doc = getDocument();
+    if( query == null || query.isEmpty() || !(doc instanceof SwingBoxDocument) ) {
+      clearSearch();
+      return 0;
+    }
+
+    final var index = ((SwingBoxDocument) doc).getTextIndex();
+    final int[] hits = index == searchIndex && searchQuery != null
+        ? index.find( query, searchQuery, searchHits )
+        : index.find( query );
+    searchIndex = index;
+    searchQuery = query;
+    searchHits = hits;
+
+    final int[] shown = TextIndex.removeOverlaps( hits, query.length() );
+    final int[] starts = new int[ shown.length ];
+    final int[] ends = new int[ shown.length ];
+    final int cnt = index.getDocumentRanges( shown, query.length(), starts, ends );
+    setSearchHighlight( new SearchHighlightPainter(
+        SearchHighlightPainter.DEFAULT_COLOR,
+        Arrays.copyOf( starts, cnt ), Arrays.copyOf( ends, cnt ) ) );
+    return cnt;
+  }
+
+  /**
+   * Finds the string again when the text of the document has changed, so
+   * that the highlighted occurrences refer to the current text.
+   */
+  private void refreshSearch() {
+    final var doc = getDocument();
+    if( searchQuery != null && doc instanceof SwingBoxDocument
+        && ((SwingBoxDocument) doc).getTextIndex() != searchIndex ) {
+      find( searchQuery );
+    }
+  }
+
+  /**
+   * Removes the highlighting of the string found by {@link #find(String)}.
+   */
+  public void clearSearch() {
+    searchQuery = null;
+    searchHits = null;
+    setSearchHighlight( null );
+  }
+
+  /**
+   * Obtains the number of the occurrences found by {@link #find(String)}.
+   *
+   * @return the number of the occurrences
+   */
+  public int getSearchHitCount() {
+    return searchPainter == null ? 0 : searchPainter.getCount();
+  }
+
+  /**
+   * Obtains the document offset of an occurrence found by
+   * {@link #find(String)}.
+   *
+   * @param index the index of the occurrence
+   * @return the document offset
+   */
+  public int getSearchHitStart( int index ) {
+    return searchPainter.getStartOffset( index );
+  }
+
+  /**
+   * Obtains the document offset following an occurrence found by
+   * {@link #find(String)}.
+   *
+   * @param index the index of the occurrence
+   * @return the document offset
+   */
+  public int getSearchHitEnd( int index ) {
+    return searchPainter.getEndOffset( index );
+  }
+
+  /**
+   * Scrolls the component so that an occurrence found by
+   * {@link #find(String)} is visible.
+   *
+   * @param index the index of the occurrence
+   */
+  public void scrollToSearchHit( int index ) {
+    try {
+      Rectangle2D start = modelToView2D( getSearchHitStart( index ) );
+      Rectangle2D end = modelToView2D( getSearchHitEnd( index ) );
+      if( start != null && end != null ) {
+        scrollRectToVisible( start.createUnion( end ).getBounds() );
+      }
+    } catch( BadLocationException e ) {
+      UIManager.getLookAndFeel().provideErrorFeedback( this );
+    }
+  }
+
+  /**
+   * Replaces the highlighted occurrences. All of them are highlighted by a
+   * single highlight, so that the component is repainted once.
+   */
+  private void setSearchHighlight( SearchHighlightPainter painter ) {
+    final var highlighter = getHighlighter();
+    if( highlighter == null ) {
+      return;
+    }
+    if( searchTag != null ) {
+      highlighter.removeHighlight( searchTag );
+      searchTag = null;
+    }
+    searchPainter = painter;
+    if( painter != null && painter.getCount() > 0 ) {
+      try {
+        searchTag = highlighter.addHighlight(
+            painter.getStartOffset( 0 ),
+            painter.getEndOffset( painter.getCount() - 1 ), painter );
+      } catch( BadLocationException e ) {
+        searchPainter = null;
+      }
+    }
+
+    // the highlights are painted into the cached tiles
+    final var view = getViewport();
+    if( view != null ) {
+      view.invalidateTiles();
+    }
+    repaint();
+  }
+
   @Override
   public EditorKit getEditorKitForContentType( String type ) {
     if( type.equalsIgnoreCase( "text/html" ) || type.equalsIgnoreCase(
@@ -334,13 +601,34 @@ public class BrowserPane extends JEditorPane {
 
   @Override
   protected InputStream getStream( URL page ) throws IOException {
+    final URLConnection conn = connect( page, getPostData() );
+
+    // Connection properties handler should be forced to run on EDT,
+    // as it instantiates the EditorKit.
+    runOnEDT( () -> handleConnectionProperties( conn ) );
+    return conn.getInputStream();
+  }
+
+  /**
+   * Opens the connection to the page, following the redirects.
+   */
+  private URLConnection connect( URL page, Object postData )
+      throws IOException {
+    if( postData == null && ResourceLoader.isSupported( page ) ) {
+      // shares the cache with the prefetched links and the page resources,
+      // the redirects are followed by the loader
+      final URLConnection conn = setConnectionProperties(
+          ResourceLoader.getDefault().openConnection( page ) );
+      conn.connect();
+      return conn;
+    }
+
     final URLConnection conn = setConnectionProperties( page.openConnection() );
     // http://stackoverflow.com/questions/875467/java-client-certificates-over-https-ssl
 
    if( conn instanceof HttpURLConnection ) {
       HttpURLConnection hconn = (HttpURLConnection) conn;
       hconn.setInstanceFollowRedirects( false );
-      Object postData = getPostData();
       if( postData != null ) {
         handlePostData( hconn, postData );
       }
@@ -359,23 +647,24 @@ public class BrowserPane extends JEditorPane {
         else {
           page = new URL( page, loc );
         }
-        return getStream( page );
+        return connect( page, postData );
       }
     }
 
-    // Connection properties handler should be forced to run on EDT,
-    // as it instantiates the EditorKit.
+    return conn;
+  }
+
+  private static void runOnEDT( final Runnable task ) {
     if( SwingUtilities.isEventDispatchThread() ) {
-      handleConnectionProperties( conn );
+      task.run();
     }
     else {
       try {
-        SwingUtilities.invokeAndWait( () -> handleConnectionProperties( conn ) );
+        SwingUtilities.invokeAndWait( task );
       } catch( InterruptedException | InvocationTargetException e ) {
         throw new RuntimeException( e );
       }
     }
-    return conn.getInputStream();
   }
 
   @Override
@@ -393,29 +682,39 @@ public class BrowserPane extends JEditorPane {
     if( (oldPage == null) || !oldPage.sameFile( newPage ) || (postData != null) ) {
       // different url or POST method, load the new content
 
-      final InputStream in = getStream( newPage );
+      // the previous load, if any, is not needed anymore
+      final int generation = pageLoader.begin();
+      final var timings = new LoadTimings( newPage );
+      final PreparedPage prepared =
+          postData == null ? takePreloaded( newPage ) : null;
+      final InputStream in = fetch( newPage, prepared );
+      timings.endStage( FETCH );
+      pageLoader.setInput( generation, in );
       // editor kit is set according to content type
       EditorKit kit = getEditorKit();
 
       if( kit == null ) {
+        if( in != null ) {
+          in.close();
+        }
         UIManager.getLookAndFeel().provideErrorFeedback( this );
       }
       else {
-        document = createDocument( kit, newPage );
+        final Document doc = createDocument( kit, newPage );
+        document = doc;
+
+        int p = getAsynchronousLoadPriority( doc );
 
-        int p = getAsynchronousLoadPriority( document );
+        final Runnable load = () -> loadPage(
+            generation, newPage, oldPage, in, prepared, doc, timings, null );
 
         if( p < 0 ) {
           // load synchro
-          loadPage( newPage, oldPage, in, document );
+          pageLoader.run( generation, timings, load );
         }
         else {
           // load asynchro
-          Thread t = new Thread(
-              () -> loadPage( newPage, oldPage, in, document )
-          );
-          t.setDaemon( true );
-          t.start();
+          pageLoader.submit( generation, timings, load );
         }
       }
     }
@@ -427,51 +726,410 @@ public class BrowserPane extends JEditorPane {
     }
   }
 
-  private void loadPage( final URL newPage, final URL oldPage,
-                         final InputStream in, final Document doc ) {
-    boolean done = false;
-    try {
+  /**
+   * Loads the given page in the background, including the connection. Unlike
+   * {@link #setPage(URL)}, the calling thread is never blocked, whatever the
+   * asynchronous load priority of the document.
+   * <p>
+   * The returned future completes once the new document has been set to the
+   * component, with the time spent in the stages of the load. It completes
+   * exceptionally when the page cannot be loaded and it is cancelled when a
+   * newer page is requested or the load is stopped. Cancelling the future
+   * stops the load in progress.
+   *
+   * @param newPage the URL of the page to display
+   * @return the outcome of the load
+   */
+  public CompletableFuture<LoadTimings> setPageAsync( final URL newPage ) {
+    fireGeneralEvent( new GeneralEvent( this, EventType.page_loading_begin,
+                                        newPage, null ) );
+
+    final var result = new CompletableFuture<LoadTimings>();
+
+    if( newPage == null ) {
+      result.completeExceptionally( new IOException( "invalid url" ) );
+      return result;
+    }
+
+    final URL oldPage = getPage();
+    final var timings = new LoadTimings( newPage );
+    final boolean post = getPostData() != null;
+
+    if( oldPage != null && oldPage.sameFile( newPage ) && !post ) {
+      if( newPage.getRef() != null ) {
+        final String reference = newPage.getRef();
+        SwingUtilities.invokeLater( () -> scrollToReference( reference ) );
+      }
+      result.complete( timings );
+      return result;
+    }
+
+    final int generation = pageLoader.begin( result );
+    result.whenComplete( ( r, e ) -> {
+      if( result.isCancelled() && pageLoader.isCurrent( generation ) ) {
+        stopLoading();
+      }
+    } );
+
+    pageLoader.submit( generation, timings, () -> {
+      timings.endStage( QUEUED );
+
+      try {
+        final PreparedPage prepared = post ? null : takePreloaded( newPage );
+        final InputStream in = fetch( newPage, prepared );
+        timings.endStage( FETCH );
+        pageLoader.setInput( generation, in );
+
+        final EditorKit kit = getEditorKit();
 
-      synchronized( this ) {
-        if( loadingStream != null ) {
-          // we are loading asynchronously, so we need to cancel
-          // the old stream.
-          loadingStream.close();
-          loadingStream = null;
+        if( kit == null ) {
+          if( in != null ) {
+            in.close();
+          }
+          UIManager.getLookAndFeel().provideErrorFeedback( this );
+          throw new IOException( "Unsupported content type " +
+                                     getContentType() );
         }
 
-        loadingStream = in;
+        final Document doc = createDocument( kit, newPage );
+        document = doc;
+        loadPage( generation, newPage, oldPage, in, prepared, doc, timings,
+                  result );
+      } catch( IOException | RuntimeException e ) {
+        result.completeExceptionally( e );
+      }
+    } );
+
+    return result;
+  }
+
+  /**
+   * Displays a page of the navigation history, e.g. when going back or
+   * forward. A page displayed recently is restored from the back/forward
+   * cache together with its layout and scroll position; it is laid out again
+   * only when the width of the component has changed. The other pages are
+   * loaded by {@link #setPage(URL)}.
+   * <p>
+   * The number of the pages kept is limited by the
+   * {@link Constants#HISTORY_CACHE_SIZE_PROPERTY} system property, the pages
+   * may be reclaimed when the memory is low.
+   *
+   * @param page the URL of the page to display
+   * @throws IOException when the page is not cached and cannot be loaded
+   */
+  public void setPageFromHistory( final URL page ) throws IOException {
+    final HistoryCache.Page cached =
+        history == null || page == null ? null : history.take( page );
+
+    if( cached == null ) {
+      setPage( page );
+      return;
+    }
+
+    fireGeneralEvent( new GeneralEvent( this, EventType.page_loading_begin,
+                                        page, null ) );
+
+    final URL oldPage = getPage();
+    final int generation = pageLoader.begin();
+    final SwingBoxDocument doc = cached.getDocument();
+
+    keepInHistory();
+    setContentType( cached.getContentType() );
+
+    final EditorKit kit = getEditorKit();
+    final Dimension size = SwingBoxEditorKit.getLayoutSize( this );
+
+    if( !(kit instanceof SwingBoxEditorKit) ) {
+      setPage( page );
+      return;
+    }
+
+    if( size.width != cached.getSize().width ) {
+      // the height does not change the layout of the content
+      try {
+        ((SwingBoxEditorKit) kit).update( doc, size );
+      } catch( IOException e ) {
+        setPage( page );
+        return;
+      }
+    }
+
+    if( !pageLoader.commit( generation, () -> setDocument( doc ) ) ) {
+      return;
+    }
+
+    final String reference = page.getRef();
+    SwingUtilities.invokeLater( () -> {
+      if( reference != null ) {
+        scrollToReference( reference );
+      }
+      else {
+        scrollRectToVisible( cached.getVisibleRect() );
+      }
+      firePropertyChange( "page", oldPage, page );
+    } );
+
+    fireGeneralEvent( new GeneralEvent( this, EventType.page_loading_end,
+                                        page, null ) );
+  }
+
+  /**
+   * Keeps the displayed document in the back/forward cache before it is
+   * replaced. The documents that share the analyzer of the kit cannot be
+   * laid out again later and the results of the POST requests are not kept.
+   */
+  private void keepInHistory() {
+    final Document current = super.getDocument();
+
+    if( history == null || !(current instanceof SwingBoxDocument) ) {
+      return;
+    }
+
+    final var doc = (SwingBoxDocument) current;
+    final Object page = doc.getProperty( Document.StreamDescriptionProperty );
+
+    if( page instanceof URL && doc.getAnalyzer() != null &&
+        doc.getProperty( Constants.PostDataProperty ) == null ) {
+      history.put( (URL) page, new HistoryCache.Page(
+          doc, getContentType(), SwingBoxEditorKit.getLayoutSize( this ),
+          getVisibleRect() ) );
+    }
+  }
+
+  /**
+   * Fetches, parses, analyzes and lays out the given page in the background
+   * for the current size of the component. A later navigation to the page
+   * by {@link #setPage(URL)} or {@link #setPageAsync(URL)} only creates the
+   * document of the page; when the size of the component has changed in the
+   * meantime, the page is laid out again. A navigation started before the
+   * page is ready waits for it instead of loading the page again, unless
+   * the preparation has not started yet.
+   * <p>
+   * The number of the pages kept is limited by the
+   * {@link Constants#PRELOAD_CACHE_SIZE_PROPERTY} system property; each page
+   * is used for a single navigation. No page is prepared while the editor
+   * kit uses a shared analyzer, see
+   * {@link SwingBoxEditorKit#isSharedAnalyzer()}.
+   *
+   * @param page the URL of the page to prepare
+   * @return the time spent in preparing the page; the future fails when the
+   * page cannot be loaded, it is not an HTML document or the analyzer is
+   * shared
+   */
+  public CompletableFuture<LoadTimings> preload( final URL page ) {
+    return preload( page, PageLoader.getDefaultExecutor() );
+  }
+
+  /**
+   * Prepares the given page in the background as {@link #preload(URL)} does,
+   * running the preparation by the given executor, e.g. by threads of a low
+   * priority that do not delay the navigations. The size of the component is
+   * read by the calling thread, so this method should be called on the event
+   * dispatch thread. The preparation does not take place when the page is
+   * being prepared already.
+   *
+   * @param page     the URL of the page to prepare
+   * @param executor runs the preparation
+   * @return the time spent in preparing the page, see {@link #preload(URL)}
+   * @see #cancelPreload(URL)
+   */
+  public CompletableFuture<LoadTimings> preload( final URL page,
+                                                 final Executor executor ) {
+    if( page == null ) {
+      return CompletableFuture.failedFuture( new IOException( "invalid url" ) );
+    }
+
+    if( ((SwingBoxEditorKit) swingBoxEditorKit).isSharedAnalyzer() ) {
+      return CompletableFuture.failedFuture(
+          new IOException( "The pages cannot be prepared with a shared analyzer" ) );
+    }
+
+    var prepared = preloads.get( page );
+
+    if( prepared == null ) {
+      final var size = SwingBoxEditorKit.getLayoutSize( this );
+      final var timings = new LoadTimings( page );
+      final var preparation =
+          new Preparation( () -> prepare( page, size, timings ) );
+
+      prepared = preparation;
+      preloads.put( page, prepared );
+
+      try {
+        executor.execute( preparation );
+      } catch( final RejectedExecutionException e ) {
+        preparation.completeExceptionally( e );
       }
+    }
+
+    return prepared.thenApply( PreparedPage::getTimings );
+  }
+
+  /**
+   * Cancels the preparation of the given page unless it has started already.
+   * The preparations in progress are finished, so that a navigation to the
+   * page may use them.
+   *
+   * @param page the URL of the page prepared by {@link #preload(URL)}
+   * @return {@code true} when the preparation has been cancelled
+   */
+  public boolean cancelPreload( final URL page ) {
+    final var prepared = preloads.get( page );
+
+    return prepared instanceof Preparation &&
+        ((Preparation) prepared).cancelQueued();
+  }
+
+  private PreparedPage prepare( final URL page, final Dimension size,
+                                final LoadTimings timings ) {
+    timings.endStage( QUEUED );
+
+    try {
+      final URLConnection conn = connect( page, null );
+      final String type = conn.getContentType();
+
+      if( type == null || getEditorKitForContentType(
+          type.split( ";" )[ 0 ].trim() ) != swingBoxEditorKit ) {
+        throw new IOException( "Unsupported content type " + type );
+      }
+
+      final var properties = getConnectionProperties( conn );
+
+      try( final InputStream in = conn.getInputStream() ) {
+        timings.endStage( FETCH );
+
+        final var src = new StreamDocumentSource( in, conn.getURL(), type );
+        return PageLoader.measure( timings, () ->
+            ((SwingBoxEditorKit) swingBoxEditorKit).prepare(
+                src, size, properties, timings ) );
+      }
+    } catch( final Exception e ) {
+      throw new CompletionException( e );
+    }
+  }
+
+  /**
+   * Obtains the preloaded page, waiting for it when not ready yet.
+   *
+   * @return the page or {@code null} when the page has not been preloaded
+   * or the preloading has failed
+   */
+  private PreparedPage takePreloaded( final URL page )
+      throws InterruptedIOException {
+    final var prepared = preloads.take( page );
+
+    if( prepared == null ) {
+      return null;
+    }
+
+    if( prepared instanceof Preparation &&
+        ((Preparation) prepared).cancelQueued() ) {
+      // loading the page now is faster than waiting for the queued preparation
+      return null;
+    }
+
+    try {
+      return prepared.get();
+    } catch( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException( "The page load has been cancelled" );
+    } catch( ExecutionException | CancellationException e ) {
+      // loaded again
+      return null;
+    }
+  }
+
+  /**
+   * Opens the page, unless it has been prepared already.
+   *
+   * @return the stream of the page or {@code null} for a prepared page
+   */
+  private InputStream fetch( final URL page, final PreparedPage prepared )
+      throws IOException {
+    if( prepared == null ) {
+      return getStream( page );
+    }
+
+    runOnEDT( () -> {
+      if( pageProperties == null ) {
+        pageProperties = new Hashtable<>( 22 );
+      }
+      setContentType( prepared.getContentType() );
+      pageProperties.putAll( prepared.getProperties() );
+    } );
+
+    return null;
+  }
+
+  /**
+   * Cancels the page load in progress, if any. The current document is
+   * kept.
+   */
+  public void stopLoading() {
+    pageLoader.cancel();
+    // the document of the cancelled load is not displayed
+    document = super.getDocument();
+  }
+
+  private void loadPage( final int generation, final URL newPage,
+                         final URL oldPage, final InputStream in,
+                         final PreparedPage prepared, final Document doc,
+                         final LoadTimings timings,
+                         final CompletableFuture<LoadTimings> result ) {
+    boolean done = false;
+    try {
+      PageLoader.checkCancelled();
 
       // read the content
-      read( loadingStream, doc );
-      // set the document to the component
-      setDocument( doc );
-
-      final String reference = newPage.getRef();
-      // Have to scroll after painted.
-      SwingUtilities.invokeLater( () -> {
-        // top of the pane
-        scrollRectToVisible( new Rectangle( 0, 0, 1, 1 ) );
-        if( reference != null ) {
-          scrollToReference( reference );
-        }
+      if( prepared == null ) {
+        read( in, doc );
+      }
+      else {
+        read( prepared, doc );
+      }
+      timings.endStage( DOCUMENT );
+
+      // set the document to the component unless a newer page is loading
+      done = pageLoader.commit( generation, () -> {
+        keepInHistory();
+        setDocument( doc );
       } );
 
-      done = true;
+      if( done ) {
+        timings.endStage( DISPLAY );
 
+        final String reference = newPage.getRef();
+        // Have to scroll after painted.
+        SwingUtilities.invokeLater( () -> {
+          // top of the pane
+          scrollRectToVisible( new Rectangle( 0, 0, 1, 1 ) );
+          if( reference != null ) {
+            scrollToReference( reference );
+          }
+        } );
+      }
+
+    } catch( InterruptedIOException e ) {
+      // cancelled by a newer navigation
     } catch( IOException ioe ) {
-      UIManager.getLookAndFeel().provideErrorFeedback( this );
+      if( pageLoader.isCurrent( generation ) ) {
+        UIManager.getLookAndFeel().provideErrorFeedback( this );
+      }
+      if( result != null ) {
+        result.completeExceptionally( ioe );
+      }
+    } catch( RuntimeException e ) {
+      if( result != null ) {
+        result.completeExceptionally( e );
+      }
+      throw e;
     } finally {
-      synchronized( this ) {
-        if( loadingStream != null ) {
-          try {
-            loadingStream.close();
-          } catch( IOException e ) {
-            e.printStackTrace();
-          }
+      try {
+        if( in != null ) {
+          in.close();
         }
-        loadingStream = null;
+      } catch( IOException e ) {
+        e.printStackTrace();
       }
 
       if( done ) {
@@ -479,6 +1137,16 @@ public class BrowserPane extends JEditorPane {
             () -> firePropertyChange( "page", oldPage, newPage )
         );
       }
+
+      if( result != null ) {
+        if( done ) {
+          result.complete( timings );
+        }
+        else {
+          // outdated, the future has been cancelled already
+          result.cancel( false );
+        }
+      }
     }
 
   }
@@ -525,7 +1193,16 @@ public class BrowserPane extends JEditorPane {
       setContentType( type );
     }
 
-    pageProperties.put( Document.StreamDescriptionProperty, conn.getURL() );
+    pageProperties.putAll( getConnectionProperties( conn ) );
+  }
+
+  /**
+   * Obtains the URL and the header fields of the connection.
+   */
+  private static Map<String, Object> getConnectionProperties(
+      URLConnection conn ) {
+    final Map<String, Object> properties = new HashMap<>();
+    properties.put( Document.StreamDescriptionProperty, conn.getURL() );
 
     Map<String, List<String>> header = conn.getHeaderFields();
 
@@ -534,9 +1211,11 @@ public class BrowserPane extends JEditorPane {
     for( String key : keys ) {
       obj = header.get( key );
       if( key != null && obj != null ) {
-        pageProperties.put( key, obj );
+        properties.put( key, obj );
       }
     }
+
+    return properties;
   }
 
   /*
@@ -586,6 +1265,17 @@ public class BrowserPane extends JEditorPane {
     super.read( in, desc );
   }
 
+  void read( PreparedPage prepared, Document doc ) throws IOException {
+    final var kit = getEditorKit();
+
+    if( !(kit instanceof SwingBoxEditorKit) ||
+        !(doc instanceof SwingBoxDocument) ) {
+      throw new IOException( "The page has been prepared for another kit" );
+    }
+
+    ((SwingBoxEditorKit) kit).readPrepared( prepared, (SwingBoxDocument) doc );
+  }
+
   void read( InputStream in, Document doc ) throws IOException {
     final var kit = getEditorKit();
 
@@ -595,4 +1285,37 @@ public class BrowserPane extends JEditorPane {
       throw new IOException( ble );
     }
   }
+
+  /**
+   * The preparation of a page, which may be cancelled until it starts.
+   */
+  private static final class Preparation extends CompletableFuture<PreparedPage>
+      implements Runnable {
+    private final Supplier<PreparedPage> mTask;
+    private final AtomicBoolean mStarted = new AtomicBoolean();
+
+    private Preparation( final Supplier<PreparedPage> task ) {
+      mTask = task;
+    }
+
+    @Override
+    public void run() {
+      if( mStarted.compareAndSet( false, true ) ) {
+        try {
+          complete( mTask.get() );
+        } catch( final Throwable e ) {
+          completeExceptionally( e );
+        }
+      }
+    }
+
+    /**
+     * Cancels the preparation unless it has started already.
+     *
+     * @return {@code true} when the preparation has been cancelled
+     */
+    private boolean cancelQueued() {
+      return mStarted.compareAndSet( false, true ) && cancel( false );
+    }
+  }
 }
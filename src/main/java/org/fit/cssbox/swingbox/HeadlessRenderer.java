@@ -0,0 +1,403 @@
+/*
+ * (c) Peter Bielik and Radek Burget, 2011-2012
+ *
+ * SwingBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SwingBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with SwingBox. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.fit.cssbox.swingbox;
+
+import org.fit.cssbox.io.DocumentSource;
+import org.fit.cssbox.swingbox.performance.FastDocumentSource;
+import org.fit.cssbox.swingbox.performance.ResourceLoader;
+import org.fit.cssbox.swingbox.util.CSSBoxAnalyzer;
+import org.fit.cssbox.swingbox.util.ContentReader;
+import org.fit.cssbox.swingbox.util.DefaultAnalyzer;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultStyledDocument.ElementSpec;
+import javax.swing.text.Element;
+import javax.swing.text.Position;
+import javax.swing.text.View;
+import javax.swing.text.ViewFactory;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Renders documents to images without any Swing component. The documents
+ * are processed in the same way as in {@link BrowserPane}: the document is
+ * analyzed, converted to the elements of a {@link SwingBoxDocument}, the views
+ * are created by the {@link SwingBoxViewFactory} and painted to the image.
+ * <p>
+ * The rendering tasks run on the given executor. Each task uses its own
+ * analyzer, document and views, so that any number of tasks may run
+ * concurrently. The number of the submitted and not yet finished tasks is
+ * bounded; when the limit is reached, the submitting thread is blocked until
+ * some of the tasks finishes.
+ *
+ * @author Radek Burget
+ */
+public class HeadlessRenderer
+{
+    /** The viewport height used when only the width is specified */
+    public static final int DEFAULT_VIEWPORT_HEIGHT = 600;
+
+    private final Executor executor;
+    private final Supplier<CSSBoxAnalyzer> analyzerFactory;
+    private final int capacity;
+    private final Semaphore slots;
+
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong renderTime = new AtomicLong();
+    private final AtomicLong firstSubmit = new AtomicLong();
+    private final AtomicLong lastFinish = new AtomicLong();
+
+    /**
+     * Creates a renderer that uses the {@link DefaultAnalyzer}.
+     *
+     * @param executor
+     *            the executor that runs the rendering tasks
+     * @param capacity
+     *            the maximal number of the submitted tasks that have not
+     *            finished yet
+     */
+    public HeadlessRenderer(Executor executor, int capacity)
+    {
+        this(executor, capacity, DefaultAnalyzer::new);
+    }
+
+    /**
+     * Creates a renderer.
+     *
+     * @param executor
+     *            the executor that runs the rendering tasks
+     * @param capacity
+     *            the maximal number of the submitted tasks that have not
+     *            finished yet
+     * @param analyzerFactory
+     *            creates a new analyzer for each of the tasks
+     */
+    public HeadlessRenderer(Executor executor, int capacity, Supplier<CSSBoxAnalyzer> analyzerFactory)
+    {
+        if (capacity < 1)
+            throw new IllegalArgumentException("The capacity must be positive");
+        this.executor = executor;
+        this.analyzerFactory = analyzerFactory;
+        this.capacity = capacity;
+        this.slots = new Semaphore(capacity);
+    }
+
+    /**
+     * Submits a document for rendering. Blocks while the maximal number of
+     * unfinished tasks has been reached. The document is fetched through the
+     * connection pool and the HTTP cache of the default
+     * {@link ResourceLoader}.
+     *
+     * @param url
+     *            the document URL
+     * @param width
+     *            the viewport width
+     * @return the future image of the whole document
+     * @throws InterruptedException
+     *             when interrupted while waiting for a free slot
+     */
+    public CompletableFuture<BufferedImage> submit(URL url, int width) throws InterruptedException
+    {
+        return submit(() -> new FastDocumentSource(url), new Dimension(width, DEFAULT_VIEWPORT_HEIGHT));
+    }
+
+    /**
+     * Submits a document for rendering. Blocks while the maximal number of
+     * unfinished tasks has been reached. The document source is read and
+     * closed by the rendering task.
+     *
+     * @param source
+     *            the document source
+     * @param width
+     *            the viewport width
+     * @return the future image of the whole document
+     * @throws InterruptedException
+     *             when interrupted while waiting for a free slot
+     */
+    public CompletableFuture<BufferedImage> submit(DocumentSource source, int width) throws InterruptedException
+    {
+        return submit(() -> source, new Dimension(width, DEFAULT_VIEWPORT_HEIGHT));
+    }
+
+    /**
+     * Submits a document for rendering. Blocks while the maximal number of
+     * unfinished tasks has been reached. The document source is read and
+     * closed by the rendering task.
+     *
+     * @param source
+     *            the document source
+     * @param dim
+     *            the viewport size
+     * @return the future image of the whole document
+     * @throws InterruptedException
+     *             when interrupted while waiting for a free slot
+     */
+    public CompletableFuture<BufferedImage> submit(DocumentSource source, Dimension dim) throws InterruptedException
+    {
+        return submit(() -> source, dim);
+    }
+
+    /**
+     * Renders a document on the calling thread.
+     *
+     * @param source
+     *            the document source, it is closed when finished
+     * @param dim
+     *            the viewport size
+     * @return the image of the whole document
+     * @throws IOException
+     *             when the document could not be read or analyzed
+     */
+    public BufferedImage render(DocumentSource source, Dimension dim) throws IOException
+    {
+        List<ElementSpec> elements;
+        try
+        {
+            CSSBoxAnalyzer analyzer = analyzerFactory.get();
+            elements = new ContentReader().read(source, analyzer, dim);
+        } finally
+        {
+            source.close();
+        }
+
+        SwingBoxDocument doc = new SwingBoxDocument();
+        doc.create(elements.toArray(new ElementSpec[0]));
+
+        HeadlessRootView root = new HeadlessRootView(doc.getDefaultRootElement(), new SwingBoxViewFactory());
+        View view = root.getView(0);
+        int w = Math.max(dim.width, (int) view.getPreferredSpan(View.X_AXIS));
+        int h = Math.max(1, (int) view.getPreferredSpan(View.Y_AXIS));
+        view.setSize(w, h);
+
+        BufferedImage img = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = img.createGraphics();
+        try
+        {
+            Rectangle rec = new Rectangle(w, h);
+            g.setClip(rec);
+            view.paint(g, rec);
+        } finally
+        {
+            g.dispose();
+            root.dispose();
+        }
+        return img;
+    }
+
+    /**
+     * Gets the maximal number of unfinished tasks.
+     *
+     * @return the capacity
+     */
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    /**
+     * Gets the number of the submitted tasks that have not finished yet.
+     *
+     * @return the number of pending tasks
+     */
+    public int getPendingCount()
+    {
+        return capacity - slots.availablePermits();
+    }
+
+    /**
+     * Gets the number of the tasks being rendered at the moment.
+     *
+     * @return the number of running tasks
+     */
+    public int getRunningCount()
+    {
+        return running.get();
+    }
+
+    /**
+     * Gets the number of the successfully rendered documents.
+     *
+     * @return the number of completed tasks
+     */
+    public long getCompletedCount()
+    {
+        return completed.get();
+    }
+
+    /**
+     * Gets the number of the tasks that have failed.
+     *
+     * @return the number of failed tasks
+     */
+    public long getFailedCount()
+    {
+        return failed.get();
+    }
+
+    /**
+     * Gets the average time spent by rendering a single document.
+     *
+     * @return the average time in milliseconds
+     */
+    public double getAverageRenderTime()
+    {
+        long cnt = completed.get() + failed.get();
+        return (cnt == 0) ? 0 : renderTime.get() / 1e6 / cnt;
+    }
+
+    /**
+     * Gets the number of documents rendered per second, measured from the
+     * first submission to the last finished task.
+     *
+     * @return the throughput in documents per second
+     */
+    public double getThroughput()
+    {
+        long start = firstSubmit.get();
+        long end = lastFinish.get();
+        return (start == 0 || end <= start) ? 0 : completed.get() * 1e9 / (end - start);
+    }
+
+    //==================================================================================
+
+    private CompletableFuture<BufferedImage> submit(SourceFactory source, Dimension dim) throws InterruptedException
+    {
+        slots.acquire();
+        firstSubmit.compareAndSet(0, System.nanoTime());
+        final Dimension size = new Dimension(dim);
+        CompletableFuture<BufferedImage> ret = new CompletableFuture<>();
+        try
+        {
+            executor.execute(() -> run(source, size, ret));
+        } catch (RejectedExecutionException e)
+        {
+            slots.release();
+            throw e;
+        }
+        return ret;
+    }
+
+    private void run(SourceFactory source, Dimension dim, CompletableFuture<BufferedImage> result)
+    {
+        running.incrementAndGet();
+        long start = System.nanoTime();
+        try
+        {
+            BufferedImage img = render(source.create(), dim);
+            completed.incrementAndGet();
+            result.complete(img);
+        } catch (Exception | Error e)
+        {
+            failed.incrementAndGet();
+            result.completeExceptionally(e);
+        } finally
+        {
+            long end = System.nanoTime();
+            renderTime.addAndGet(end - start);
+            lastFinish.accumulateAndGet(end, Math::max);
+            running.decrementAndGet();
+            slots.release();
+        }
+    }
+
+    private interface SourceFactory
+    {
+        DocumentSource create() throws IOException;
+    }
+
+    /**
+     * The root of the view hierarchy that is not hosted by any component.
+     * It only provides the view factory to the views.
+     */
+    private static class HeadlessRootView extends View
+    {
+        private final ViewFactory factory;
+        private View view;
+
+        public HeadlessRootView(Element root, ViewFactory factory)
+        {
+            super(root);
+            this.factory = factory;
+            view = factory.create(root);
+            view.setParent(this);
+        }
+
+        public void dispose()
+        {
+            view.setParent(null);
+            view = null;
+        }
+
+        @Override
+        public ViewFactory getViewFactory()
+        {
+            return factory;
+        }
+
+        @Override
+        public int getViewCount()
+        {
+            return 1;
+        }
+
+        @Override
+        public View getView(int n)
+        {
+            return view;
+        }
+
+        @Override
+        public float getPreferredSpan(int axis)
+        {
+            return view.getPreferredSpan(axis);
+        }
+
+        @Override
+        public void paint(Graphics g, Shape allocation)
+        {
+            view.paint(g, allocation);
+        }
+
+        @Override
+        public Shape modelToView(int pos, Shape a, Position.Bias b)
+                throws BadLocationException
+        {
+            return view.modelToView(pos, a, b);
+        }
+
+        @Override
+        public int viewToModel(float x, float y, Shape a, Position.Bias[] bias)
+        {
+            return view.viewToModel(x, y, a, bias);
+        }
+    }
+
+}
@@ -18,12 +18,30 @@
 
 package org.fit.cssbox.swingbox;
 
+import org.fit.cssbox.layout.Box;
 import org.fit.cssbox.swingbox.util.Anchor;
+import org.fit.cssbox.swingbox.util.BoxAttributeSet;
+import org.fit.cssbox.swingbox.util.CSSBoxAnalyzer;
 import org.fit.cssbox.swingbox.util.Constants;
+import org.fit.cssbox.swingbox.util.TextIndex;
+import org.w3c.dom.Node;
 
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.UndoableEditEvent;
+import javax.swing.text.AttributeSet;
 import javax.swing.text.BadLocationException;
 import javax.swing.text.DefaultStyledDocument;
 import javax.swing.text.Element;
+import javax.swing.text.MutableAttributeSet;
+import javax.swing.text.Segment;
+import javax.swing.text.StyleContext;
+import javax.swing.undo.UndoableEdit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * @author Peter Bielik
@@ -34,23 +52,58 @@ public class SwingBoxDocument extends DefaultStyledDocument
 {
     private static final long serialVersionUID = 5342259762698268312L;
 
+    /** the analyzer holding the layout of this document */
+    private transient CSSBoxAnalyzer analyzer;
+
+    /** the index of the referenced elements, created on demand */
+    private transient volatile ReferenceIndex references;
+
+    /** the text of the document used for searching, created on demand */
+    private transient volatile TextIndex texts;
+
     /**
      * Custom implementation of Document, used in SwingBox
      */
     public SwingBoxDocument()
     {
-        super();
+        super(new UnsharedStyleContext());
         // we do not support any inserting, removing or replacing of string & no
         // filters
         setDocumentFilter(null);
     }
 
+    /**
+     * Gets the analyzer that has created the layout of this document. It is
+     * used for the later relayouts of the document.
+     * 
+     * @return the analyzer or <code>null</code> when the document shares the
+     *         analyzer of its editor kit
+     */
+    public CSSBoxAnalyzer getAnalyzer()
+    {
+        return analyzer;
+    }
+
+    /**
+     * Sets the analyzer that has created the layout of this document.
+     * 
+     * @param analyzer
+     *            the analyzer owned by this document or <code>null</code>
+     *            for using the analyzer of the editor kit
+     */
+    public void setAnalyzer(CSSBoxAnalyzer analyzer)
+    {
+        this.analyzer = analyzer;
+    }
+
     @Override
     public void insert(int offset, ElementSpec[] data)
             throws BadLocationException
     {
         // we need this method, so we are "re-visibling" it
         super.insert(offset, data);
+        references = null;
+        texts = null;
     }
 
     @Override
@@ -58,6 +111,190 @@ public class SwingBoxDocument extends DefaultStyledDocument
     {
         // we need this method, so we are "re-visibling" it
         super.create(data);
+        references = null;
+        texts = null;
+    }
+
+    @Override
+    protected void removeUpdate(DefaultDocumentEvent chng)
+    {
+        references = null;
+        texts = null;
+        super.removeUpdate(chng);
+    }
+
+    /**
+     * Finds the element a fragment identifier refers to. It is the first
+     * element, in the document order, whose id is equal to the reference
+     * ignoring the case or that is a part of a link named by the reference.
+     * The backgrounds are not considered. The elements are indexed on the first
+     * call, the index is kept until the document structure changes.
+     * 
+     * @param reference
+     *            the fragment identifier
+     * @return the element or <code>null</code> when not found
+     */
+    public Element getReferencedElement(String reference)
+    {
+        ReferenceIndex index = references;
+        if (index == null)
+        {
+            readLock();
+            try
+            {
+                // stored under the lock, so that it is not stored after a change
+                index = new ReferenceIndex(getDefaultRootElement());
+                references = index;
+            } finally
+            {
+                readUnlock();
+            }
+        }
+        return index.find(reference);
+    }
+
+    /**
+     * Obtains the plain text of the document used for searching. The text is
+     * indexed on the first call, the index is kept until the document is
+     * changed or laid out again.
+     * 
+     * @return the text index
+     */
+    public TextIndex getTextIndex()
+    {
+        TextIndex index = texts;
+        if (index == null)
+        {
+            readLock();
+            try
+            {
+                index = new TextIndex(this);
+                texts = index;
+            } finally
+            {
+                readUnlock();
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Updates the document to a new layout of the same content without
+     * recreating all its elements. The new elements are matched with the
+     * current ones subtree by subtree. The elements with the same names, the
+     * same text and the boxes of the same type created for the same DOM nodes
+     * are kept and their attributes are replaced by the new ones, so that the
+     * existing views may be retargeted to the new boxes. Within each matching
+     * branch, the children that do not match, e.g. the text boxes of the lines
+     * broken differently, are replaced by the new elements together with
+     * their content. The replaced text is reported by the insert and remove
+     * events and the undoable edits as if it was edited, the replaced
+     * children by the element changes of the remove events, so only the
+     * views of the replaced elements are created again. Finally, a change
+     * event covering the whole document reports the new attributes.
+     * 
+     * @param data
+     *            the elements of the new layout, as passed to
+     *            {@link #create(ElementSpec[])}
+     * @return <code>true</code> when the document has been updated,
+     *         <code>false</code> when the top-level structure differs and the
+     *         document has to be created again; the document is not modified
+     *         in that case
+     */
+    public boolean update(ElementSpec[] data)
+    {
+        Element root = getDefaultRootElement();
+        if (data.length < 2 || data[0].getType() != ElementSpec.EndTagType
+                || root.getElementCount() != 1 || root.getElement(0).isLeaf())
+            return false;
+        // the bidirectional structure of the text is only maintained by
+        // the editing methods
+        if (Boolean.TRUE.equals(getProperty("i18n")))
+            return false;
+
+        try
+        {
+            writeLock();
+            Segment text = new Segment();
+            // the top-level content preceding the delegated element has no elements
+            int index = 1;
+            int offset = 0;
+            while (index < data.length && data[index].getType() == ElementSpec.ContentType)
+            {
+                if (!sameText(offset, data[index], text))
+                    return false;
+                offset += data[index].getLength();
+                index++;
+            }
+            Element delegated = root.getElement(0);
+            if (offset != delegated.getStartOffset() || index >= data.length)
+                return false;
+            int[] pos = { index };
+            SpecNode next = SpecNode.parse(data, pos);
+            if (next == null || pos[0] != data.length)
+                return false;
+
+            // nothing is modified until the whole update is known to be possible
+            UpdatePlan plan = new UpdatePlan(text);
+            if (!plan.matches(delegated, next) || !plan.sync(delegated, next))
+                return false;
+
+            // the lines may be broken differently
+            texts = null;
+            if (plan.apply())
+                references = null;
+
+            DefaultDocumentEvent changes = new DefaultDocumentEvent(0, getLength(), DocumentEvent.EventType.CHANGE);
+            changes.end();
+            fireChangedUpdate(changes);
+            return true;
+        } finally
+        {
+            writeUnlock();
+        }
+    }
+
+    private boolean sameBox(AttributeSet current, AttributeSet next)
+    {
+        Object name = current.getAttribute(ElementNameAttribute);
+        if (name == null || !name.equals(next.getAttribute(ElementNameAttribute))) return false;
+
+        Object b1 = current.getAttribute(Constants.ATTRIBUTE_BOX_REFERENCE);
+        Object b2 = next.getAttribute(Constants.ATTRIBUTE_BOX_REFERENCE);
+        if (b1 instanceof Box && b2 instanceof Box)
+            return b1.getClass() == b2.getClass() && sameNode(((Box) b1).getNode(), ((Box) b2).getNode());
+        else
+            return b1 == null && b2 == null;
+    }
+
+    private boolean sameNode(Node n1, Node n2)
+    {
+        if (n1 == n2) return true;
+        // the anonymous boxes and the viewport use elements created for each layout
+        // that are not a part of the document; their position has been matched already
+        return n1 != null && n2 != null
+                && n1.getNodeType() == Node.ELEMENT_NODE && n2.getNodeType() == Node.ELEMENT_NODE
+                && n1.getParentNode() == null && n2.getParentNode() == null
+                && n1.getNodeName().equals(n2.getNodeName());
+    }
+
+    private boolean sameText(int start, ElementSpec spec, Segment text)
+    {
+        int len = spec.getLength();
+        try
+        {
+            getText(start, len, text);
+        } catch (BadLocationException e)
+        {
+            return false;
+        }
+        char[] chars = spec.getArray();
+        int offset = spec.getOffset();
+        for (int i = 0; i < len; i++)
+        {
+            if (text.array[text.offset + i] != chars[offset + i]) return false;
+        }
+        return true;
     }
 
     @Override
@@ -66,13 +303,412 @@ public class SwingBoxDocument extends DefaultStyledDocument
         try {
             writeLock();
             BranchElement delegate = new DelegateElement(Constants.VIEWPORT);
-            delegate.addAttribute(Constants.ATTRIBUTE_ANCHOR_REFERENCE, new Anchor());
+            delegate.addAttribute(Constants.ATTRIBUTE_ANCHOR_REFERENCE, Anchor.INACTIVE);
             return delegate;
         } finally {
             writeUnlock();
         }
     }
 
+    /**
+     * The changes of the element tree needed for updating the document to a
+     * new layout, see {@link #update(ElementSpec[])}.
+     */
+    private class UpdatePlan
+    {
+        private final Segment text;
+        /** the elements kept and their new attributes */
+        private final List<Element> retargeted = new ArrayList<>();
+        private final List<AttributeSet> attributes = new ArrayList<>();
+        /** the ranges of children replaced by new elements */
+        private final List<Replacement> replacements = new ArrayList<>();
+
+        public UpdatePlan(Segment text)
+        {
+            this.text = text;
+        }
+
+        /**
+         * Checks whether an element may be kept for a new element
+         * specification.
+         */
+        public boolean matches(Element elem, SpecNode node)
+        {
+            ElementSpec spec = node.spec;
+            if (elem.isLeaf() != (node.children == null)
+                    || !sameBox(elem.getAttributes(), spec.getAttributes()))
+                return false;
+            return !elem.isLeaf()
+                    || (elem.getEndOffset() - elem.getStartOffset() == spec.getLength()
+                        && sameText(elem.getStartOffset(), spec, text));
+        }
+
+        /**
+         * Plans the update of a matching element and its subtree. The
+         * children are matched from both the ends, the remaining ones in the
+         * middle are replaced.
+         * 
+         * @return <code>false</code> when the element cannot be updated
+         */
+        public boolean sync(Element elem, SpecNode node)
+        {
+            retargeted.add(elem);
+            attributes.add(node.spec.getAttributes());
+            if (elem.isLeaf())
+                return true;
+
+            int oldCount = elem.getElementCount();
+            int newCount = node.children.size();
+            int prefix = 0;
+            while (prefix < oldCount && prefix < newCount
+                    && matches(elem.getElement(prefix), node.children.get(prefix)))
+                prefix++;
+            int suffix = 0;
+            while (suffix < oldCount - prefix && suffix < newCount - prefix
+                    && matches(elem.getElement(oldCount - 1 - suffix), node.children.get(newCount - 1 - suffix)))
+                suffix++;
+
+            if (prefix + suffix < Math.max(oldCount, newCount))
+            {
+                if (newCount == 0 || !(elem instanceof BranchElement))
+                    return false;
+                int from = prefix;
+                int oldTo = oldCount - suffix;
+                int newTo = newCount - suffix;
+                // the replaced range must not be empty, otherwise the end of the
+                // preceding element would move after the new content
+                while (oldTo == from || elem.getElement(oldTo - 1).getEndOffset() == elem.getElement(from).getStartOffset())
+                {
+                    if (oldTo < oldCount)
+                    {
+                        oldTo++;
+                        newTo++;
+                        suffix--;
+                    }
+                    else if (from > 0)
+                    {
+                        from--;
+                        prefix--;
+                    }
+                    else
+                        return false;
+                }
+                // the implied break at the end of the document must be kept
+                if (elem.getElement(oldTo - 1).getEndOffset() > getLength())
+                    return false;
+                List<SpecNode> added = node.children.subList(from, newTo);
+                for (SpecNode n : added)
+                    if (!n.isComplete())
+                        return false;
+                replacements.add(new Replacement((BranchElement) elem, from, oldTo - from, added));
+            }
+
+            for (int i = 0; i < prefix; i++)
+            {
+                if (!sync(elem.getElement(i), node.children.get(i)))
+                    return false;
+            }
+            for (int i = 0; i < suffix; i++)
+            {
+                if (!sync(elem.getElement(oldCount - 1 - i), node.children.get(newCount - 1 - i)))
+                    return false;
+            }
+            return true;
+        }
+
+        /**
+         * Applies the planned changes to the document.
+         * 
+         * @return <code>true</code> when some elements have been replaced
+         */
+        public boolean apply()
+        {
+            for (int i = 0; i < retargeted.size(); i++)
+            {
+                // the matching elements usually have the same attribute names,
+                // so the values are just overwritten
+                MutableAttributeSet attrs = (MutableAttributeSet) retargeted.get(i);
+                AttributeSet next = attributes.get(i);
+                attrs.addAttributes(next);
+                if (attrs.getAttributeCount() != next.getAttributeCount())
+                {
+                    for (Object name : Collections.list(attrs.getAttributeNames()))
+                        if (!next.isDefined(name)) attrs.removeAttribute(name);
+                }
+            }
+
+            // from the end of the document, so that the offsets of the remaining
+            // replacements are not affected
+            for (int i = replacements.size() - 1; i >= 0; i--)
+                replacements.get(i).apply();
+            return !replacements.isEmpty();
+        }
+    }
+
+    /**
+     * Children of a branch element replaced by new elements.
+     */
+    private class Replacement
+    {
+        private final BranchElement parent;
+        private final int index;
+        private final int length;
+        private final List<SpecNode> added;
+
+        public Replacement(BranchElement parent, int index, int length, List<SpecNode> added)
+        {
+            this.parent = parent;
+            this.index = index;
+            this.length = length;
+            this.added = added;
+        }
+
+        public void apply()
+        {
+            Element[] removed = new Element[length];
+            for (int i = 0; i < length; i++)
+                removed[i] = parent.getElement(index + i);
+            int start = removed[0].getStartOffset();
+            int end = removed[length - 1].getEndOffset();
+
+            StringBuilder content = new StringBuilder();
+            for (SpecNode n : added)
+                n.appendContent(content);
+            try
+            {
+                // the positions at an insertion point move after the inserted
+                // text, so the new content is inserted after the old one; the
+                // preceding elements keep their end, the last removed one
+                // covers the new content until it is replaced and the
+                // following ones get moved after the new content
+                UndoableEdit edit = getContent().insertString(end, content.toString());
+                DefaultDocumentEvent insert = new DefaultDocumentEvent(end, content.length(), DocumentEvent.EventType.INSERT);
+                insert.addEdit(edit);
+                insert.end();
+                fireInsertUpdate(insert);
+                fireUndoableEditUpdate(new UndoableEditEvent(SwingBoxDocument.this, insert));
+
+                edit = getContent().remove(start, end - start);
+                DefaultDocumentEvent remove = new DefaultDocumentEvent(start, end - start, DocumentEvent.EventType.REMOVE);
+                remove.addEdit(edit);
+                Element[] elems = new Element[added.size()];
+                int[] pos = { start };
+                for (int i = 0; i < elems.length; i++)
+                    elems[i] = build(parent, added.get(i), pos);
+                parent.replace(index, length, elems);
+                remove.addEdit(new ElementEdit(parent, index, removed, elems));
+                remove.end();
+                fireRemoveUpdate(remove);
+                fireUndoableEditUpdate(new UndoableEditEvent(SwingBoxDocument.this, remove));
+            } catch (BadLocationException e)
+            {
+                // the range has been checked when planning the update
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private Element build(Element parent, SpecNode node, int[] pos)
+        {
+            AttributeSet attrs = node.spec.getAttributes();
+            if (node.children == null)
+            {
+                int p0 = pos[0];
+                pos[0] += node.spec.getLength();
+                return createLeafElement(parent, attrs, p0, pos[0]);
+            }
+            else
+            {
+                BranchElement branch = (BranchElement) createBranchElement(parent, attrs);
+                Element[] children = new Element[node.children.size()];
+                for (int i = 0; i < children.length; i++)
+                    children[i] = build(branch, node.children.get(i), pos);
+                branch.replace(0, 0, children);
+                return branch;
+            }
+        }
+    }
+
+    /**
+     * An element specification together with the specifications of its
+     * children.
+     */
+    private static class SpecNode
+    {
+        public final ElementSpec spec;
+        /** the children or <code>null</code> for the content */
+        public final List<SpecNode> children;
+
+        public SpecNode(ElementSpec spec, List<SpecNode> children)
+        {
+            this.spec = spec;
+            this.children = children;
+        }
+
+        /**
+         * Parses the specifications of an element and its descendants.
+         * 
+         * @param data
+         *            the specifications
+         * @param pos
+         *            the index of the first specification, updated to the
+         *            index following the element
+         * @return the element or <code>null</code> when the specifications
+         *         are not well formed
+         */
+        public static SpecNode parse(ElementSpec[] data, int[] pos)
+        {
+            ElementSpec spec = data[pos[0]++];
+            if (spec.getType() == ElementSpec.ContentType)
+                return new SpecNode(spec, null);
+            else if (spec.getType() != ElementSpec.StartTagType)
+                return null;
+
+            List<SpecNode> children = new ArrayList<>();
+            while (pos[0] < data.length && data[pos[0]].getType() != ElementSpec.EndTagType)
+            {
+                SpecNode child = parse(data, pos);
+                if (child == null)
+                    return null;
+                children.add(child);
+            }
+            if (pos[0] >= data.length)
+                return null;
+            pos[0]++;
+            return new SpecNode(spec, children);
+        }
+
+        /**
+         * Checks whether elements may be created for this subtree, i.e. there
+         * are no empty branches and content.
+         */
+        public boolean isComplete()
+        {
+            if (children == null)
+                return spec.getLength() > 0;
+            if (children.isEmpty())
+                return false;
+            for (SpecNode child : children)
+                if (!child.isComplete())
+                    return false;
+            return true;
+        }
+
+        public void appendContent(StringBuilder dest)
+        {
+            if (children == null)
+                dest.append(spec.getArray(), spec.getOffset(), spec.getLength());
+            else
+                for (SpecNode child : children)
+                    child.appendContent(dest);
+        }
+    }
+
+    /**
+     * The elements referenced by their ids or by the names of their links.
+     * The first element in the document order is kept for each reference.
+     */
+    private static class ReferenceIndex
+    {
+        private final Map<String, Target> ids = new HashMap<>();
+        private final Map<String, Target> names = new HashMap<>();
+        private int order;
+
+        public ReferenceIndex(Element root)
+        {
+            add(root);
+        }
+
+        public Element find(String reference)
+        {
+            Target id = ids.get(foldCase(reference));
+            Target name = names.get(reference);
+            if (id == null)
+                return (name == null) ? null : name.element;
+            else
+                return (name == null || id.order < name.order) ? id.element : name.element;
+        }
+
+        private void add(Element elem)
+        {
+            AttributeSet attrs = elem.getAttributes();
+            if (!Constants.BACKGROUND.equals(attrs.getAttribute(ElementNameAttribute)))
+            {
+                Object eid = attrs.getAttribute(Constants.ATTRIBUTE_ELEMENT_ID);
+                if (eid instanceof String)
+                    ids.putIfAbsent(foldCase((String) eid), new Target(elem, order));
+                Object anchor = attrs.getAttribute(Constants.ATTRIBUTE_ANCHOR_REFERENCE);
+                if (anchor instanceof Anchor && ((Anchor) anchor).isActive())
+                {
+                    String name = ((Anchor) anchor).getProperties().get(Constants.ELEMENT_A_ATTRIBUTE_NAME);
+                    if (name != null)
+                        names.putIfAbsent(name, new Target(elem, order));
+                }
+                order++;
+            }
+            for (int i = 0; i < elem.getElementCount(); i++)
+                add(elem.getElement(i));
+        }
+
+        /**
+         * Converts a string so that the strings equal ignoring the case are
+         * equal, as in {@link String#equalsIgnoreCase(String)}.
+         */
+        private static String foldCase(String s)
+        {
+            char[] chars = s.toCharArray();
+            for (int i = 0; i < chars.length; i++)
+                chars[i] = Character.toLowerCase(Character.toUpperCase(chars[i]));
+            return new String(chars);
+        }
+    }
+
+    private static class Target
+    {
+        public final Element element;
+        public final int order;
+
+        public Target(Element element, int order)
+        {
+            this.element = element;
+            this.order = order;
+        }
+    }
+
+    /**
+     * The attribute context that does not share the attribute sets among the
+     * elements. Each element refers to its own box, so the sets would never be
+     * shared anyway and maintaining the pool of unique sets only slows down
+     * creating and updating the elements. The immutable {@link BoxAttributeSet}s
+     * created by the content reader are used by the elements directly instead
+     * of being copied.
+     */
+    private static class UnsharedStyleContext extends StyleContext
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected int getCompressionThreshold()
+        {
+            return 0;
+        }
+
+        @Override
+        public AttributeSet addAttributes(AttributeSet old, AttributeSet attr)
+        {
+            // the new set replaces the old one when it redefines all its attributes
+            if (attr instanceof BoxAttributeSet && old.getAttributeCount() <= attr.getAttributeCount())
+            {
+                Enumeration<?> names = old.getAttributeNames();
+                boolean replaced = true;
+                while (replaced && names.hasMoreElements())
+                    replaced = attr.isDefined(names.nextElement());
+                if (replaced)
+                    return attr;
+            }
+            return super.addAttributes(old, attr);
+        }
+    }
+
     /**
      * The Class DelegateElement.
      */
@@ -18,9 +18,9 @@
 
 package org.fit.cssbox.swingbox;
 
-import org.apache.commons.io.input.ReaderInputStream;
 import org.fit.cssbox.io.DocumentSource;
 import org.fit.cssbox.io.StreamDocumentSource;
+import org.fit.cssbox.swingbox.performance.ReaderDocumentSource;
 import org.fit.cssbox.swingbox.util.*;
 import org.fit.cssbox.swingbox.util.GeneralEvent.EventType;
 
@@ -32,8 +32,7 @@ import java.io.*;
 import java.net.URL;
 import java.nio.charset.Charset;
 import java.util.List;
-
-import static java.nio.charset.StandardCharsets.UTF_8;
+import java.util.Map;
 
 /**
  * This is custom implementation of EditorKit for (X)HTML with use of CSSBox.
@@ -47,10 +46,13 @@ public class SwingBoxEditorKit extends StyledEditorKit
 {
     private static final long serialVersionUID = -2774578978116020429L;
 
-    private CSSBoxAnalyzer cbanalyzer;
+    private volatile CSSBoxAnalyzer cbanalyzer;
+    /** the analyzer has been set explicitly and it is shared by all the documents */
+    private boolean sharedAnalyzer;
     private ViewFactory vfactory;
     private JEditorPane component;
     private final MouseController mcontroller;
+    private boolean incrementalUpdate = true;
 
     /**
      * Instantiates a new swing box editor kit.
@@ -91,7 +93,7 @@ public class SwingBoxEditorKit extends StyledEditorKit
     public SwingBoxEditorKit(CSSBoxAnalyzer cba)
     {
         this();
-        this.cbanalyzer = cba;
+        setCSSBoxAnalyzer(cba);
     }
 
     @Override
@@ -212,7 +214,8 @@ public class SwingBoxEditorKit extends StyledEditorKit
 
         if (doc instanceof org.fit.cssbox.swingbox.SwingBoxDocument)
         {
-            readImpl(in, (org.fit.cssbox.swingbox.SwingBoxDocument) doc, pos);
+            SwingBoxDocument sdoc = (SwingBoxDocument) doc;
+            readImpl(new StreamDocumentSource(in, getURL(sdoc), getContentType(sdoc)), sdoc, pos);
         }
         else
         {
@@ -227,8 +230,9 @@ public class SwingBoxEditorKit extends StyledEditorKit
 
         if (doc instanceof org.fit.cssbox.swingbox.SwingBoxDocument)
         {
-            InputStream is = new ReaderInputStream(in, UTF_8);
-            readImpl(is, (org.fit.cssbox.swingbox.SwingBoxDocument) doc, pos);
+            // already decoded, the characters are passed to the parser as they are
+            SwingBoxDocument sdoc = (SwingBoxDocument) doc;
+            readImpl(new ReaderDocumentSource(in, getURL(sdoc)), sdoc, pos);
         }
         else
         {
@@ -249,26 +253,138 @@ public class SwingBoxEditorKit extends StyledEditorKit
     public void update(SwingBoxDocument doc, Dimension dim)
             throws IOException
     {
-        ContentReader rdr = new ContentReader();
-        List<ElementSpec> elements = rdr.update(dim, getCSSBoxAnalyzer());
-        ElementSpec[] elementsArray = elements.toArray( new ElementSpec[0]);
-        doc.create(elementsArray);
+        applyUpdate(doc, computeUpdate(doc, dim));
     }
 
     /**
-     * Allows to set custom CSSBoxAnalyzer
+     * Replaces the content of the document by a new layout obtained from
+     * {@link #computeUpdate(Dimension)}. When the incremental update is
+     * enabled and the new layout has the same structure as the current one,
+     * the existing elements and views are retargeted to the new boxes.
+     * Otherwise, the document is created again.
+     * 
+     * @param doc
+     *            the document
+     * @param elements
+     *            the elements of the new layout
+     * @return <code>true</code> when the document has been updated in place,
+     *         <code>false</code> when it has been created again
+     */
+    public boolean applyUpdate(SwingBoxDocument doc, ElementSpec[] elements)
+    {
+        if (incrementalUpdate && doc.update(elements))
+            return true;
+        doc.create(elements);
+        return false;
+    }
+
+    /**
+     * Enables or disables the incremental update of the document on relayout.
+     * 
+     * @param incremental
+     *            <code>true</code> for retargeting the existing elements when
+     *            possible, <code>false</code> for always recreating the document
+     * @see #applyUpdate(SwingBoxDocument, ElementSpec[])
+     */
+    public void setIncrementalUpdate(boolean incremental)
+    {
+        this.incrementalUpdate = incremental;
+    }
+
+    /**
+     * Checks whether the incremental update of the document is enabled.
+     * 
+     * @return <code>true</code> when enabled
+     */
+    public boolean isIncrementalUpdate()
+    {
+        return incrementalUpdate;
+    }
+
+    /**
+     * Computes a new layout for the new dimensions and creates the elements
+     * of the document without modifying the document itself. This method may
+     * be called from any thread; the analyzer is locked during the layout.
+     * The resulting elements may be passed to
+     * {@link #applyUpdate(SwingBoxDocument, ElementSpec[])} on the event
+     * dispatch thread.
+     * 
+     * @param dim
+     *            new dimension
+     * @return the elements of the new layout
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    public ElementSpec[] computeUpdate(Dimension dim) throws IOException
+    {
+        return computeUpdate(getCSSBoxAnalyzer(), dim);
+    }
+
+    /**
+     * Computes a new layout of the given document for the new dimensions, see
+     * {@link #computeUpdate(Dimension)}. The analyzer of the document is used.
+     * 
+     * @param doc
+     *            the document
+     * @param dim
+     *            new dimension
+     * @return the elements of the new layout
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    public ElementSpec[] computeUpdate(SwingBoxDocument doc, Dimension dim) throws IOException
+    {
+        return computeUpdate(getCSSBoxAnalyzer(doc), dim);
+    }
+
+    private ElementSpec[] computeUpdate(CSSBoxAnalyzer analyzer, Dimension dim) throws IOException
+    {
+        synchronized (analyzer)
+        {
+            ContentReader rdr = new ContentReader();
+            List<ElementSpec> elements = rdr.update(dim, analyzer);
+            return elements.toArray(new ElementSpec[0]);
+        }
+    }
+
+    /**
+     * Allows to set custom CSSBoxAnalyzer. The analyzer is shared by all the
+     * documents read afterwards, otherwise each document obtains a new
+     * analyzer configured as the current one, see
+     * {@link #getCSSBoxAnalyzer()}.
      * 
      * @param cba
-     *            the instance of CSSBoxAnalyzer
+     *            the instance of CSSBoxAnalyzer or <code>null</code> for
+     *            using the default analyzer
      * @see CSSBoxAnalyzer
      */
     public void setCSSBoxAnalyzer(CSSBoxAnalyzer cba)
     {
         this.cbanalyzer = cba;
+        this.sharedAnalyzer = cba != null;
+    }
+
+    /**
+     * Checks whether an analyzer shared by all the documents has been set by
+     * {@link #setCSSBoxAnalyzer(CSSBoxAnalyzer)}. The pages cannot be
+     * prepared in advance then.
+     * 
+     * @return <code>true</code> when the analyzer is shared
+     */
+    public boolean isSharedAnalyzer()
+    {
+        return sharedAnalyzer;
     }
 
     /**
-     * Gets current instance of {@link CSSBoxAnalyzer}
+     * Gets current instance of {@link CSSBoxAnalyzer}, the analyzer of the
+     * document read last. Unless the analyzer is shared, each document read
+     * afterwards obtains a new analyzer created by
+     * {@link CSSBoxAnalyzer#newInstance()} of the current one, so that the
+     * configuration made through this analyzer, e.g. the DOM source of
+     * {@link DefaultAnalyzer#getBrowserConfig()},
+     * applies to the following documents as well. A new instance of the
+     * default analyzer is used when the current one cannot be copied.
      * 
      * @return the instance of {@link CSSBoxAnalyzer}
      */
@@ -282,6 +398,36 @@ public class SwingBoxEditorKit extends StyledEditorKit
         return cbanalyzer;
     }
 
+    /**
+     * Gets the analyzer holding the layout of the given document.
+     * 
+     * @param doc
+     *            the document
+     * @return the analyzer of the document or the current analyzer when the
+     *         document does not have its own one
+     */
+    public CSSBoxAnalyzer getCSSBoxAnalyzer(SwingBoxDocument doc)
+    {
+        CSSBoxAnalyzer analyzer = doc.getAnalyzer();
+        return (analyzer == null) ? getCSSBoxAnalyzer() : analyzer;
+    }
+
+    /**
+     * Obtains the analyzer for reading a new document: the shared analyzer
+     * when set, a copy of the current analyzer or a new instance of the
+     * default analyzer otherwise.
+     */
+    private CSSBoxAnalyzer createAnalyzer()
+    {
+        CSSBoxAnalyzer current = getCSSBoxAnalyzer();
+        if (sharedAnalyzer || current == null)
+            return current;
+        CSSBoxAnalyzer analyzer = current.newInstance();
+        if (analyzer == null)
+            analyzer = getDefaultAnalyzer();
+        return (analyzer == null) ? current : analyzer;
+    }
+
     @SuppressWarnings("rawtypes")
     protected CSSBoxAnalyzer getDefaultAnalyzer()
     {
@@ -320,7 +466,24 @@ public class SwingBoxEditorKit extends StyledEditorKit
         return cba;
     }
 
-    private void readImpl(InputStream in, SwingBoxDocument doc, int pos)
+    private static URL getURL(SwingBoxDocument doc)
+    {
+        return (URL) doc.getProperty(Document.StreamDescriptionProperty);
+    }
+
+    /**
+     * Obtains the content type received with the document, if any. It may
+     * specify the encoding of the document.
+     */
+    private static String getContentType(SwingBoxDocument doc)
+    {
+        Object ct = doc.getProperty("Content-Type");
+        if (ct instanceof List)
+            return ((List<?>) ct).isEmpty() ? null : (String) ((List<?>) ct).get(0);
+        return ct == null ? null : ct.toString();
+    }
+
+    private void readImpl(DocumentSource docSource, SwingBoxDocument doc, int pos)
             throws IOException, BadLocationException
     {
         if (component == null)
@@ -333,9 +496,137 @@ public class SwingBoxEditorKit extends StyledEditorKit
         }
 
         ContentReader rdr = new ContentReader();
-        URL url = (URL) doc.getProperty(Document.StreamDescriptionProperty);
-        CSSBoxAnalyzer analyzer = getCSSBoxAnalyzer();
+        URL url = docSource.getURL();
+        CSSBoxAnalyzer analyzer = createAnalyzer();
+        Dimension dim = getLayoutSize(component);
+
+        List<ElementSpec> elements;
+        try
+        {
+            synchronized (analyzer)
+            {
+                // a relayout of the previous document may be running
+                // when the analyzer is shared
+                elements = rdr.read(docSource, analyzer, dim);
+            }
+            String title = analyzer.getDocumentTitle();
+            doc.putProperty(Document.TitleProperty, title);
+        } catch (InterruptedIOException e)
+        {
+            // cancelled, not an error
+            throw e;
+        } catch (IOException e)
+        {
+            readError(url, e);
+            throw e;
+        }
+
+        ElementSpec[] elementsArray = elements.toArray( new ElementSpec[0]);
+        PageLoader.checkCancelled();
+        cbanalyzer = analyzer;
+        doc.setAnalyzer(sharedAnalyzer ? null : analyzer);
+        doc.create(elementsArray);
 
+        readFinish(url);
+    }
+
+    /**
+     * Runs the whole processing of a document in advance: parses, analyzes
+     * and lays out the document and creates its elements, without modifying
+     * any document. A new analyzer is created as for reading a document, see
+     * {@link #getCSSBoxAnalyzer()}, which becomes the analyzer of the
+     * document created from the page by
+     * {@link #readPrepared(PreparedPage, SwingBoxDocument)}. The shared
+     * analyzer holds the layout of the displayed document, so no page can be
+     * prepared while a shared analyzer is set, see {@link #isSharedAnalyzer()}.
+     * This method may be called from any thread.
+     * 
+     * @param docSource
+     *            the document source
+     * @param dim
+     *            the size of the layout
+     * @param properties
+     *            the properties of the document, e.g. the response headers
+     * @param timings
+     *            the timings of the processing
+     * @return the prepared page
+     * @throws IOException
+     *             Signals that an I/O exception has occurred or a shared
+     *             analyzer is set.
+     */
+    public PreparedPage prepare(DocumentSource docSource, Dimension dim,
+            Map<String, Object> properties, LoadTimings timings) throws IOException
+    {
+        if (sharedAnalyzer)
+            throw new IOException("The pages cannot be prepared with a shared analyzer");
+        CSSBoxAnalyzer analyzer = createAnalyzer();
+        if (analyzer == null)
+            throw new IOException("No analyzer available");
+
+        List<ElementSpec> elements = new ContentReader().read(docSource, analyzer, dim);
+        return new PreparedPage(docSource.getURL(), docSource.getContentType(),
+                properties, dim, elements.toArray(new ElementSpec[0]), analyzer,
+                analyzer.getDocumentTitle(), timings);
+    }
+
+    /**
+     * Creates the document from a page prepared by
+     * {@link #prepare(DocumentSource, Dimension, Map, LoadTimings)}. When the
+     * size of the component has changed since, the page is laid out again,
+     * otherwise the elements of the page are used as they are. The analyzer
+     * of the page becomes the analyzer of the document; the shared analyzer,
+     * if set, is kept for the documents read afterwards.
+     * 
+     * @param page
+     *            the prepared page
+     * @param doc
+     *            the document to be created
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    public void readPrepared(PreparedPage page, SwingBoxDocument doc) throws IOException
+    {
+        if (component == null)
+            throw new IllegalStateException("Component is null, editor kit is probably deinstalled from a JEditorPane.");
+
+        CSSBoxAnalyzer analyzer = page.getAnalyzer();
+        ElementSpec[] elements = page.getElements();
+        Dimension dim = getLayoutSize(component);
+        try
+        {
+            if (!dim.equals(page.getSize()))
+            {
+                synchronized (analyzer)
+                {
+                    elements = new ContentReader().update(dim, analyzer).toArray(new ElementSpec[0]);
+                }
+            }
+        } catch (IOException e)
+        {
+            readError(page.getPage(), e);
+            throw e;
+        }
+
+        doc.putProperty(Document.TitleProperty, page.getTitle());
+        PageLoader.checkCancelled();
+        if (!sharedAnalyzer)
+            cbanalyzer = analyzer;
+        doc.setAnalyzer(analyzer);
+        doc.create(elements);
+
+        readFinish(page.getPage());
+    }
+
+    /**
+     * Obtains the size of the area available for the layout of the documents
+     * displayed by the given component.
+     * 
+     * @param component
+     *            the component
+     * @return the size of the viewport of the component
+     */
+    static Dimension getLayoutSize(JEditorPane component)
+    {
         Container parent = component.getParent();
         Dimension dim;
         if ( parent instanceof JViewport )
@@ -353,34 +644,23 @@ public class SwingBoxEditorKit extends StyledEditorKit
             Dimension tmp = Toolkit.getDefaultToolkit().getScreenSize();
             dim.setSize(tmp.width / 2.5, tmp.height / 2.5);
         }
+        return dim;
+    }
 
-        List<ElementSpec> elements;
-        try
-        {
-            String ctype = null;
-            Object ct = doc.getProperty("Content-Type");
-            if (ct != null)
-            {
-                if (ct instanceof List)
-                    ctype = (String) ((List<?>) ct).get(0);
-                else
-                    ctype = ct.toString();
-            }
-
-            DocumentSource docSource = new StreamDocumentSource(in, url, ctype);
-            elements = rdr.read(docSource, analyzer, dim);
-            String title = analyzer.getDocumentTitle();
-            doc.putProperty(Document.TitleProperty, title);
-        } catch (IOException e)
-        {
-            readError(url, e);
-            throw e;
-        }
-
-        ElementSpec[] elementsArray = elements.toArray( new ElementSpec[0]);
-        doc.create(elementsArray);
-
-        readFinish(url);
+    /**
+     * Reports a failure in processing a document that has been displayed
+     * already, e.g. a failed relayout, by a
+     * {@link EventType#page_loading_error} general event.
+     * 
+     * @param doc
+     *            the document
+     * @param e
+     *            the failure
+     */
+    public void reportError(SwingBoxDocument doc, Exception e)
+    {
+        Object page = doc.getProperty(Document.StreamDescriptionProperty);
+        readError((page instanceof URL) ? (URL) page : null, e);
     }
 
     private void readError(URL url, Exception e)
@@ -408,7 +688,7 @@ public class SwingBoxEditorKit extends StyledEditorKit
         }
 
         ContentWriter wrt = new ContentWriter();
-        StringBuilder sb = wrt.write(getCSSBoxAnalyzer().getDocument());
+        StringBuilder sb = wrt.write(getCSSBoxAnalyzer(doc).getDocument());
         out.write(sb.toString());
         out.flush();
     }
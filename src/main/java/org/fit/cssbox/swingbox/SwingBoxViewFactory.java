@@ -36,6 +36,7 @@ import javax.swing.text.*;
 public class SwingBoxViewFactory implements ViewFactory
 {
     private ViewportView viewport;
+    private TileRenderer tileRenderer;
 
     @Override
     public View create(Element elem)
@@ -82,6 +83,7 @@ public class SwingBoxViewFactory implements ViewFactory
                     return new TableRowBoxView( elem );
                 case Constants.VIEWPORT:
                     viewport = new ViewportView( elem );
+                    viewport.setTileRenderer( tileRenderer );
                     return viewport;
                 case Constants.DELEGATE:
                     return new DelegateView( elem );
@@ -110,4 +112,29 @@ public class SwingBoxViewFactory implements ViewFactory
         return viewport;
     }
 
+    /**
+     * Sets the tile renderer used by the viewport views created by this
+     * factory. The current viewport is updated as well.
+     * 
+     * @param renderer
+     *            the tile renderer or <code>null</code> for painting the views
+     *            directly
+     */
+    public void setTileRenderer(TileRenderer renderer)
+    {
+        tileRenderer = renderer;
+        if (viewport != null)
+            viewport.setTileRenderer(renderer);
+    }
+
+    /**
+     * Gets the tile renderer used by the viewport views.
+     * 
+     * @return the tile renderer or <code>null</code> when not used
+     */
+    public TileRenderer getTileRenderer()
+    {
+        return tileRenderer;
+    }
+
 }
@@ -0,0 +1,256 @@
+/*
+ * Copyright 2020 White Magic Software, Ltd.
+ *
+ * SwingBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SwingBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with SwingBox. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.fit.cssbox.swingbox.demo;
+
+import org.fit.cssbox.io.DOMSource;
+import org.fit.cssbox.io.DefaultDOMSource;
+import org.fit.cssbox.io.StreamDocumentSource;
+import org.fit.cssbox.swingbox.performance.JsoupDOMSource;
+import org.jsoup.Jsoup;
+import org.jsoup.helper.W3CDom;
+import org.w3c.dom.Node;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Compares the HTML parsers that may be used for creating the W3C DOM of the
+ * documents:
+ * <ul>
+ *   <li>{@code jsoup} &ndash; {@link JsoupDOMSource}, the default;</li>
+ *   <li>{@code jsoup-copy} &ndash; jsoup and a copy of the tree by
+ *   {@link W3CDom}, as done formerly;</li>
+ *   <li>{@code nekohtml} &ndash; {@link DefaultDOMSource} of CSSBox.</li>
+ * </ul>
+ * For every HTML file of the corpus and every parser, the average time and
+ * throughput, the memory allocated per document and the allocation rate,
+ * the number of the DOM nodes and the heap retained once the DOM has been
+ * built are printed, as well as the peak heap usage during the runs. The
+ * retained size shows whether several trees are held in memory at once; the
+ * peak also includes the garbage not yet collected.
+ * <p>
+ * Usage: {@code ParserBenchmark [-n iterations] [-p parser,...]
+ * file.html|directory ...}
+ */
+public class ParserBenchmark {
+  private static final int DEFAULT_ITERATIONS = 10;
+
+  /**
+   * A way of creating the DOM. Returns the DOM first, followed by all the
+   * other trees that are still referenced when the DOM is complete.
+   */
+  private interface Parser {
+    Object[] parse( byte[] html, URL url ) throws Exception;
+  }
+
+  private static final Map<String, Parser> PARSERS = new LinkedHashMap<>();
+
+  static {
+    final var w3cDom = new W3CDom();
+
+    PARSERS.put( "jsoup", domSource( JsoupDOMSource::new ) );
+    PARSERS.put( "jsoup-copy", ( html, url ) -> {
+      final var document = Jsoup.parse(
+          new ByteArrayInputStream( html ), "UTF-8", url.toString() );
+      return new Object[]{w3cDom.fromJsoup( document ), document};
+    } );
+    PARSERS.put( "nekohtml", domSource( DefaultDOMSource::new ) );
+  }
+
+  public static void main( final String[] args ) throws Exception {
+    var iterations = DEFAULT_ITERATIONS;
+    var parsers = List.copyOf( PARSERS.keySet() );
+    final var files = new ArrayList<Path>();
+
+    for( int i = 0; i < args.length; i++ ) {
+      if( "-n".equals( args[ i ] ) && i + 1 < args.length ) {
+        iterations = Integer.parseInt( args[ ++i ] );
+      }
+      else if( "-p".equals( args[ i ] ) && i + 1 < args.length ) {
+        parsers = List.of( args[ ++i ].split( "," ) );
+      }
+      else {
+        files.addAll( corpus( Paths.get( args[ i ] ) ) );
+      }
+    }
+
+    if( files.isEmpty() || !PARSERS.keySet().containsAll( parsers ) ) {
+      System.err.println( "Usage: ParserBenchmark [-n iterations] " +
+                              "[-p parser,...] file.html|directory ..." );
+      System.err.println( "Parsers: " + String.join( ",", PARSERS.keySet() ) );
+      System.exit( 1 );
+    }
+
+    System.out.printf( "%-24s %-10s %9s %8s %11s %9s %9s %12s %12s%n",
+                       "file", "parser", "avg ms", "docs/s", "alloc KB",
+                       "MB/s", "nodes", "retained KB", "peak KB" );
+
+    for( final var file : files ) {
+      final var html = Files.readAllBytes( file );
+      final var url = file.toUri().toURL();
+
+      for( final var parser : parsers ) {
+        run( file, parser, PARSERS.get( parser ), html, url, iterations );
+      }
+    }
+  }
+
+  private static void run( final Path file, final String name,
+                           final Parser parser, final byte[] html,
+                           final URL url, final int iterations )
+      throws Exception {
+    // warm up
+    for( int i = 0; i < iterations; i++ ) {
+      parser.parse( html, url );
+    }
+
+    final var before = usedHeap();
+    resetPeaks();
+
+    long time = 0;
+    long allocated = 0;
+    long retained = 0;
+    long nodes = 0;
+
+    for( int i = 0; i < iterations; i++ ) {
+      final var allocStart = allocatedBytes();
+      final var start = System.nanoTime();
+      final var trees = parser.parse( html, url );
+      time += System.nanoTime() - start;
+      allocated += allocatedBytes() - allocStart;
+
+      retained += usedHeap() - before;
+      nodes = countNodes( (Node) trees[ 0 ] );
+    }
+
+    final var seconds = time / 1e9;
+
+    System.out.printf( "%-24s %-10s %9.1f %8.1f %11d %9.1f %9d %12d %12d%n",
+                       file.getFileName(), name,
+                       time / 1e6 / iterations,
+                       iterations / seconds,
+                       allocated / iterations / 1024,
+                       allocated / seconds / (1024 * 1024),
+                       nodes,
+                       retained / iterations / 1024,
+                       (peakHeap() - before) / 1024 );
+  }
+
+  private static Parser domSource(
+      final Function<StreamDocumentSource, DOMSource> factory ) {
+    return ( html, url ) -> {
+      final var src = new StreamDocumentSource(
+          new ByteArrayInputStream( html ), url, "text/html; charset=UTF-8" );
+      return new Object[]{factory.apply( src ).parse()};
+    };
+  }
+
+  private static List<Path> corpus( final Path path ) throws IOException {
+    if( !Files.isDirectory( path ) ) {
+      return List.of( path );
+    }
+
+    try( final Stream<Path> files = Files.walk( path ) ) {
+      return files.filter( f -> {
+        final var name = f.getFileName().toString().toLowerCase();
+        return name.endsWith( ".html" ) || name.endsWith( ".htm" );
+      } ).sorted().collect( Collectors.toList() );
+    }
+  }
+
+  private static long countNodes( final Node root ) {
+    long count = 0;
+    Node node = root;
+
+    while( node != null ) {
+      count++;
+
+      if( node.getFirstChild() != null ) {
+        node = node.getFirstChild();
+      }
+      else {
+        while( node != null && node != root && node.getNextSibling() == null ) {
+          node = node.getParentNode();
+        }
+
+        node = node == null || node == root ? null : node.getNextSibling();
+      }
+    }
+
+    return count;
+  }
+
+  private static long allocatedBytes() {
+    final var threads = ManagementFactory.getThreadMXBean();
+
+    return threads instanceof com.sun.management.ThreadMXBean ?
+        ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(
+            Thread.currentThread().getId() ) : 0;
+  }
+
+  private static long usedHeap() {
+    final var runtime = Runtime.getRuntime();
+
+    for( int i = 0; i < 3; i++ ) {
+      System.gc();
+    }
+
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  private static List<MemoryPoolMXBean> heapPools() {
+    final var pools = new ArrayList<MemoryPoolMXBean>();
+
+    for( final var pool : ManagementFactory.getMemoryPoolMXBeans() ) {
+      if( pool.getType() == MemoryType.HEAP ) {
+        pools.add( pool );
+      }
+    }
+
+    return pools;
+  }
+
+  private static void resetPeaks() {
+    heapPools().forEach( MemoryPoolMXBean::resetPeakUsage );
+  }
+
+  private static long peakHeap() {
+    long peak = 0;
+
+    for( final var pool : heapPools() ) {
+      peak += pool.getPeakUsage().getUsed();
+    }
+
+    return peak;
+  }
+}
@@ -19,6 +19,7 @@ package org.fit.cssbox.swingbox.demo;
 
 import org.fit.cssbox.swingbox.BrowserPane;
 import org.fit.cssbox.swingbox.util.GeneralEvent.EventType;
+import org.fit.cssbox.swingbox.util.LinkPrefetcher;
 import org.fit.net.DataURLHandler;
 
 import javax.swing.*;
@@ -280,6 +281,8 @@ public class SwingBrowser
     {
         swingbox = new BrowserPane();
         swingbox.addHyperlinkListener(new SwingBrowserHyperlinkHandler(this));
+        new LinkPrefetcher(swingbox, LinkPrefetcher.Mode.PRELOAD,
+                LinkPrefetcher.DEFAULT_DWELL_TIME, 1).install();
         swingbox.addGeneralEventListener( e -> {
             if (e.event_type == EventType.page_loading_end)
             {
@@ -310,7 +313,7 @@ public class SwingBrowser
                 historyPos--;
                 URL url = history.elementAt(historyPos - 1);
                 try {
-                    displayURLSwingBox(url);
+                    swingbox.setPageFromHistory(url);
                 } catch (IOException ignored) {
                 }
             }
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2020 White Magic Software, Ltd.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.fit.cssbox.swingbox.performance;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.regex.Pattern;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_16BE;
+import static java.nio.charset.StandardCharsets.UTF_16LE;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Determines the character encoding of an HTML document from its first
+ * bytes, following the order of the HTML specification: the byte order
+ * mark, the {@code charset} parameter of the content type and the
+ * {@code <meta>} elements found in the first kilobyte of the document. UTF-8
+ * is used when none of them is present.
+ * <p>
+ * Only the prefix of the document is examined; the document is then decoded
+ * in a single pass while being parsed.
+ */
+public final class CharsetSniffer {
+  /**
+   * The number of bytes searched for the {@code <meta>} elements.
+   */
+  private static final int PRESCAN_LENGTH = 1024;
+
+  private static final Pattern COMMENT = Pattern.compile(
+      "<!--.*?(-->|$)", Pattern.DOTALL );
+  private static final Pattern META = Pattern.compile(
+      "<meta[\\s/][^>]*", Pattern.CASE_INSENSITIVE );
+  private static final Pattern CHARSET = Pattern.compile(
+      "charset\\s*=\\s*[\"']?\\s*([^\\s\"'/>;]+)", Pattern.CASE_INSENSITIVE );
+
+  private static final Charset WINDOWS_1252 = Charset.forName( "windows-1252" );
+
+  private CharsetSniffer() {
+  }
+
+  /**
+   * Opens the document for reading characters. The byte order mark, if any,
+   * is skipped.
+   *
+   * @param in          The document content.
+   * @param contentType The content type reported by the server or
+   *                    {@code null} when not known.
+   * @return The reader of the document in the detected encoding.
+   * @throws IOException The prefix of the document could not be read.
+   */
+  public static Reader open( final InputStream in, final String contentType )
+      throws IOException {
+    final var buffered = in.markSupported() ?
+        in : new BufferedInputStream( in );
+    final var prefix = readPrefix( buffered );
+    final var bom = detectBom( prefix );
+
+    if( bom != null ) {
+      buffered.skipNBytes( UTF_8.equals( bom ) ? 3 : 2 );
+      return new InputStreamReader( buffered, bom );
+    }
+
+    return new InputStreamReader( buffered, detect( prefix, contentType ) );
+  }
+
+  /**
+   * Determines the encoding of the document.
+   *
+   * @param prefix      The first bytes of the document, at least the first
+   *                    kilobyte when available.
+   * @param contentType The content type reported by the server or
+   *                    {@code null} when not known.
+   * @return The encoding of the document.
+   */
+  public static Charset detect( final byte[] prefix, final String contentType ) {
+    final var bom = detectBom( prefix );
+
+    if( bom != null ) {
+      return bom;
+    }
+
+    final var declared = contentType == null ?
+        null : fromLabel( find( CHARSET, contentType ) );
+
+    if( declared != null ) {
+      return declared;
+    }
+
+    final var meta = prescan( prefix );
+    return meta == null ? UTF_8 : meta;
+  }
+
+  private static byte[] readPrefix( final InputStream in ) throws IOException {
+    in.mark( PRESCAN_LENGTH );
+
+    try {
+      return in.readNBytes( PRESCAN_LENGTH );
+    } finally {
+      in.reset();
+    }
+  }
+
+  private static Charset detectBom( final byte[] prefix ) {
+    if( prefix.length >= 3 && (prefix[ 0 ] & 0xff) == 0xef &&
+        (prefix[ 1 ] & 0xff) == 0xbb && (prefix[ 2 ] & 0xff) == 0xbf ) {
+      return UTF_8;
+    }
+
+    if( prefix.length >= 2 ) {
+      final var b0 = prefix[ 0 ] & 0xff;
+      final var b1 = prefix[ 1 ] & 0xff;
+
+      if( b0 == 0xfe && b1 == 0xff ) {
+        return UTF_16BE;
+      }
+
+      if( b0 == 0xff && b1 == 0xfe ) {
+        return UTF_16LE;
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * Searches the {@code <meta charset>} and
+   * {@code <meta http-equiv="Content-Type">} elements outside of the
+   * comments. A document that declares UTF-16 while readable as ASCII is
+   * UTF-8 in fact.
+   */
+  private static Charset prescan( final byte[] prefix ) {
+    final var text = COMMENT.matcher(
+        new String( prefix, ISO_8859_1 ) ).replaceAll( "" );
+    final var meta = META.matcher( text );
+
+    while( meta.find() ) {
+      final var charset = fromLabel( find( CHARSET, meta.group() ) );
+
+      if( charset != null ) {
+        return charset.name().startsWith( "UTF-16" ) ? UTF_8 : charset;
+      }
+    }
+
+    return null;
+  }
+
+  private static String find( final Pattern pattern, final String text ) {
+    final var matcher = pattern.matcher( text );
+    return matcher.find() ? matcher.group( 1 ) : null;
+  }
+
+  /**
+   * Obtains the charset of the given name. The Latin-1 and ASCII labels
+   * denote windows-1252, as in the browsers.
+   */
+  private static Charset fromLabel( final String label ) {
+    if( label == null ) {
+      return null;
+    }
+
+    try {
+      final var charset = Charset.forName( label.trim() );
+      return ISO_8859_1.equals( charset ) || US_ASCII.equals( charset ) ?
+          WINDOWS_1252 : charset;
+    } catch( final IllegalCharsetNameException |
+        UnsupportedCharsetException e ) {
+      return null;
+    }
+  }
+}
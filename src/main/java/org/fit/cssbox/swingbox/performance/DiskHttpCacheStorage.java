@@ -0,0 +1,458 @@
+/*
+ * Copyright 2020 White Magic Software, Ltd.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.fit.cssbox.swingbox.performance;
+
+import org.apache.http.Header;
+import org.apache.http.HttpVersion;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.client.cache.HttpCacheEntry;
+import org.apache.http.client.cache.HttpCacheStorage;
+import org.apache.http.client.cache.HttpCacheUpdateCallback;
+import org.apache.http.impl.client.cache.HeapResource;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.message.BasicStatusLine;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * Stores the cached HTTP responses in files, so that the cache survives the
+ * restarts of the application. Each entry is stored in a single file that
+ * is written to a temporary file first and then atomically moved in place.
+ * The least recently used entries are removed when the total size of the
+ * files exceeds the given budget.
+ * <p>
+ * The entries are stored in a plain binary format rather than by the Java
+ * serialization, so that a file placed in the cache directory cannot
+ * instantiate arbitrary classes. The bodies are read to the heap and no
+ * file is kept open, so that the files can always be replaced or removed;
+ * their size is bounded by the maximal object size of the HTTP cache.
+ */
+public class DiskHttpCacheStorage implements HttpCacheStorage {
+  /** Identifies the format of the entry files. */
+  private static final int MAGIC = 0x53424332;
+
+  private static final String SUFFIX = ".entry";
+  private static final String TEMP_SUFFIX = ".tmp";
+
+  private final Path mDirectory;
+  private final long mMaxBytes;
+
+  /** The sizes of the entry files in the access order. */
+  private final LinkedHashMap<String, Long> mFiles =
+      new LinkedHashMap<>( 64, 0.75f, true );
+  private long mBytes;
+
+  /**
+   * Creates the storage. The entries stored in the directory by previous
+   * instances are reused.
+   *
+   * @param directory The directory of the entry files, it is created when
+   *                  it does not exist.
+   * @param maxBytes  The maximal total size of the entry files.
+   * @throws IOException The directory could not be created or read.
+   */
+  public DiskHttpCacheStorage( final Path directory, final long maxBytes )
+      throws IOException {
+    mDirectory = Files.createDirectories( directory );
+    mMaxBytes = maxBytes;
+    load();
+  }
+
+  /**
+   * Returns the directory of the entry files.
+   *
+   * @return The cache directory.
+   */
+  public Path getDirectory() {
+    return mDirectory;
+  }
+
+  /**
+   * Returns the total size of the entry files.
+   *
+   * @return The size in bytes.
+   */
+  public synchronized long getSize() {
+    return mBytes;
+  }
+
+  /**
+   * Returns the number of the stored entries.
+   *
+   * @return The entry count.
+   */
+  public synchronized int getEntryCount() {
+    return mFiles.size();
+  }
+
+  @Override
+  public void putEntry( final String key, final HttpCacheEntry entry )
+      throws IOException {
+    final var name = fileName( key );
+    final var temp = Files.createTempFile( mDirectory, name, TEMP_SUFFIX );
+
+    try {
+      write( temp, key, entry );
+      synchronized( this ) {
+        Files.move( temp, mDirectory.resolve( name ),
+                    ATOMIC_MOVE, REPLACE_EXISTING );
+        added( name, Files.size( mDirectory.resolve( name ) ) );
+      }
+    } finally {
+      Files.deleteIfExists( temp );
+    }
+  }
+
+  @Override
+  public HttpCacheEntry getEntry( final String key ) throws IOException {
+    final var name = fileName( key );
+
+    synchronized( this ) {
+      if( mFiles.get( name ) == null ) {
+        return null;
+      }
+    }
+
+    final var file = mDirectory.resolve( name );
+
+    try {
+      final var entry = read( file, key );
+
+      if( entry != null ) {
+        // keeps the order of use for the next start
+        Files.setLastModifiedTime(
+            file, FileTime.fromMillis( System.currentTimeMillis() ) );
+      }
+
+      return entry;
+    } catch( final NoSuchFileException e ) {
+      synchronized( this ) {
+        removed( name );
+      }
+
+      return null;
+    } catch( final IOException e ) {
+      // a damaged entry is treated as missing
+      synchronized( this ) {
+        Files.deleteIfExists( file );
+        removed( name );
+      }
+
+      return null;
+    }
+  }
+
+  @Override
+  public synchronized void removeEntry( final String key ) throws IOException {
+    final var name = fileName( key );
+
+    Files.deleteIfExists( mDirectory.resolve( name ) );
+    removed( name );
+  }
+
+  @Override
+  public synchronized void updateEntry(
+      final String key, final HttpCacheUpdateCallback callback )
+      throws IOException {
+    final var entry = callback.update( getEntry( key ) );
+
+    if( entry != null ) {
+      putEntry( key, entry );
+    }
+    else {
+      removeEntry( key );
+    }
+  }
+
+  /**
+   * Removes all the entries.
+   *
+   * @throws IOException An entry file could not be removed.
+   */
+  public synchronized void clear() throws IOException {
+    for( final var name : new ArrayList<>( mFiles.keySet() ) ) {
+      Files.deleteIfExists( mDirectory.resolve( name ) );
+    }
+
+    mFiles.clear();
+    mBytes = 0;
+  }
+
+  private void load() throws IOException {
+    final List<Path> files = new ArrayList<>();
+
+    try( final var stream = Files.list( mDirectory ) ) {
+      stream.forEach( files::add );
+    }
+
+    final Map<Path, Long> times = new LinkedHashMap<>();
+
+    for( final var file : files ) {
+      final var name = file.getFileName().toString();
+
+      if( name.endsWith( TEMP_SUFFIX ) ) {
+        // left by an interrupted write
+        Files.deleteIfExists( file );
+      }
+      else if( name.endsWith( SUFFIX ) ) {
+        times.put( file, Files.getLastModifiedTime( file ).toMillis() );
+      }
+    }
+
+    final var sorted = new ArrayList<>( times.keySet() );
+    sorted.sort( Comparator.comparing( times::get ) );
+
+    synchronized( this ) {
+      for( final var file : sorted ) {
+        added( file.getFileName().toString(), Files.size( file ) );
+      }
+    }
+  }
+
+  private void added( final String name, final long size ) throws IOException {
+    final var old = mFiles.put( name, size );
+
+    if( old != null ) {
+      mBytes -= old;
+    }
+
+    mBytes += size;
+
+    final var it = mFiles.entrySet().iterator();
+
+    while( mBytes > mMaxBytes && it.hasNext() ) {
+      final var eldest = it.next();
+
+      if( !eldest.getKey().equals( name ) ) {
+        Files.deleteIfExists( mDirectory.resolve( eldest.getKey() ) );
+        mBytes -= eldest.getValue();
+        it.remove();
+      }
+    }
+  }
+
+  private void removed( final String name ) {
+    final var old = mFiles.remove( name );
+
+    if( old != null ) {
+      mBytes -= old;
+    }
+  }
+
+  /**
+   * Writes the entry file: the format identifier, the key, the dates, the
+   * status line, the headers, the variants, the request method and the
+   * body, if any.
+   */
+  private static void write(
+      final Path file, final String key, final HttpCacheEntry entry )
+      throws IOException {
+    final var resource = entry.getResource();
+
+    try( final var out = new DataOutputStream(
+        new BufferedOutputStream( Files.newOutputStream( file ) ) ) ) {
+      out.writeInt( MAGIC );
+      writeText( out, key );
+      out.writeLong( entry.getRequestDate().getTime() );
+      out.writeLong( entry.getResponseDate().getTime() );
+
+      final var status = entry.getStatusLine();
+      final var version = status.getProtocolVersion();
+      writeText( out, version.getProtocol() );
+      out.writeInt( version.getMajor() );
+      out.writeInt( version.getMinor() );
+      out.writeInt( status.getStatusCode() );
+      writeString( out, status.getReasonPhrase() );
+
+      final var headers = entry.getAllHeaders();
+      out.writeInt( headers.length );
+
+      for( final var header : headers ) {
+        writeText( out, header.getName() );
+        writeString( out, header.getValue() );
+      }
+
+      final var variants = entry.getVariantMap();
+      out.writeInt( variants.size() );
+
+      for( final var variant : variants.entrySet() ) {
+        writeText( out, variant.getKey() );
+        writeText( out, variant.getValue() );
+      }
+
+      writeString( out, entry.getRequestMethod() );
+      out.writeBoolean( resource != null );
+
+      if( resource != null ) {
+        try( final var in = resource.getInputStream() ) {
+          in.transferTo( out );
+        }
+      }
+    }
+  }
+
+  private static HttpCacheEntry read( final Path file, final String key )
+      throws IOException {
+    try( final var in = new DataInputStream(
+        Files.newInputStream( file ) ) ) {
+      if( in.readInt() != MAGIC ) {
+        throw new IOException( "Invalid cache entry " + file );
+      }
+
+      if( !key.equals( readText( in ) ) ) {
+        // a hash collision
+        return null;
+      }
+
+      final var requestDate = new Date( in.readLong() );
+      final var responseDate = new Date( in.readLong() );
+
+      final var protocol = readText( in );
+      final var major = in.readInt();
+      final var minor = in.readInt();
+      final var version = HttpVersion.HTTP.equals( protocol ) ?
+          new HttpVersion( major, minor ) :
+          new ProtocolVersion( protocol, major, minor );
+      final var status = new BasicStatusLine(
+          version, in.readInt(), readString( in ) );
+
+      final var headers = new Header[ readCount( in ) ];
+
+      for( int i = 0; i < headers.length; i++ ) {
+        headers[ i ] = new BasicHeader( readText( in ), readString( in ) );
+      }
+
+      final var count = readCount( in );
+      final Map<String, String> variants = new HashMap<>();
+
+      for( int i = 0; i < count; i++ ) {
+        variants.put( readText( in ), readText( in ) );
+      }
+
+      final var method = readString( in );
+      final var resource = in.readBoolean() ?
+          new HeapResource( in.readAllBytes() ) : null;
+
+      return new HttpCacheEntry(
+          requestDate, responseDate, status, headers, resource, variants,
+          method );
+    } catch( final IllegalArgumentException e ) {
+      throw new IOException( "Invalid cache entry " + file, e );
+    }
+  }
+
+  /**
+   * Writes a string that may be {@code null}.
+   */
+  private static void writeString(
+      final DataOutputStream out, final String s ) throws IOException {
+    out.writeBoolean( s != null );
+
+    if( s != null ) {
+      writeText( out, s );
+    }
+  }
+
+  private static String readString( final DataInputStream in )
+      throws IOException {
+    return in.readBoolean() ? readText( in ) : null;
+  }
+
+  /**
+   * Writes a string as its length and its UTF-8 bytes. Unlike
+   * {@link DataOutputStream#writeUTF(String)}, the length is not limited to
+   * 64 KiB, so that long headers, e.g. cookies or security policies, can be
+   * stored.
+   */
+  private static void writeText(
+      final DataOutputStream out, final String s ) throws IOException {
+    final var bytes = s.getBytes( UTF_8 );
+    out.writeInt( bytes.length );
+    out.write( bytes );
+  }
+
+  private static String readText( final DataInputStream in )
+      throws IOException {
+    final var count = readCount( in );
+
+    if( count > in.available() ) {
+      throw new IOException( "Invalid cache entry" );
+    }
+
+    final var bytes = new byte[ count ];
+    in.readFully( bytes );
+    return new String( bytes, UTF_8 );
+  }
+
+  private static int readCount( final DataInputStream in ) throws IOException {
+    final var count = in.readInt();
+
+    if( count < 0 ) {
+      throw new IOException( "Invalid cache entry" );
+    }
+
+    return count;
+  }
+
+  private static String fileName( final String key ) {
+    try {
+      final var digest = MessageDigest.getInstance( "SHA-256" )
+                                      .digest( key.getBytes( UTF_8 ) );
+      final var name = new StringBuilder( digest.length * 2 + SUFFIX.length() );
+
+      for( final var b : digest ) {
+        name.append( Character.forDigit( (b >> 4) & 0xf, 16 ) )
+            .append( Character.forDigit( b & 0xf, 16 ) );
+      }
+
+      return name.append( SUFFIX ).toString();
+    } catch( final NoSuchAlgorithmException e ) {
+      throw new IllegalStateException( e );
+    }
+  }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2020 White Magic Software, Ltd.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.fit.cssbox.swingbox.performance;
+
+import org.jsoup.nodes.Comment;
+import org.jsoup.nodes.DataNode;
+import org.jsoup.nodes.TextNode;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Moves a parsed jsoup document to a W3C DOM. Unlike
+ * {@link org.jsoup.helper.W3CDom}, which copies the whole tree, every jsoup
+ * node is detached as soon as it has been converted. Hence the two trees are
+ * never held in memory at once: the peak heap is given by the W3C DOM rather
+ * than by the sum of both trees.
+ * <p>
+ * The resulting DOM is the same as the one created by
+ * {@link org.jsoup.helper.W3CDom#fromJsoup(org.jsoup.nodes.Document)}. The
+ * source document is left empty.
+ * <p>
+ * The builder is not thread-safe; use one instance per thread.
+ */
+public class DomBuilder {
+  private static final String XMLNS = "xmlns";
+  private static final String XMLNS_PREFIX = "xmlns:";
+
+  private final DocumentBuilder mBuilder;
+
+  /**
+   * Creates a builder.
+   *
+   * @throws IllegalStateException No namespace-aware DOM implementation is
+   *                               available.
+   */
+  public DomBuilder() {
+    try {
+      final var factory = DocumentBuilderFactory.newInstance();
+      factory.setNamespaceAware( true );
+      mBuilder = factory.newDocumentBuilder();
+    } catch( final ParserConfigurationException e ) {
+      throw new IllegalStateException( e );
+    }
+  }
+
+  /**
+   * Converts the document. The children are converted from the last one, so
+   * that removing them from the jsoup tree does not shift the remaining ones.
+   *
+   * @param source The parsed document, it is emptied by the conversion.
+   * @return The W3C document.
+   */
+  public Document build( final org.jsoup.nodes.Document source ) {
+    final var out = mBuilder.newDocument();
+    final var location = source.location();
+
+    if( location != null && !location.isBlank() ) {
+      out.setDocumentURI( location );
+    }
+
+    // the tree is known to be well-formed, skip the checks on every insertion
+    out.setStrictErrorChecking( false );
+
+    final var stack = new ArrayDeque<Frame>();
+    final var root = source.child( 0 );
+    final var namespaces = namespaces( root, Map.of() );
+    final var rootEl = createElement( out, root, namespaces );
+    out.appendChild( rootEl );
+    stack.push( new Frame( root, rootEl, namespaces ) );
+
+    while( !stack.isEmpty() ) {
+      final var frame = stack.peek();
+      final var size = frame.mSource.childNodeSize();
+
+      if( size == 0 ) {
+        stack.pop();
+        continue;
+      }
+
+      final var child = frame.mSource.childNode( size - 1 );
+      child.remove();
+
+      if( child instanceof org.jsoup.nodes.Element ) {
+        final var element = (org.jsoup.nodes.Element) child;
+        final var childNamespaces = namespaces( element, frame.mNamespaces );
+        final var el = createElement( out, element, childNamespaces );
+        frame.insert( el );
+        stack.push( new Frame( element, el, childNamespaces ) );
+      }
+      else if( child instanceof TextNode ) {
+        frame.insert( out.createTextNode( ((TextNode) child).getWholeText() ) );
+      }
+      else if( child instanceof Comment ) {
+        frame.insert( out.createComment( ((Comment) child).getData() ) );
+      }
+      else if( child instanceof DataNode ) {
+        frame.insert( out.createTextNode( ((DataNode) child).getWholeData() ) );
+      }
+    }
+
+    out.setStrictErrorChecking( true );
+    source.empty();
+
+    return out;
+  }
+
+  /**
+   * Obtains the namespaces in scope of the element, i.e. the parent ones
+   * together with those declared by the element.
+   */
+  private static Map<String, String> namespaces(
+      final org.jsoup.nodes.Element element,
+      final Map<String, String> parent ) {
+    Map<String, String> namespaces = parent;
+
+    for( final var attr : element.attributes() ) {
+      final var key = attr.getKey();
+      final String prefix;
+
+      if( key.equals( XMLNS ) ) {
+        prefix = "";
+      }
+      else if( key.startsWith( XMLNS_PREFIX ) ) {
+        prefix = key.substring( XMLNS_PREFIX.length() );
+      }
+      else {
+        continue;
+      }
+
+      if( namespaces == parent ) {
+        namespaces = new HashMap<>( parent );
+      }
+
+      namespaces.put( prefix, attr.getValue() );
+    }
+
+    return namespaces;
+  }
+
+  private static Element createElement(
+      final Document out, final org.jsoup.nodes.Element source,
+      final Map<String, String> namespaces ) {
+    final var tagName = source.tagName();
+    final var colon = tagName.indexOf( ':' );
+    final var prefix = colon > 0 ? tagName.substring( 0, colon ) : "";
+    final var el = out.createElementNS( namespaces.get( prefix ), tagName );
+
+    for( final var attr : source.attributes() ) {
+      final var key = toXmlName( attr.getKey() );
+
+      if( key != null ) {
+        el.setAttribute( key, attr.getValue() );
+      }
+    }
+
+    return el;
+  }
+
+  /**
+   * Strips the characters that cannot appear in an XML attribute name.
+   *
+   * @return The valid name or {@code null} when nothing usable remains.
+   */
+  private static String toXmlName( final String key ) {
+    StringBuilder name = null;
+
+    for( int i = 0; i < key.length(); i++ ) {
+      if( !isNameChar( key.charAt( i ) ) ) {
+        if( name == null ) {
+          name = new StringBuilder( key.length() ).append( key, 0, i );
+        }
+      }
+      else if( name != null ) {
+        name.append( key.charAt( i ) );
+      }
+    }
+
+    final var result = name == null ? key : name.toString();
+
+    if( result.isEmpty() ) {
+      return null;
+    }
+
+    final var first = result.charAt( 0 );
+    return first == '-' || first == '.' || (first >= '0' && first <= '9') ?
+        null : result;
+  }
+
+  private static boolean isNameChar( final char c ) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') ||
+        (c >= '0' && c <= '9') || c == '-' || c == '_' || c == ':' || c == '.';
+  }
+
+  /**
+   * An element whose children are being converted.
+   */
+  private static final class Frame {
+    private final org.jsoup.nodes.Element mSource;
+    private final Element mTarget;
+    private final Map<String, String> mNamespaces;
+
+    /**
+     * The first child converted so far, the children are inserted before it.
+     */
+    private Node mFirst;
+
+    private Frame( final org.jsoup.nodes.Element source, final Element target,
+                   final Map<String, String> namespaces ) {
+      mSource = source;
+      mTarget = target;
+      mNamespaces = namespaces;
+    }
+
+    private void insert( final Node node ) {
+      mTarget.insertBefore( node, mFirst );
+      mFirst = node;
+    }
+  }
+}
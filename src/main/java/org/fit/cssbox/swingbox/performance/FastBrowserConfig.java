@@ -27,19 +27,135 @@
  */
 package org.fit.cssbox.swingbox.performance;
 
+import org.fit.cssbox.io.DOMSource;
 import org.fit.cssbox.io.DocumentSource;
 import org.fit.cssbox.layout.BrowserConfig;
+import org.fit.cssbox.swingbox.util.Constants;
 
+import java.awt.Font;
 import java.io.IOException;
 import java.net.URL;
 
+/**
+ * Loads the HTTP resources of the documents using the shared
+ * {@link ResourceLoader}. A new document source is created for every
+ * resource, so that the resources may be loaded concurrently.
+ * <p>
+ * The documents are parsed by {@link JsoupDOMSource} unless another
+ * {@link DOMSource} implementation is named by the
+ * {@link Constants#DOM_SOURCE_PROPERTY} system property or registered by
+ * {@link #registerDOMSource(Class)}.
+ */
 public class FastBrowserConfig extends BrowserConfig {
-  private FastDocumentSource mDocumentSource;
+  private static final String[] LOGICAL_FONTS = {
+      Font.SERIF, Font.SANS_SERIF, Font.MONOSPACED
+  };
+
+  private final ResourceLoader mLoader;
+
+  /**
+   * Creates a configuration that uses the process-wide loader.
+   *
+   * @throws IllegalArgumentException The class named by the
+   *                                  {@link Constants#DOM_SOURCE_PROPERTY}
+   *                                  system property is not a
+   *                                  {@link DOMSource}.
+   */
+  public FastBrowserConfig() {
+    this( ResourceLoader.getDefault() );
+  }
+
+  /**
+   * Creates a configuration that uses the given loader.
+   *
+   * @param loader The loader used for fetching HTTP resources.
+   * @throws IllegalArgumentException The class named by the
+   *                                  {@link Constants#DOM_SOURCE_PROPERTY}
+   *                                  system property is not a
+   *                                  {@link DOMSource}.
+   */
+  public FastBrowserConfig( final ResourceLoader loader ) {
+    mLoader = loader;
+    registerDOMSource( getDefaultDOMSource() );
+  }
+
+  /**
+   * Creates a copy of a configuration that uses the same loader. The
+   * registered sources and the default fonts of the logical font families
+   * are copied as well as the other settings.
+   *
+   * @param config The configuration to copy.
+   */
+  public FastBrowserConfig( final FastBrowserConfig config ) {
+    mLoader = config.mLoader;
+    setViewportBackgroundColor( config.getViewportBackgroundColor() );
+    setLoadImages( config.getLoadImages() );
+    setLoadBackgroundImages( config.getLoadBackgroundImages() );
+    setLoadFonts( config.isLoadFonts() );
+    setImageLoadTimeout( config.getImageLoadTimeout() );
+    setContentObserver( config.getContentObserver() );
+    setImageCache( config.getImageCache() );
+    setUseHTML( config.getUseHTML() );
+    setReplaceImagesWithAlt( config.getReplaceImagesWithAlt() );
+    setClipViewport( config.getClipViewport() );
+    registerDocumentSource( config.getDocumentSourceClass() );
+    registerDOMSource( config.getDOMSourceClass() );
+
+    for( final var family : LOGICAL_FONTS ) {
+      final var font = config.getDefaultFont( family );
+
+      if( font != null ) {
+        setDefaultFont( family, font );
+      }
+    }
+  }
 
+  /**
+   * Returns the loader used for fetching HTTP resources.
+   *
+   * @return The resource loader.
+   */
+  public ResourceLoader getResourceLoader() {
+    return mLoader;
+  }
+
+  @Override
   public DocumentSource createDocumentSource( final URL url )
       throws IOException {
-    return mDocumentSource == null ?
-        mDocumentSource = new FastDocumentSource( url ) :
-        mDocumentSource.setURL( url );
+    return ResourceLoader.isSupported( url ) ?
+        new FastDocumentSource( url, mLoader ) :
+        super.createDocumentSource( url );
+  }
+
+  @Override
+  public DocumentSource createDocumentSource(
+      final URL base, final String urlstring ) {
+    try {
+      final var url = new URL( base, urlstring );
+
+      if( ResourceLoader.isSupported( url ) ) {
+        return new FastDocumentSource( url, mLoader );
+      }
+    } catch( final IOException ignored ) {
+      // e.g. data: URLs are handled by the default source
+    }
+
+    return super.createDocumentSource( base, urlstring );
+  }
+
+  private static Class<? extends DOMSource> getDefaultDOMSource() {
+    final var name = System.getProperty( Constants.DOM_SOURCE_PROPERTY );
+
+    if( name != null && !name.isEmpty() ) {
+      try {
+        return Class.forName( name ).asSubclass( DOMSource.class );
+      } catch( final ClassNotFoundException | ClassCastException e ) {
+        // a misspelled parser would be replaced unnoticed by a fallback
+        throw new IllegalArgumentException(
+            "Invalid " + Constants.DOM_SOURCE_PROPERTY + ": " + name, e );
+      }
+    }
+
+    return JsoupDOMSource.class;
   }
 }
@@ -27,60 +27,52 @@
  */
 package org.fit.cssbox.swingbox.performance;
 
-import org.apache.http.client.methods.HttpGet;
 import org.apache.http.entity.ContentType;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.cache.BasicHttpCacheStorage;
-import org.apache.http.impl.client.cache.CacheConfig;
-import org.apache.http.impl.client.cache.CachingHttpClients;
 import org.fit.cssbox.io.DocumentSource;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.URI;
 import java.net.URL;
-import java.util.concurrent.TimeUnit;
 
+/**
+ * A document source that fetches HTTP resources using a shared
+ * {@link ResourceLoader}, so that the connections and the cached responses
+ * are reused. Other URLs are opened by their {@link java.net.URLConnection}.
+ * <p>
+ * Each source represents a single request and must not be shared between
+ * threads; create a new source for every resource.
+ */
 public class FastDocumentSource extends DocumentSource {
-  private final CloseableHttpClient mClient;
+  private final URL mUrl;
+  private final ResourceLoader mLoader;
 
-  private URL mUrl;
   private InputStream mInputStream;
   private String mContentType = "";
 
+  /**
+   * Creates a source that uses the process-wide loader.
+   *
+   * @param url The resource URL.
+   * @throws IOException Never thrown, declared by the superclass.
+   */
   public FastDocumentSource( final URL url ) throws IOException {
+    this( url, ResourceLoader.getDefault() );
+  }
+
+  /**
+   * Creates a source that uses the given loader.
+   *
+   * @param url    The resource URL.
+   * @param loader The loader used for fetching HTTP resources.
+   * @throws IOException Never thrown, declared by the superclass.
+   */
+  public FastDocumentSource( final URL url, final ResourceLoader loader )
+      throws IOException {
     super( url );
     assert url != null;
 
-    mClient = createHttpClient();
     mUrl = url;
-  }
-
-  public FastDocumentSource setURL(final URL url) {
-    mUrl = url;
-
-    return this;
-  }
-
-  private CloseableHttpClient createHttpClient() {
-    final var cacheLifetime = TimeUnit.HOURS.toSeconds( 1 );
-
-    final var cacheConfig =
-        CacheConfig.custom()
-                   .setMaxCacheEntries( 1000 )
-                   .setMaxObjectSize( 120 * 1024 )
-                   .setHeuristicCachingEnabled( true )
-                   .setHeuristicDefaultLifetime( cacheLifetime )
-                   .build();
-
-    final var cacheStore = new BasicHttpCacheStorage( cacheConfig );
-
-    final var builder =
-        CachingHttpClients.custom()
-                          .setCacheConfig( cacheConfig )
-                          .setHttpCacheStorage( cacheStore );
-
-    return builder.build();
+    mLoader = loader;
   }
 
   @Override
@@ -95,24 +87,29 @@ public class FastDocumentSource extends DocumentSource {
 
   @Override
   public InputStream getInputStream() throws IOException {
-    final URI uri;
-
-    try {
-      uri = getURL().toURI();
-    } catch( final Exception e ) {
-      throw new IOException( e );
+    if( mInputStream == null ) {
+      if( ResourceLoader.isSupported( mUrl ) ) {
+        final var entity = mLoader.fetch( mUrl ).getEntity();
+        final var contentType = ContentType.get( entity );
+
+        if( contentType != null ) {
+          mContentType = contentType.toString();
+        }
+
+        // closing the content releases the connection
+        mInputStream = entity.getContent();
+      }
+      else {
+        final var connection = mUrl.openConnection();
+        mInputStream = connection.getInputStream();
+
+        if( connection.getContentType() != null ) {
+          mContentType = connection.getContentType();
+        }
+      }
     }
 
-    final var httpGet = new HttpGet( uri );
-    final var response = mClient.execute( httpGet );
-
-    final var entity = response.getEntity();
-    entity.getContentType();
-
-    final var contentType = ContentType.getOrDefault( entity );
-    mContentType = contentType.getMimeType();
-
-    return mInputStream = entity.getContent();
+    return mInputStream;
   }
 
   @Override
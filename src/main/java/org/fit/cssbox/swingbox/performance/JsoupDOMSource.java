@@ -0,0 +1,89 @@
+/*
+ * Copyright 2020 White Magic Software, Ltd.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.fit.cssbox.swingbox.performance;
+
+import org.fit.cssbox.io.DOMSource;
+import org.fit.cssbox.io.DocumentSource;
+import org.jsoup.parser.Parser;
+import org.w3c.dom.Document;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Parses the documents by jsoup, following the HTML5 parsing rules, and
+ * moves the result to a W3C DOM by {@link DomBuilder}. This is the parser
+ * used by SwingBox by default; the NekoHTML based
+ * {@link org.fit.cssbox.io.DefaultDOMSource} of CSSBox may be used instead,
+ * see {@link FastBrowserConfig}.
+ */
+public class JsoupDOMSource extends DOMSource {
+  /**
+   * Creating the DOM implementation takes longer than parsing a small
+   * document, the builders are reused.
+   */
+  private static final ThreadLocal<DomBuilder> BUILDER =
+      ThreadLocal.withInitial( DomBuilder::new );
+
+  /**
+   * Creates a parser of the given document.
+   *
+   * @param src The document to parse.
+   */
+  public JsoupDOMSource( final DocumentSource src ) {
+    super( src );
+  }
+
+  /**
+   * Parses the document. The bytes are decoded in a single pass in the
+   * encoding detected by {@link CharsetSniffer}; the content of a
+   * {@link ReaderDocumentSource} is parsed without any decoding.
+   */
+  @Override
+  public Document parse() throws IOException {
+    final var src = getDocumentSource();
+    final Reader reader;
+
+    if( src instanceof ReaderDocumentSource ) {
+      reader = ((ReaderDocumentSource) src).getReader();
+    }
+    else {
+      final var in = src.getInputStream();
+      // the content type of the HTTP sources is known once opened
+      reader = CharsetSniffer.open( in, src.getContentType() );
+    }
+
+    // jsoup requires a reader supporting marks
+    final var document = Parser.htmlParser().parseInput(
+        reader.markSupported() ? reader : new BufferedReader( reader ),
+        src.getURL().toString() );
+
+    return BUILDER.get().build( document );
+  }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2020 White Magic Software, Ltd.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.fit.cssbox.swingbox.performance;
+
+import org.apache.http.Header;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.protocol.HttpClientContext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A connection that fetches a resource by GET through a
+ * {@link ResourceLoader}, so that the responses cached by the loader, e.g.
+ * the prefetched pages, are reused. The redirects are followed by the
+ * loader; {@link #getURL()} returns the final URL once connected.
+ */
+final class LoaderConnection extends URLConnection {
+  private final ResourceLoader mLoader;
+
+  private CloseableHttpResponse mResponse;
+  private Map<String, List<String>> mHeaderFields;
+
+  LoaderConnection( final URL url, final ResourceLoader loader ) {
+    super( url );
+    mLoader = loader;
+  }
+
+  @Override
+  public void connect() throws IOException {
+    if( connected ) {
+      return;
+    }
+
+    final HttpGet request;
+
+    try {
+      request = new HttpGet( url.toURI() );
+    } catch( final URISyntaxException e ) {
+      throw new IOException( e );
+    }
+
+    for( final var property : getRequestProperties().entrySet() ) {
+      for( final var value : property.getValue() ) {
+        request.addHeader( property.getKey(), value );
+      }
+    }
+
+    final var context = HttpClientContext.create();
+    mResponse = mLoader.execute( request, context );
+    connected = true;
+
+    final var redirects = context.getRedirectLocations();
+
+    if( redirects != null && !redirects.isEmpty() ) {
+      url = redirects.get( redirects.size() - 1 ).toURL();
+    }
+  }
+
+  @Override
+  public InputStream getInputStream() throws IOException {
+    connect();
+    return mResponse.getEntity().getContent();
+  }
+
+  @Override
+  public String getHeaderField( final String name ) {
+    if( !tryConnect() ) {
+      return null;
+    }
+
+    final var header = mResponse.getLastHeader( name );
+    return header == null ? null : header.getValue();
+  }
+
+  @Override
+  public String getHeaderFieldKey( final int n ) {
+    final var header = getHeader( n );
+    return header == null ? null : header.getName();
+  }
+
+  @Override
+  public String getHeaderField( final int n ) {
+    final var header = getHeader( n );
+    return header == null ? null : header.getValue();
+  }
+
+  @Override
+  public Map<String, List<String>> getHeaderFields() {
+    if( !tryConnect() ) {
+      return Collections.emptyMap();
+    }
+
+    if( mHeaderFields == null ) {
+      final var fields = new LinkedHashMap<String, List<String>>();
+
+      for( final var header : mResponse.getAllHeaders() ) {
+        fields.computeIfAbsent( header.getName(), k -> new ArrayList<>() )
+              .add( header.getValue() );
+      }
+
+      fields.replaceAll( ( k, v ) -> Collections.unmodifiableList( v ) );
+      mHeaderFields = Collections.unmodifiableMap( fields );
+    }
+
+    return mHeaderFields;
+  }
+
+  private Header getHeader( final int n ) {
+    if( !tryConnect() ) {
+      return null;
+    }
+
+    final var headers = mResponse.getAllHeaders();
+    return n >= 0 && n < headers.length ? headers[ n ] : null;
+  }
+
+  /**
+   * Connects for reading the header fields, which report the failures by
+   * missing values as in {@link java.net.HttpURLConnection}.
+   */
+  private boolean tryConnect() {
+    try {
+      connect();
+      return true;
+    } catch( final IOException e ) {
+      return false;
+    }
+  }
+}
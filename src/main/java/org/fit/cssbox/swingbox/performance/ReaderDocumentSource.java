@@ -0,0 +1,105 @@
+/*
+ * Copyright 2020 White Magic Software, Ltd.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.fit.cssbox.swingbox.performance;
+
+import org.fit.cssbox.io.DocumentSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.net.URL;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * A document that has already been decoded to characters. The
+ * {@link JsoupDOMSource} parses the characters directly; the parsers that
+ * read bytes only obtain the document encoded in UTF-8.
+ */
+public class ReaderDocumentSource extends DocumentSource {
+  private final URL mUrl;
+  private final Reader mReader;
+
+  private InputStream mInputStream;
+
+  /**
+   * Creates a source.
+   *
+   * @param reader The document content.
+   * @param url    The document URL.
+   * @throws IOException Never thrown, declared by the superclass.
+   */
+  public ReaderDocumentSource( final Reader reader, final URL url )
+      throws IOException {
+    super( url );
+    mUrl = url;
+    mReader = reader;
+  }
+
+  /**
+   * Returns the document content.
+   *
+   * @return The reader of the document.
+   */
+  public Reader getReader() {
+    return mReader;
+  }
+
+  @Override
+  public URL getURL() {
+    return mUrl;
+  }
+
+  @Override
+  public String getContentType() {
+    return "text/html; charset=UTF-8";
+  }
+
+  /**
+   * Returns the document encoded in UTF-8, for the parsers that cannot read
+   * characters. The whole document is read into memory.
+   */
+  @Override
+  public InputStream getInputStream() throws IOException {
+    if( mInputStream == null ) {
+      final var content = new StringWriter();
+      mReader.transferTo( content );
+      mInputStream = new ByteArrayInputStream(
+          content.toString().getBytes( UTF_8 ) );
+    }
+
+    return mInputStream;
+  }
+
+  @Override
+  public void close() throws IOException {
+    mReader.close();
+  }
+}
@@ -0,0 +1,383 @@
+/*
+ * Copyright 2020 White Magic Software, Ltd.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.fit.cssbox.swingbox.performance;
+
+import cz.vutbr.web.css.CSSFactory;
+import cz.vutbr.web.css.NetworkProcessor;
+import cz.vutbr.web.csskit.DefaultNetworkProcessor;
+import org.apache.http.client.cache.HttpCacheStorage;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.cache.BasicHttpCacheStorage;
+import org.apache.http.impl.client.cache.CacheConfig;
+import org.apache.http.impl.client.cache.CachingHttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+import org.fit.cssbox.swingbox.util.Constants;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads documents and their resources over HTTP. A single loader is meant to
+ * be shared by the whole process: it keeps a pool of connections with a limit
+ * of connections per host and a single HTTP cache, so that the resources
+ * loaded by any page or pane are reused by the others. The loader is
+ * thread-safe; the resources may be fetched concurrently.
+ * <p>
+ * The default loader is configured by the {@code swingbox.http.*} system
+ * properties, see {@link Constants}. When a cache directory is configured,
+ * the cached responses are kept on disk and survive restarts.
+ */
+public final class ResourceLoader implements Closeable {
+  private static final int DEFAULT_MAX_CONNECTIONS = 64;
+  private static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 6;
+  private static final int DEFAULT_CACHE_ENTRIES = 1000;
+  private static final int DEFAULT_CACHE_OBJECT_SIZE = 1024 * 1024;
+  private static final long DEFAULT_CACHE_DIR_SIZE = 256L * 1024 * 1024;
+
+  /**
+   * Loads the style sheets for jStyleParser through the default loader.
+   */
+  private static final NetworkProcessor NETWORK_PROCESSOR =
+      url -> getDefault().open( url );
+
+  private static volatile ResourceLoader sDefault;
+
+  private final PoolingHttpClientConnectionManager mConnectionManager;
+  private final HttpCacheStorage mCacheStorage;
+  private final CloseableHttpClient mClient;
+
+  /**
+   * Creates a loader with an in-memory HTTP cache.
+   *
+   * @param maxConnections        The maximal number of open connections.
+   * @param maxConnectionsPerHost The maximal number of open connections to a
+   *                              single host.
+   * @param cacheConfig           The HTTP cache configuration.
+   */
+  public ResourceLoader( final int maxConnections,
+                         final int maxConnectionsPerHost,
+                         final CacheConfig cacheConfig ) {
+    this( maxConnections, maxConnectionsPerHost, cacheConfig,
+          new BasicHttpCacheStorage( cacheConfig ) );
+  }
+
+  /**
+   * Creates a loader.
+   *
+   * @param maxConnections        The maximal number of open connections.
+   * @param maxConnectionsPerHost The maximal number of open connections to a
+   *                              single host.
+   * @param cacheConfig           The HTTP cache configuration.
+   * @param cacheStorage          The storage of the cached responses.
+   */
+  public ResourceLoader( final int maxConnections,
+                         final int maxConnectionsPerHost,
+                         final CacheConfig cacheConfig,
+                         final HttpCacheStorage cacheStorage ) {
+    mConnectionManager = new PoolingHttpClientConnectionManager();
+    mConnectionManager.setMaxTotal( maxConnections );
+    mConnectionManager.setDefaultMaxPerRoute( maxConnectionsPerHost );
+    mCacheStorage = cacheStorage;
+
+    mClient = CachingHttpClients.custom()
+                                .setCacheConfig( cacheConfig )
+                                .setHttpCacheStorage( cacheStorage )
+                                .setConnectionManager( mConnectionManager )
+                                .build();
+  }
+
+  /**
+   * Returns the loader shared by the whole process. It is created on first
+   * use unless it has been set by {@link #setDefault(ResourceLoader)}.
+   *
+   * @return The shared loader.
+   */
+  public static ResourceLoader getDefault() {
+    var loader = sDefault;
+
+    if( loader == null ) {
+      synchronized( ResourceLoader.class ) {
+        loader = sDefault;
+
+        if( loader == null ) {
+          sDefault = loader = fromProperties();
+        }
+      }
+    }
+
+    return loader;
+  }
+
+  /**
+   * Replaces the loader shared by the whole process. The previous loader is
+   * not closed, the requests in progress may still use it.
+   *
+   * @param loader The new shared loader.
+   */
+  public static void setDefault( final ResourceLoader loader ) {
+    synchronized( ResourceLoader.class ) {
+      sDefault = loader;
+    }
+  }
+
+  /**
+   * Makes jStyleParser load the style sheets through the default loader, so
+   * that they are served from its HTTP cache and the prefetched sheets are
+   * not requested again. The network processor of jStyleParser is shared
+   * by the whole process, hence it is only replaced when the application
+   * has not installed its own one. This is done by the
+   * {@link org.fit.cssbox.swingbox.util.DefaultAnalyzer} when the
+   * {@link Constants#CSS_NETWORK_PROCESSOR_PROPERTY} system property is set
+   * to {@code true}.
+   *
+   * @return {@code true} when the style sheets are loaded by this class.
+   */
+  public static boolean installNetworkProcessor() {
+    synchronized( ResourceLoader.class ) {
+      if( CSSFactory.getNetworkProcessor() instanceof DefaultNetworkProcessor ) {
+        CSSFactory.setNetworkProcessor( NETWORK_PROCESSOR );
+      }
+    }
+
+    return isNetworkProcessorInstalled();
+  }
+
+  /**
+   * Answers whether jStyleParser loads the style sheets through the default
+   * loader, see {@link #installNetworkProcessor()}.
+   *
+   * @return {@code true} when the style sheets are loaded by this class.
+   */
+  public static boolean isNetworkProcessorInstalled() {
+    return CSSFactory.getNetworkProcessor() == NETWORK_PROCESSOR;
+  }
+
+  /**
+   * Creates the default cache configuration, using the
+   * {@link Constants#HTTP_CACHE_ENTRIES_PROPERTY} and
+   * {@link Constants#HTTP_CACHE_OBJECT_SIZE_PROPERTY} system properties.
+   *
+   * @return The cache configuration.
+   */
+  public static CacheConfig createCacheConfig() {
+    return CacheConfig
+        .custom()
+        .setMaxCacheEntries( getIntProperty(
+            Constants.HTTP_CACHE_ENTRIES_PROPERTY, DEFAULT_CACHE_ENTRIES ) )
+        .setMaxObjectSize( getIntProperty(
+            Constants.HTTP_CACHE_OBJECT_SIZE_PROPERTY,
+            DEFAULT_CACHE_OBJECT_SIZE ) )
+        .setHeuristicCachingEnabled( true )
+        .setHeuristicDefaultLifetime( TimeUnit.HOURS.toSeconds( 1 ) )
+        .setSharedCache( false )
+        .build();
+  }
+
+  private static ResourceLoader fromProperties() {
+    final var cacheConfig = createCacheConfig();
+
+    return new ResourceLoader(
+        getIntProperty( Constants.HTTP_MAX_CONNECTIONS_PROPERTY,
+                        DEFAULT_MAX_CONNECTIONS ),
+        getIntProperty( Constants.HTTP_MAX_CONNECTIONS_PER_HOST_PROPERTY,
+                        DEFAULT_MAX_CONNECTIONS_PER_HOST ),
+        cacheConfig,
+        createCacheStorage( cacheConfig ) );
+  }
+
+  /**
+   * Creates the storage configured by the
+   * {@link Constants#HTTP_CACHE_DIR_PROPERTY} and
+   * {@link Constants#HTTP_CACHE_DIR_SIZE_PROPERTY} system properties: a
+   * {@link DiskHttpCacheStorage} when the directory is set, an in-memory
+   * storage otherwise.
+   */
+  private static HttpCacheStorage createCacheStorage(
+      final CacheConfig cacheConfig ) {
+    final var dir = System.getProperty( Constants.HTTP_CACHE_DIR_PROPERTY );
+
+    if( dir != null && !dir.isEmpty() ) {
+      try {
+        return new DiskHttpCacheStorage(
+            Paths.get( dir ),
+            getLongProperty( Constants.HTTP_CACHE_DIR_SIZE_PROPERTY,
+                             DEFAULT_CACHE_DIR_SIZE ) );
+      } catch( final IOException | RuntimeException e ) {
+        // fall back to the memory, the responses are cached until exit
+        System.getLogger( ResourceLoader.class.getName() ).log(
+            System.Logger.Level.WARNING,
+            "Cannot use the HTTP cache directory " + dir, e );
+      }
+    }
+
+    return new BasicHttpCacheStorage( cacheConfig );
+  }
+
+  /**
+   * Answers whether the given URL can be fetched by this loader.
+   *
+   * @param url The URL to check.
+   * @return {@code true} for HTTP and HTTPS URLs.
+   */
+  public static boolean isSupported( final URL url ) {
+    final var protocol = url.getProtocol();
+    return "http".equalsIgnoreCase( protocol ) ||
+        "https".equalsIgnoreCase( protocol );
+  }
+
+  /**
+   * Fetches the resource. The returned response must be closed, either
+   * directly or by closing the stream of its entity, so that the connection
+   * is returned to the pool.
+   *
+   * @param url The resource URL.
+   * @return The successful response.
+   * @throws IOException The resource could not be fetched or the server
+   *                     responded with an error status.
+   */
+  public CloseableHttpResponse fetch( final URL url ) throws IOException {
+    final URI uri;
+
+    try {
+      uri = url.toURI();
+    } catch( final Exception e ) {
+      throw new IOException( e );
+    }
+
+    return execute( new HttpGet( uri ), null );
+  }
+
+  /**
+   * Opens a connection that fetches the resource through this loader, so
+   * that the documents opened by a {@link java.net.URLConnection} share the
+   * pool and the cache with their resources. Only the GET requests are
+   * supported; the connection fails when the server responds with an error
+   * status.
+   *
+   * @param url The resource URL, see {@link #isSupported(URL)}.
+   * @return The connection, not connected yet.
+   */
+  public URLConnection openConnection( final URL url ) {
+    return new LoaderConnection( url, this );
+  }
+
+  /**
+   * Executes the request, failing on the error status.
+   *
+   * @param request The request to execute.
+   * @param context The context receiving e.g. the redirect locations or
+   *                {@code null}.
+   * @return The successful response.
+   * @throws IOException The resource could not be fetched or the server
+   *                     responded with an error status.
+   */
+  CloseableHttpResponse execute( final HttpGet request,
+                                 final HttpContext context )
+      throws IOException {
+    final var response = mClient.execute( request, context );
+    final var status = response.getStatusLine();
+
+    if( status.getStatusCode() >= 400 || response.getEntity() == null ) {
+      try {
+        EntityUtils.consume( response.getEntity() );
+      } finally {
+        response.close();
+      }
+
+      throw new IOException(
+          "Cannot fetch " + request.getURI() + ": " + status );
+    }
+
+    return response;
+  }
+
+  /**
+   * Opens the resource content. Unlike {@link #fetch(URL)}, any URL is
+   * accepted; the URLs that are not supported by this loader are opened by
+   * their {@link java.net.URLConnection}.
+   *
+   * @param url The resource URL.
+   * @return The resource content, the caller must close it.
+   * @throws IOException The resource could not be fetched.
+   */
+  public InputStream open( final URL url ) throws IOException {
+    return isSupported( url ) ?
+        fetch( url ).getEntity().getContent() :
+        url.openStream();
+  }
+
+  /**
+   * Returns the storage of the cached responses.
+   *
+   * @return The shared cache storage.
+   */
+  public HttpCacheStorage getCacheStorage() {
+    return mCacheStorage;
+  }
+
+  /**
+   * Returns the state of the connection pool.
+   *
+   * @return The numbers of leased, pending and available connections.
+   */
+  public PoolStats getPoolStats() {
+    return mConnectionManager.getTotalStats();
+  }
+
+  @Override
+  public void close() throws IOException {
+    mClient.close();
+  }
+
+  private static int getIntProperty( final String name, final int def ) {
+    try {
+      return Integer.parseInt( System.getProperty( name, String.valueOf( def ) ) );
+    } catch( final NumberFormatException e ) {
+      return def;
+    }
+  }
+
+  private static long getLongProperty( final String name, final long def ) {
+    try {
+      return Long.parseLong( System.getProperty( name, String.valueOf( def ) ) );
+    } catch( final NumberFormatException e ) {
+      return def;
+    }
+  }
+}
@@ -0,0 +1,369 @@
+/*
+ * Copyright 2020 White Magic Software, Ltd.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.fit.cssbox.swingbox.performance;
+
+import org.apache.http.entity.ContentType;
+import org.apache.http.util.EntityUtils;
+import org.fit.cssbox.swingbox.util.Constants;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Fetches the style sheets and images referenced by a document in parallel,
+ * before they are requested one by one by the layout engine. The responses
+ * are stored in the HTTP cache of the {@link ResourceLoader}, so that the
+ * later sequential requests are served from the cache.
+ * <p>
+ * The fetched style sheets are scanned for the further references as well.
+ */
+public class ResourcePrefetcher {
+  private static final int DEFAULT_THREADS = 8;
+
+  /**
+   * Matches the {@code @import} rules, with a plain string or a
+   * {@code url(...)}, and the other {@code url(...)} references.
+   */
+  private static final Pattern CSS_REFERENCE = Pattern.compile(
+      "@import\\s+(?:url\\(\\s*)?['\"]?([^'\"()\\s;]+)['\"]?|" +
+          "url\\(\\s*['\"]?([^'\")]+?)['\"]?\\s*\\)",
+      Pattern.CASE_INSENSITIVE );
+
+  private static volatile ResourcePrefetcher sDefault;
+
+  private final ResourceLoader mLoader;
+  private final Executor mExecutor;
+
+  /**
+   * Creates a prefetcher.
+   *
+   * @param loader   The loader whose cache is filled.
+   * @param executor The executor that runs the requests; its number of
+   *                 threads bounds the number of concurrent requests.
+   */
+  public ResourcePrefetcher(
+      final ResourceLoader loader, final Executor executor ) {
+    mLoader = loader;
+    mExecutor = executor;
+  }
+
+  /**
+   * Returns the prefetcher shared by the whole process. It uses the default
+   * {@link ResourceLoader} and the number of threads given by the
+   * {@link Constants#PREFETCH_THREADS_PROPERTY} system property.
+   *
+   * @return The shared prefetcher or {@code null} when prefetching is
+   * disabled by setting the number of threads to zero.
+   */
+  public static ResourcePrefetcher getDefault() {
+    var prefetcher = sDefault;
+
+    if( prefetcher == null ) {
+      synchronized( ResourcePrefetcher.class ) {
+        prefetcher = sDefault;
+
+        if( prefetcher == null ) {
+          final var threads = getThreadCount();
+
+          if( threads <= 0 ) {
+            return null;
+          }
+
+          sDefault = prefetcher = new ResourcePrefetcher(
+              ResourceLoader.getDefault(), createExecutor( threads ) );
+        }
+      }
+    }
+
+    return prefetcher;
+  }
+
+  /**
+   * Finds the style sheets and images referenced by the document: the
+   * {@code <link rel="stylesheet">} and {@code <img>} elements, the
+   * {@code background} attributes and the {@code url(...)} and
+   * {@code @import} references of the style elements and attributes.
+   *
+   * @param document The parsed document.
+   * @param base     The document URL, the relative references are resolved
+   *                 against it or against the {@code <base>} element.
+   * @return The HTTP URLs found without duplicates, the style sheets first.
+   */
+  public static Set<URL> scan( final Document document, final URL base ) {
+    final var sheets = new LinkedHashSet<URL>();
+    final var others = new LinkedHashSet<URL>();
+    scan( document, base, sheets, others );
+    sheets.addAll( others );
+    return sheets;
+  }
+
+  /**
+   * Finds the style sheets and images referenced by the document, see
+   * {@link #scan(Document, URL)}, and keeps the style sheets apart.
+   *
+   * @param document The parsed document.
+   * @param base     The document URL.
+   * @param sheets   Receives the HTTP URLs of the linked and imported style
+   *                 sheets.
+   * @param others   Receives the HTTP URLs of the other resources.
+   */
+  public static void scan(
+      final Document document, final URL base,
+      final Collection<URL> sheets, final Collection<URL> others ) {
+    final var elements = document.getElementsByTagName( "*" );
+    var docBase = base;
+    var baseFound = false;
+
+    for( int i = 0; i < elements.getLength(); i++ ) {
+      final var elem = (Element) elements.item( i );
+      final var name = elem.getNodeName();
+
+      if( "base".equalsIgnoreCase( name ) && !baseFound ) {
+        try {
+          docBase = new URL( base, elem.getAttribute( "href" ) );
+          baseFound = true;
+        } catch( final MalformedURLException ignored ) {
+        }
+      }
+      else if( "link".equalsIgnoreCase( name ) ) {
+        if( elem.getAttribute( "rel" ).toLowerCase().contains( "stylesheet" ) ) {
+          add( sheets, docBase, elem.getAttribute( "href" ) );
+        }
+      }
+      else if( "style".equalsIgnoreCase( name ) ) {
+        scan( elem.getTextContent(), docBase, sheets, others );
+      }
+      else if( "img".equalsIgnoreCase( name ) ) {
+        add( others, docBase, elem.getAttribute( "src" ) );
+      }
+
+      add( others, docBase, elem.getAttribute( "background" ) );
+      scan( elem.getAttribute( "style" ), docBase, others );
+    }
+  }
+
+  /**
+   * Finds the {@code url(...)} and {@code @import} references in a style
+   * sheet.
+   *
+   * @param css  The style sheet or style declarations.
+   * @param base The URL the references are relative to.
+   * @param urls Receives the HTTP URLs found.
+   */
+  public static void scan(
+      final String css, final URL base, final Collection<URL> urls ) {
+    scan( css, base, urls, urls );
+  }
+
+  /**
+   * Finds the {@code url(...)} and {@code @import} references in a style
+   * sheet and keeps the imported style sheets apart.
+   *
+   * @param css     The style sheet or style declarations.
+   * @param base    The URL the references are relative to.
+   * @param imports Receives the HTTP URLs of the imported style sheets.
+   * @param others  Receives the other HTTP URLs found.
+   */
+  public static void scan(
+      final String css, final URL base,
+      final Collection<URL> imports, final Collection<URL> others ) {
+    final var matcher = CSS_REFERENCE.matcher( css );
+
+    while( matcher.find() ) {
+      final var imported = matcher.group( 1 ) != null;
+      final var ref = imported ? matcher.group( 1 ) : matcher.group( 2 );
+
+      try {
+        add( imported ? imports : others, new URL( base, ref.trim() ) );
+      } catch( final MalformedURLException ignored ) {
+        // e.g. data: URLs
+      }
+    }
+  }
+
+  /**
+   * Fetches the resources in parallel. The style sheets are scanned for
+   * further references, which are fetched as well.
+   *
+   * @param urls The resources to fetch.
+   * @return A future completed when all the requests have finished,
+   * successfully or not.
+   */
+  public CompletableFuture<Void> prefetch( final Collection<URL> urls ) {
+    final var batch = new Batch();
+    batch.start( urls, Set.of() );
+    return batch.mDone;
+  }
+
+  /**
+   * Fetches the style sheets and the other resources in parallel. Only the
+   * style sheets are needed before the styles of the document are computed,
+   * so the returned future does not wait for the other resources, which
+   * are fetched in background.
+   *
+   * @param sheets The style sheets to fetch.
+   * @param others The other resources to fetch, e.g. the images.
+   * @return A future completed when the style sheets and the sheets
+   * imported by them have been fetched, successfully or not.
+   */
+  public CompletableFuture<Void> prefetch(
+      final Collection<URL> sheets, final Collection<URL> others ) {
+    final var batch = new Batch();
+    batch.start( sheets, others );
+    return batch.mSheetsDone;
+  }
+
+  /**
+   * A single prefetch request, i.e. the resources referenced by one
+   * document.
+   */
+  private final class Batch {
+    private final Set<String> mVisited = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger mPending = new AtomicInteger( 1 );
+    private final AtomicInteger mSheetsPending = new AtomicInteger( 1 );
+    private final CompletableFuture<Void> mDone = new CompletableFuture<>();
+    private final CompletableFuture<Void> mSheetsDone =
+        new CompletableFuture<>();
+
+    private void start(
+        final Collection<URL> sheets, final Collection<URL> others ) {
+      submit( sheets, true );
+      submit( others, false );
+      finished( true );
+    }
+
+    private void submit( final Collection<URL> urls, final boolean sheet ) {
+      for( final var url : urls ) {
+        if( mVisited.add( url.toExternalForm() ) ) {
+          mPending.incrementAndGet();
+
+          if( sheet ) {
+            mSheetsPending.incrementAndGet();
+          }
+
+          try {
+            mExecutor.execute( () -> fetch( url, sheet ) );
+          } catch( final RuntimeException e ) {
+            finished( sheet );
+          }
+        }
+      }
+    }
+
+    private void fetch( final URL url, final boolean sheet ) {
+      try( final var response = mLoader.fetch( url ) ) {
+        final var entity = response.getEntity();
+        final var bytes = EntityUtils.toByteArray( entity );
+        final var type = ContentType.get( entity );
+
+        if( type != null && "text/css".equals( type.getMimeType() ) ) {
+          final Charset charset = type.getCharset();
+          final var imports = new LinkedHashSet<URL>();
+          final var others = new LinkedHashSet<URL>();
+
+          scan( new String( bytes, charset == null ? UTF_8 : charset ),
+                url, imports, others );
+          // the imported sheets are needed as well as the importing one
+          submit( imports, sheet );
+          submit( others, false );
+        }
+      } catch( final IOException | RuntimeException ignored ) {
+        // the resource will be requested again by the layout engine
+      } finally {
+        finished( sheet );
+      }
+    }
+
+    private void finished( final boolean sheet ) {
+      if( sheet && mSheetsPending.decrementAndGet() == 0 ) {
+        mSheetsDone.complete( null );
+      }
+
+      if( mPending.decrementAndGet() == 0 ) {
+        mDone.complete( null );
+      }
+    }
+  }
+
+  private static void add(
+      final Collection<URL> urls, final URL base, final String url ) {
+    try {
+      if( !url.isBlank() ) {
+        add( urls, new URL( base, url.trim() ) );
+      }
+    } catch( final MalformedURLException ignored ) {
+    }
+  }
+
+  private static void add( final Collection<URL> urls, final URL url ) {
+    if( ResourceLoader.isSupported( url ) ) {
+      urls.add( url );
+    }
+  }
+
+  private static Executor createExecutor( final int threads ) {
+    final var count = new AtomicInteger();
+    final var executor = new ThreadPoolExecutor(
+        threads, threads, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+        r -> {
+          final var thread = new Thread( r, "swingbox-prefetch-" +
+              count.incrementAndGet() );
+          thread.setDaemon( true );
+          return thread;
+        } );
+    executor.allowCoreThreadTimeOut( true );
+    return executor;
+  }
+
+  private static int getThreadCount() {
+    try {
+      return Integer.parseInt( System.getProperty(
+          Constants.PREFETCH_THREADS_PROPERTY,
+          String.valueOf( DEFAULT_THREADS ) ) );
+    } catch( final NumberFormatException e ) {
+      return DEFAULT_THREADS;
+    }
+  }
+}
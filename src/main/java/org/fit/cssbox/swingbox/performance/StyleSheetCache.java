@@ -0,0 +1,434 @@
+/*
+ * Copyright 2020 White Magic Software, Ltd.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.fit.cssbox.swingbox.performance;
+
+import cz.vutbr.web.css.CSSException;
+import cz.vutbr.web.css.CSSFactory;
+import cz.vutbr.web.css.NetworkProcessor;
+import cz.vutbr.web.css.RuleBlock;
+import cz.vutbr.web.css.RuleFontFace;
+import cz.vutbr.web.css.RuleKeyframes;
+import cz.vutbr.web.css.RuleMedia;
+import cz.vutbr.web.css.RulePage;
+import cz.vutbr.web.css.RuleSet;
+import cz.vutbr.web.css.RuleViewport;
+import cz.vutbr.web.css.StyleSheet;
+import cz.vutbr.web.csskit.antlr4.CSSParserFactory;
+import org.fit.cssbox.css.DOMAnalyzer;
+import org.fit.cssbox.swingbox.util.Constants;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Caches the parsed style sheets for the whole process. The sheets are
+ * identified by their base URL and a hash of their content, so that a
+ * changed sheet is parsed again. This covers the user agent style sheets
+ * added to every document and the linked sheets shared by many pages of a
+ * site.
+ * <p>
+ * Adding a rule block to a style sheet makes the block refer to the sheet,
+ * so the cached blocks are never handed out. Every request obtains a new
+ * style sheet with copies of the cached blocks, which share the selectors
+ * and declarations that are not modified after parsing. The sheets that
+ * contain other kinds of blocks than the copied ones are not cached.
+ * <p>
+ * The cache is used by jStyleParser once installed by {@link #install()};
+ * the style sheets may be added to a document by
+ * {@link #addStyleSheet(DOMAnalyzer, String, DOMAnalyzer.Origin)} without
+ * installing the cache.
+ * The {@code @import}ed sheets are cached as a part of the importing sheet.
+ */
+public class StyleSheetCache extends CSSParserFactory {
+  private static final int DEFAULT_SIZE = 64;
+
+  /**
+   * The list of the style sheets of {@link DOMAnalyzer} or {@code null} when
+   * not accessible.
+   */
+  private static final Field STYLES_FIELD = findStylesField();
+
+  private static volatile StyleSheetCache sInstance;
+
+  private final Map<String, List<RuleBlock<?>>> mSheets;
+
+  private long mHits;
+  private long mMisses;
+
+  /**
+   * Creates a cache.
+   *
+   * @param maxEntries The maximal number of the cached style sheets.
+   */
+  public StyleSheetCache( final int maxEntries ) {
+    mSheets = new LinkedHashMap<>( 16, 0.75f, true ) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(
+          final Map.Entry<String, List<RuleBlock<?>>> eldest ) {
+        return size() > maxEntries;
+      }
+    };
+  }
+
+  /**
+   * Returns the cache shared by the whole process. Its size is given by the
+   * {@link Constants#STYLESHEET_CACHE_SIZE_PROPERTY} system property.
+   *
+   * @return The shared cache.
+   */
+  public static StyleSheetCache getInstance() {
+    var cache = sInstance;
+
+    if( cache == null ) {
+      synchronized( StyleSheetCache.class ) {
+        cache = sInstance;
+
+        if( cache == null ) {
+          sInstance = cache = new StyleSheetCache( getSize() );
+        }
+      }
+    }
+
+    return cache;
+  }
+
+  /**
+   * Makes jStyleParser use the shared cache. The linked and embedded style
+   * sheets of the documents are only cached when the cache is installed
+   * before the first document is analyzed.
+   * <p>
+   * The parser factory of jStyleParser is shared by the whole process and
+   * this replaces any factory registered by the application, so the cache
+   * is installed on request only. This is done by the
+   * {@link org.fit.cssbox.swingbox.util.DefaultAnalyzer} when the
+   * {@link Constants#STYLESHEET_CACHE_INSTALL_PROPERTY} system property is
+   * set to {@code true}.
+   */
+  public static void install() {
+    CSSFactory.registerCSSParserFactory( getInstance() );
+  }
+
+  /**
+   * Parses the given style sheet unless it is already cached, e.g. the user
+   * agent style sheets that are used for every document.
+   *
+   * @param css  The style sheet.
+   * @param base The base URL of the style sheet.
+   */
+  public void preload( final String css, final URL base ) {
+    try {
+      getRules( css, null, null, SourceType.EMBEDDED, base, "parse" );
+    } catch( final IOException | CSSException e ) {
+      // reported again when the sheet is used
+    }
+  }
+
+  /**
+   * Adds a style sheet parsed by this cache to the given analyzer, so that
+   * e.g. the user agent style sheets are parsed once for the whole process
+   * even when the cache is not installed. The analyzer does not provide a
+   * way of adding a parsed sheet, so its list of the sheets is accessed
+   * directly.
+   *
+   * @param analyzer The analyzer of a document.
+   * @param css      The style sheet.
+   * @param origin   The origin of the style sheet.
+   * @return {@code false} when the sheet could not be added, it should be
+   * added by {@link DOMAnalyzer#addStyleSheet(URL, String, DOMAnalyzer.Origin)}
+   * then.
+   */
+  public boolean addStyleSheet( final DOMAnalyzer analyzer, final String css,
+                                final DOMAnalyzer.Origin origin ) {
+    final var field = STYLES_FIELD;
+
+    if( field == null ) {
+      return false;
+    }
+
+    try {
+      final var sheet = parse( css, null, null, SourceType.EMBEDDED, null );
+      sheet.setOrigin( StyleSheet.Origin.valueOf( origin.name() ) );
+
+      @SuppressWarnings( "unchecked" )
+      final var styles = (List<StyleSheet>) field.get( analyzer );
+      styles.add( sheet );
+      return true;
+    } catch( final IOException | CSSException | ReflectiveOperationException |
+        RuntimeException e ) {
+      return false;
+    }
+  }
+
+  /**
+   * Returns the number of the requests served from the cache.
+   *
+   * @return The number of cache hits.
+   */
+  public synchronized long getHitCount() {
+    return mHits;
+  }
+
+  /**
+   * Returns the number of the style sheets parsed.
+   *
+   * @return The number of cache misses.
+   */
+  public synchronized long getMissCount() {
+    return mMisses;
+  }
+
+  /**
+   * Discards all the cached style sheets.
+   */
+  public synchronized void clear() {
+    mSheets.clear();
+  }
+
+  @Override
+  public StyleSheet parse( final Object source, final NetworkProcessor network,
+                           final String encoding, final SourceType type,
+                           final URL base )
+      throws IOException, CSSException {
+    if( type == SourceType.INLINE ) {
+      return super.parse( source, network, encoding, type, base );
+    }
+
+    final var rules = getRules( source, network, encoding, type, base, "parse" );
+    final var sheet = CSSFactory.getRuleFactory().createStyleSheet();
+    sheet.unlock();
+    return addRules( rules, sheet );
+  }
+
+  @Override
+  public StyleSheet append( final Object source, final NetworkProcessor network,
+                            final String encoding, final SourceType type,
+                            final StyleSheet sheet, final URL base )
+      throws IOException, CSSException {
+    if( type == SourceType.INLINE ) {
+      return super.append( source, network, encoding, type, sheet, base );
+    }
+
+    // the sheets of the documents are kept apart from the separately
+    // parsed ones, they are used with the author origin only
+    final var rules = getRules( source, network, encoding, type, base, "append" );
+    return addRules( rules, sheet );
+  }
+
+  /**
+   * Obtains the rule blocks of a style sheet that are owned by the caller,
+   * i.e. new copies of the cached blocks or the blocks just parsed.
+   */
+  private List<RuleBlock<?>> getRules(
+      final Object source, final NetworkProcessor network,
+      final String encoding, final SourceType type, final URL base,
+      final String use ) throws IOException, CSSException {
+    final byte[] content;
+    final String location;
+    var parseNetwork = network;
+
+    if( type == SourceType.URL ) {
+      // the content of a URL source is obtained from the network processor,
+      // i.e. usually from the HTTP cache; a changed sheet is parsed again
+      final var processor = network == null ?
+          CSSFactory.getNetworkProcessor() : network;
+
+      try( final var in = processor.fetch( (URL) source ) ) {
+        content = in.readAllBytes();
+      }
+
+      location = ((URL) source).toExternalForm();
+
+      // the sheet is parsed from the content already fetched
+      parseNetwork = url -> location.equals( url.toExternalForm() ) ?
+          new ByteArrayInputStream( content ) : processor.fetch( url );
+    }
+    else {
+      content = String.valueOf( source ).getBytes( UTF_8 );
+      location = base == null ? "" : base.toExternalForm();
+    }
+
+    final var key = use + ':' + type + ':' + location + '#' + hash( content );
+
+    synchronized( this ) {
+      final var rules = mSheets.get( key );
+
+      if( rules != null ) {
+        mHits++;
+        return copy( rules );
+      }
+
+      mMisses++;
+    }
+
+    // parsed outside the lock, the same sheet may be parsed concurrently
+    final var sheet = super.parse( source, parseNetwork, encoding, type, base );
+    final List<RuleBlock<?>> rules = List.copyOf( sheet );
+    final var cached = copy( rules );
+
+    if( cached != null ) {
+      synchronized( this ) {
+        mSheets.put( key, cached );
+      }
+    }
+
+    return rules;
+  }
+
+  /**
+   * Copies the rule blocks so that they can be added to another style sheet.
+   *
+   * @return The copies or {@code null} when a block cannot be copied.
+   */
+  private static List<RuleBlock<?>> copy( final List<RuleBlock<?>> rules ) {
+    final var ret = new ArrayList<RuleBlock<?>>( rules.size() );
+
+    for( final var rule : rules ) {
+      final var copy = copy( rule );
+
+      if( copy == null ) {
+        return null;
+      }
+
+      ret.add( copy );
+    }
+
+    return ret;
+  }
+
+  private static RuleBlock<?> copy( final RuleBlock<?> rule ) {
+    final var factory = CSSFactory.getRuleFactory();
+
+    if( rule instanceof RuleSet ) {
+      final var set = factory.createSet();
+      set.setSelectors( List.of( ((RuleSet) rule).getSelectors() ) );
+      set.replaceAll( new ArrayList<>( (RuleSet) rule ) );
+      return set;
+    }
+    else if( rule instanceof RuleMedia ) {
+      // the sheet of the media rule is passed to the nested rule sets
+      final var media = factory.createMedia();
+      final var sets = new ArrayList<RuleSet>();
+
+      for( final var set : (RuleMedia) rule ) {
+        final var copy = copy( set );
+
+        if( !(copy instanceof RuleSet) ) {
+          return null;
+        }
+
+        sets.add( (RuleSet) copy );
+      }
+
+      media.setMediaQueries( ((RuleMedia) rule).getMediaQueries() );
+      media.replaceAll( sets );
+      return media;
+    }
+    else if( rule instanceof RuleFontFace ) {
+      final var fontFace = factory.createFontFace();
+      fontFace.replaceAll( new ArrayList<>( (RuleFontFace) rule ) );
+      return fontFace;
+    }
+    else if( rule instanceof RuleViewport ) {
+      final var viewport = factory.createViewport();
+      viewport.replaceAll( new ArrayList<>( (RuleViewport) rule ) );
+      return viewport;
+    }
+    else if( rule instanceof RuleKeyframes ) {
+      final var keyframes = factory.createKeyframes();
+      keyframes.setName( ((RuleKeyframes) rule).getName() );
+      keyframes.replaceAll( new ArrayList<>( (RuleKeyframes) rule ) );
+      return keyframes;
+    }
+    else if( rule instanceof RulePage ) {
+      final var page = factory.createPage();
+      page.setName( ((RulePage) rule).getName() );
+      page.setPseudo( ((RulePage) rule).getPseudo() );
+      page.replaceAll( new ArrayList<>( (RulePage) rule ) );
+      return page;
+    }
+
+    return null;
+  }
+
+  private static StyleSheet addRules(
+      final List<RuleBlock<?>> rules, final StyleSheet sheet ) {
+    for( final var rule : rules ) {
+      sheet.add( rule );
+    }
+
+    return sheet;
+  }
+
+  private static String hash( final byte[] content ) {
+    try {
+      final var digest = MessageDigest.getInstance( "SHA-256" ).digest( content );
+      final var hex = new StringBuilder( digest.length * 2 );
+
+      for( final var b : digest ) {
+        hex.append( Character.forDigit( (b >> 4) & 0xf, 16 ) )
+           .append( Character.forDigit( b & 0xf, 16 ) );
+      }
+
+      return hex.toString();
+    } catch( final NoSuchAlgorithmException e ) {
+      throw new IllegalStateException( e );
+    }
+  }
+
+  private static int getSize() {
+    try {
+      return Integer.parseInt( System.getProperty(
+          Constants.STYLESHEET_CACHE_SIZE_PROPERTY,
+          String.valueOf( DEFAULT_SIZE ) ) );
+    } catch( final NumberFormatException e ) {
+      return DEFAULT_SIZE;
+    }
+  }
+
+  private static Field findStylesField() {
+    try {
+      final var field = DOMAnalyzer.class.getDeclaredField( "styles" );
+      field.setAccessible( true );
+      return List.class.isAssignableFrom( field.getType() ) ? field : null;
+    } catch( final ReflectiveOperationException | RuntimeException e ) {
+      return null;
+    }
+  }
+}
@@ -20,11 +20,14 @@ package org.fit.cssbox.swingbox.util;
 
 import org.w3c.dom.Node;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
 /**
- * The Class Anchor. Provides info about hyperlinks.
+ * The Class Anchor. Provides info about hyperlinks. The anchors are immutable,
+ * a single anchor is shared by all the boxes of a link and the boxes that are
+ * not a part of any link share the {@link #INACTIVE} anchor.
  * 
  * @author Peter Bielik
  * @version 1.0
@@ -32,8 +35,11 @@ import java.util.Map;
  */
 public class Anchor
 {
+    /** The anchor of the content that is not a part of any link. */
+    public static final Anchor INACTIVE = new Anchor();
+
     // a helper object for hyperlinks
-    private boolean active;
+    private final boolean active;
     private final Map<String, String> properties;
 
     /**
@@ -47,18 +53,40 @@ public class Anchor
     public Anchor(boolean activity, Map<String, String> props)
     {
         this.active = activity;
-        properties = new HashMap<String, String>(props);
+        properties = Collections.unmodifiableMap(new HashMap<String, String>(props));
     }
 
     /**
-     * Instantiates a new anchor.
+     * Instantiates a new inactive anchor.
      */
     public Anchor()
     {
-        properties = new HashMap<String, String>();
+        properties = Collections.emptyMap();
         active = false;
     }
 
+    /**
+     * Creates the anchor of a link.
+     * 
+     * @param a
+     *            the "a" element of the link
+     * @return the active anchor with the properties of the link
+     */
+    public static Anchor forElement(org.w3c.dom.Element a)
+    {
+        Map<String, String> props = new HashMap<String, String>();
+        props.put(Constants.ELEMENT_A_ATTRIBUTE_HREF, a.getAttribute("href"));
+        props.put(Constants.ELEMENT_A_ATTRIBUTE_NAME, a.getAttribute("name"));
+        props.put(Constants.ELEMENT_A_ATTRIBUTE_TITLE, a.getAttribute("title"));
+        String target = a.getAttribute("target");
+        if ("".equals(target))
+        {
+            target = "_self";
+        }
+        props.put(Constants.ELEMENT_A_ATTRIBUTE_TARGET, target);
+        return new Anchor(true, props);
+    }
+
     /**
      * Checks if is active.
      * 
@@ -70,20 +98,28 @@ public class Anchor
     }
 
     /**
-     * Sets the activity.
-     * 
+     * Sets the activity. The anchors are shared by the boxes, so their
+     * activity cannot be changed any more; create a new anchor instead.
+     *
      * @param active
      *            if true, is a link
+     * @throws UnsupportedOperationException
+     *             when the activity would be changed
+     * @deprecated the anchors are immutable, use
+     *             {@link #Anchor(boolean, Map)} or {@link #forElement}
      */
+    @Deprecated
     public void setActive(boolean active)
     {
-        this.active = active;
+        if (active != this.active)
+            throw new UnsupportedOperationException("The anchors are immutable");
     }
 
     /**
-     * Gets the properties.
-     * 
-     * @return the properties
+     * Gets the properties. The anchors are shared by the boxes, so the
+     * returned map cannot be modified.
+     *
+     * @return the unmodifiable properties
      */
     public Map<String, String> getProperties()
     {
@@ -0,0 +1,289 @@
+/*
+ * (c) Peter Bielik and Radek Burget, 2011-2012
+ *
+ * SwingBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SwingBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with SwingBox. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.fit.cssbox.swingbox.util;
+
+import cz.vutbr.web.css.CSSProperty.TextDecoration;
+import org.fit.cssbox.layout.Box;
+import org.fit.cssbox.swingbox.SwingBoxDocument;
+
+import javax.swing.text.AttributeSet;
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The immutable attributes of an element created for a box. The attributes
+ * are stored in fixed fields instead of a hash table and the text style is
+ * shared among the text boxes that use the same font, color and decoration.
+ * The document uses the sets as they are, they are copied only when an
+ * element attribute is modified.
+ *
+ * @author Radek Burget
+ */
+public final class BoxAttributeSet implements AttributeSet
+{
+    private final Object name;
+    private final Box box;
+    private final Anchor anchor;
+    private final String id;
+    private final TextStyle style;
+    private final Object content;
+    /** the drawing order or -1 when not defined */
+    private final int order;
+
+    /**
+     * Creates the attributes of an element.
+     *
+     * @param name
+     *            the element name, one of the box names from {@link Constants}
+     * @param box
+     *            the box the element is created for
+     * @param anchor
+     *            the anchor of the element
+     * @param id
+     *            the value of the id attribute of the element or
+     *            <code>null</code> when not applicable
+     * @param style
+     *            the text style or <code>null</code> for the elements that are
+     *            not text
+     * @param content
+     *            the replaced content or <code>null</code> for the elements
+     *            that are not replaced
+     * @param order
+     *            the drawing order or -1 when not applicable
+     */
+    public BoxAttributeSet(Object name, Box box, Anchor anchor, String id,
+            TextStyle style, Object content, int order)
+    {
+        this.name = name;
+        this.box = box;
+        this.anchor = anchor;
+        this.id = id;
+        this.style = style;
+        this.content = content;
+        this.order = order;
+    }
+
+    @Override
+    public Object getAttribute(Object key)
+    {
+        if (key == SwingBoxDocument.ElementNameAttribute)
+            return name;
+        else if (key == Constants.ATTRIBUTE_BOX_REFERENCE)
+            return box;
+        else if (key == Constants.ATTRIBUTE_ANCHOR_REFERENCE)
+            return anchor;
+        else if (key == Constants.ATTRIBUTE_DRAWING_ORDER)
+            return (order < 0) ? null : Integer.valueOf(order);
+        else if (key == Constants.ATTRIBUTE_ELEMENT_ID)
+            return id;
+        else if (key == Constants.ATTRIBUTE_REPLACED_CONTENT)
+            return content;
+        else if (style != null)
+        {
+            if (key == Constants.ATTRIBUTE_FONT)
+                return style.font;
+            else if (key == Constants.ATTRIBUTE_FOREGROUND)
+                return style.color;
+            else if (key == Constants.ATTRIBUTE_FONT_VARIANT)
+                return style.fontVariant;
+            else if (key == Constants.ATTRIBUTE_TEXT_DECORATION)
+                return style.decoration;
+        }
+        // the keys are usually the constants but this is not guaranteed
+        if (key instanceof String)
+        {
+            for (Object n : names())
+                if (n.equals(key))
+                    return getAttribute(n);
+        }
+        return null;
+    }
+
+    @Override
+    public int getAttributeCount()
+    {
+        int ret = 0;
+        if (name != null) ret++;
+        if (box != null) ret++;
+        if (anchor != null) ret++;
+        if (order >= 0) ret++;
+        if (id != null) ret++;
+        if (content != null) ret++;
+        if (style != null)
+        {
+            if (style.font != null) ret++;
+            if (style.color != null) ret++;
+            if (style.fontVariant != null) ret++;
+            if (style.decoration != null) ret++;
+        }
+        return ret;
+    }
+
+    @Override
+    public boolean isDefined(Object attrName)
+    {
+        return getAttribute(attrName) != null;
+    }
+
+    @Override
+    public boolean isEqual(AttributeSet attr)
+    {
+        return getAttributeCount() == attr.getAttributeCount()
+                && containsAttributes(attr);
+    }
+
+    @Override
+    public AttributeSet copyAttributes()
+    {
+        return this;
+    }
+
+    @Override
+    public Enumeration<?> getAttributeNames()
+    {
+        return Collections.enumeration(names());
+    }
+
+    @Override
+    public boolean containsAttribute(Object name, Object value)
+    {
+        return value.equals(getAttribute(name));
+    }
+
+    @Override
+    public boolean containsAttributes(AttributeSet attrs)
+    {
+        Enumeration<?> names = attrs.getAttributeNames();
+        while (names.hasMoreElements())
+        {
+            Object n = names.nextElement();
+            if (!containsAttribute(n, attrs.getAttribute(n)))
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public AttributeSet getResolveParent()
+    {
+        return null;
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        return this == obj || (obj instanceof AttributeSet && isEqual((AttributeSet) obj));
+    }
+
+    @Override
+    public int hashCode()
+    {
+        // the same as for the other attribute sets based on hash tables
+        int ret = 0;
+        for (Object n : names())
+            ret += n.hashCode() ^ getAttribute(n).hashCode();
+        return ret;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder ret = new StringBuilder();
+        for (Object n : names())
+            ret.append(n).append('=').append(getAttribute(n)).append(' ');
+        return ret.toString();
+    }
+
+    private List<Object> names()
+    {
+        List<Object> ret = new ArrayList<>(8);
+        if (name != null) ret.add(SwingBoxDocument.ElementNameAttribute);
+        if (box != null) ret.add(Constants.ATTRIBUTE_BOX_REFERENCE);
+        if (anchor != null) ret.add(Constants.ATTRIBUTE_ANCHOR_REFERENCE);
+        if (order >= 0) ret.add(Constants.ATTRIBUTE_DRAWING_ORDER);
+        if (id != null) ret.add(Constants.ATTRIBUTE_ELEMENT_ID);
+        if (content != null) ret.add(Constants.ATTRIBUTE_REPLACED_CONTENT);
+        if (style != null)
+        {
+            if (style.font != null) ret.add(Constants.ATTRIBUTE_FONT);
+            if (style.color != null) ret.add(Constants.ATTRIBUTE_FOREGROUND);
+            if (style.fontVariant != null) ret.add(Constants.ATTRIBUTE_FONT_VARIANT);
+            if (style.decoration != null) ret.add(Constants.ATTRIBUTE_TEXT_DECORATION);
+        }
+        return ret;
+    }
+
+    //==================================================================================
+
+    /**
+     * The visual properties of a text. The equal styles should be shared by
+     * interning them, see {@link ContentReader}.
+     */
+    public static final class TextStyle
+    {
+        private final Font font;
+        private final Color color;
+        private final String fontVariant;
+        private final List<TextDecoration> decoration;
+        private final int hash;
+
+        /**
+         * Creates a text style.
+         *
+         * @param font
+         *            the font
+         * @param color
+         *            the foreground color
+         * @param fontVariant
+         *            the font variant
+         * @param decoration
+         *            the text decoration
+         */
+        public TextStyle(Font font, Color color, String fontVariant, List<TextDecoration> decoration)
+        {
+            this.font = font;
+            this.color = color;
+            this.fontVariant = fontVariant;
+            this.decoration = decoration;
+            hash = Objects.hash(font, color, fontVariant, decoration);
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (this == obj) return true;
+            if (!(obj instanceof TextStyle)) return false;
+            TextStyle other = (TextStyle) obj;
+            return hash == other.hash && Objects.equals(font, other.font)
+                    && Objects.equals(color, other.color)
+                    && Objects.equals(fontVariant, other.fontVariant)
+                    && Objects.equals(decoration, other.decoration);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+    }
+}
@@ -73,5 +73,28 @@ public interface CSSBoxAnalyzer
      * @return The document title or empty string if no title is defined.
      */
     String getDocumentTitle();
+
+    /**
+     * Obtains the cache of the layouts of the current document. The elements
+     * created from the cached layouts are stored in the cache as well.
+     * @return The layout cache or {@code null} when the layouts are not cached.
+     */
+    default LayoutCache getLayoutCache()
+    {
+        return null;
+    }
+
+    /**
+     * Creates a new analyzer with the same configuration as this one, used
+     * for analyzing another document. The new analyzer does not share the
+     * analyzed document nor its layouts with this one.
+     * @return The new analyzer or {@code null} when the analyzer cannot be
+     *         copied; a new instance of the default analyzer is used then.
+     * @see org.fit.cssbox.swingbox.SwingBoxEditorKit#getCSSBoxAnalyzer()
+     */
+    default CSSBoxAnalyzer newInstance()
+    {
+        return null;
+    }
     
 }
@@ -34,6 +34,23 @@ public final class Constants
     //used by environment - System.getProperty
     public static final String DOCUMENT_ASYNCHRONOUS_LOAD_PRIORITY_PROPERTY = "swingbox.document.async_load_priority";
     public static final String DEFAULT_ANALYZER_PROPERTY = "swingbox.default.analyzer";
+    public static final String TEXT_LAYOUT_CACHE_SIZE_PROPERTY = "swingbox.text_layout_cache.size";
+    public static final String LAYOUT_CACHE_SIZE_PROPERTY = "swingbox.layout_cache.size";
+    public static final String LAYOUT_CACHE_BUCKET_PROPERTY = "swingbox.layout_cache.bucket";
+    public static final String HTTP_MAX_CONNECTIONS_PROPERTY = "swingbox.http.max_connections";
+    public static final String HTTP_MAX_CONNECTIONS_PER_HOST_PROPERTY = "swingbox.http.max_connections_per_host";
+    public static final String HTTP_CACHE_ENTRIES_PROPERTY = "swingbox.http.cache_entries";
+    public static final String HTTP_CACHE_OBJECT_SIZE_PROPERTY = "swingbox.http.cache_object_size";
+    public static final String HTTP_CACHE_DIR_PROPERTY = "swingbox.http.cache_dir";
+    public static final String HTTP_CACHE_DIR_SIZE_PROPERTY = "swingbox.http.cache_dir_size";
+    public static final String STYLESHEET_CACHE_SIZE_PROPERTY = "swingbox.stylesheet_cache.size";
+    public static final String STYLESHEET_CACHE_INSTALL_PROPERTY = "swingbox.stylesheet_cache.install";
+    public static final String PREFETCH_THREADS_PROPERTY = "swingbox.prefetch.threads";
+    public static final String CSS_NETWORK_PROCESSOR_PROPERTY = "swingbox.css.network_processor";
+    public static final String DOM_SOURCE_PROPERTY = "swingbox.dom_source";
+    public static final String LOADER_THREADS_PROPERTY = "swingbox.loader.threads";
+    public static final String PRELOAD_CACHE_SIZE_PROPERTY = "swingbox.preload_cache.size";
+    public static final String HISTORY_CACHE_SIZE_PROPERTY = "swingbox.history_cache.size";
     public static final String PROPERTY_NOT_SET = "property_not_set";
 
     // Attributes used by AttributeSet in elements and later in views
@@ -21,13 +21,19 @@ package org.fit.cssbox.swingbox.util;
 import org.fit.cssbox.io.DocumentSource;
 import org.fit.cssbox.layout.*;
 import org.fit.cssbox.swingbox.SwingBoxDocument;
+import org.w3c.dom.Node;
 
+import javax.swing.text.AttributeSet;
 import javax.swing.text.DefaultStyledDocument.ElementSpec;
 import javax.swing.text.SimpleAttributeSet;
 import java.awt.*;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Vector;
 
 /**
@@ -44,6 +50,17 @@ public class ContentReader implements org.fit.cssbox.render.BoxRenderer
 
     /** Element counter for determining the drawing order */
     private int order;
+
+    /** The text styles used by the elements, for sharing the equal ones */
+    private Map<BoxAttributeSet.TextStyle, BoxAttributeSet.TextStyle> styles;
+
+    /** The anchors of the DOM elements, shared by all the boxes of a link */
+    private Map<org.w3c.dom.Element, Anchor> anchors;
+
+    /** The contents of the element tags, they are not modified by the document */
+    private static final char[] START_TAG = "{".toCharArray();
+    private static final char[] END_TAG = "}".toCharArray();
+    private static final char[] BACKGROUND = "*".toCharArray();
     
     /**
      * Instantiates a new content reader.
@@ -75,11 +92,17 @@ public class ContentReader implements org.fit.cssbox.render.BoxRenderer
         elements = new Vector<>();
         elements.add(new ElementSpec(SimpleAttributeSet.EMPTY, ElementSpec.EndTagType));
         order = 0;
+        styles = new HashMap<>();
+        anchors = new IdentityHashMap<>();
 
         Viewport vp;
         try
         {
             vp = cba.analyze(docSource, dim);
+        } catch (IOException e)
+        {
+            // including the cancellation of the load
+            throw e;
         } catch (Exception e)
         {
             throw new IOException(e);
@@ -87,6 +110,8 @@ public class ContentReader implements org.fit.cssbox.render.BoxRenderer
 
         //Use this for "drawing" the boxes. This constructs the element list.
         vp.draw(this);
+        PageLoader.endStage(LoadTimings.Stage.ELEMENTS);
+        storeElements(cba, vp);
 
         return elements;
     }
@@ -112,6 +137,8 @@ public class ContentReader implements org.fit.cssbox.render.BoxRenderer
         elements = new LinkedList<>();
         elements.add(new ElementSpec(SimpleAttributeSet.EMPTY, ElementSpec.EndTagType));
         order = 0;
+        styles = new HashMap<>();
+        anchors = new IdentityHashMap<>();
 
         Viewport vp;
         try
@@ -122,60 +149,74 @@ public class ContentReader implements org.fit.cssbox.render.BoxRenderer
             throw new IOException(e);
         }
 
+        // the layout may have been cached together with its elements
+        LayoutCache cache = cba.getLayoutCache();
+        ElementSpec[] cached = (cache == null) ? null : cache.getElements(vp);
+        if (cached != null)
+            return new LinkedList<>(Arrays.asList(cached));
+
         vp.draw(this);
+        storeElements(cba, vp);
         
         return elements;
     }
 
-    private SimpleAttributeSet buildElement(ElementBox box)
+    private void storeElements(CSSBoxAnalyzer cba, Viewport vp)
+    {
+        LayoutCache cache = cba.getLayoutCache();
+        if (cache != null)
+            cache.putElements(vp, elements.toArray(new ElementSpec[0]));
+    }
+
+    private Object getElementName(ElementBox box)
     {
         if (box instanceof InlineBox)
         {
-            return buildInlineBox((InlineBox) box);
+            return Constants.INLINE_BOX;
         }
         else if (box instanceof Viewport)
         { // -- the boxes
-            return buildViewport((Viewport) box);
+            return Constants.VIEWPORT;
         }
         else if (box instanceof TableBox)
         { // -- tables
-            return buildTableBox((TableBox) box);
+            return Constants.TABLE_BOX;
         }
         else if (box instanceof TableCaptionBox)
         {
-            return buildTableCaptionBox((TableCaptionBox) box);
+            return Constants.TABLE_CAPTION_BOX;
         }
         else if (box instanceof TableBodyBox)
         {
-            return buildTableBodyBox((TableBodyBox) box);
+            return Constants.TABLE_BODY_BOX;
         }
         else if (box instanceof TableRowBox)
         {
-            return buildTableRowBox((TableRowBox) box);
+            return Constants.TABLE_ROW_BOX;
         }
         else if (box instanceof TableCellBox)
         {
-            return buildTableCellBox((TableCellBox) box);
+            return Constants.TABLE_CELL_BOX;
         }
         else if (box instanceof TableColumnGroup)
         {
-            return buildTableColumnGroup((TableColumnGroup) box);
+            return Constants.TABLE_COLUMN_GROUP;
         }
         else if (box instanceof TableColumn)
         {
-            return buildTableColumn((TableColumn) box);
+            return Constants.TABLE_COLUMN;
         }
         else if (box instanceof BlockTableBox)
         {
-            return buildBlockTableBox((BlockTableBox) box);
+            return Constants.BLOCK_TABLE_BOX;
         }
         else if (box instanceof ListItemBox)
         {
-            return buildListItemBox((ListItemBox) box);
+            return Constants.LIST_ITEM_BOX;
         }
         else if (box instanceof BlockBox)
         {
-            return buildBlockBox((BlockBox) box);
+            return Constants.BLOCK_BOX;
         }
         else
         {
@@ -183,115 +224,65 @@ public class ContentReader implements org.fit.cssbox.render.BoxRenderer
         }
     }
 
-    private SimpleAttributeSet buildText(TextBox box)
-    {
-        VisualContext vc = box.getVisualContext();
-        SimpleAttributeSet attr = new SimpleAttributeSet();
-
-        attr.addAttribute(Constants.ATTRIBUTE_FONT_VARIANT, vc.getFontVariant());
-        attr.addAttribute(Constants.ATTRIBUTE_TEXT_DECORATION, vc.getTextDecoration());
-        attr.addAttribute(Constants.ATTRIBUTE_FONT, vc.getFont());
-        attr.addAttribute(Constants.ATTRIBUTE_FOREGROUND, vc.getColor());
-
-        attr.addAttribute(SwingBoxDocument.ElementNameAttribute, Constants.TEXT_BOX);
-        attr.addAttribute(Constants.ATTRIBUTE_ANCHOR_REFERENCE, new Anchor());
-        attr.addAttribute(Constants.ATTRIBUTE_BOX_REFERENCE, box);
-
-        return attr;
-    }
-
-    private SimpleAttributeSet buildReplacedBox(ReplacedBox box)
-    {
-        SimpleAttributeSet attr = new SimpleAttributeSet();
-        if (box instanceof BlockReplacedBox)
-            attr.addAttribute(SwingBoxDocument.ElementNameAttribute, Constants.BLOCK_REPLACED_BOX);
-        else if (box instanceof InlineBlockReplacedBox)
-            attr.addAttribute(SwingBoxDocument.ElementNameAttribute, Constants.INLINE_BLOCK_REPLACED_BOX);
-        else
-            attr.addAttribute(SwingBoxDocument.ElementNameAttribute, Constants.INLINE_REPLACED_BOX);
-        attr.addAttribute(Constants.ATTRIBUTE_BOX_REFERENCE, box);
-        attr.addAttribute(Constants.ATTRIBUTE_ANCHOR_REFERENCE, new Anchor());
-        attr.addAttribute(Constants.ATTRIBUTE_REPLACED_CONTENT, box.getContentObj());
-
-        return attr;
-    }
-
-    private SimpleAttributeSet buildElementBackground(ElementBox box)
-    {
-        return commonBuild(box, Constants.BACKGROUND);
-    }
-    
-    private SimpleAttributeSet buildBlockBox(BlockBox box)
-    {
-        return commonBuild(box, Constants.BLOCK_BOX);
-    }
-
-    private SimpleAttributeSet buildInlineBox(InlineBox box)
-    {
-        return commonBuild(box, Constants.INLINE_BOX);
-    }
-
-    private SimpleAttributeSet buildViewport(Viewport box)
-    {
-        return commonBuild(box, Constants.VIEWPORT);
-    }
-
-    private SimpleAttributeSet buildBlockTableBox(BlockTableBox box)
-    {
-        return commonBuild(box, Constants.BLOCK_TABLE_BOX);
-    }
-
-    private SimpleAttributeSet buildTableBox(TableBox box)
+    /**
+     * Finds the anchor of an element, i.e. of the enclosing "a" element. The
+     * anchors are remembered for all the elements examined, so that each
+     * element is examined only once during the reading.
+     */
+    private Anchor getAnchor(org.w3c.dom.Element e)
     {
-        return commonBuild(box, Constants.TABLE_BOX);
-    }
+        if (e == null)
+            return Anchor.INACTIVE;
 
-    private SimpleAttributeSet buildTableCaptionBox(TableCaptionBox box)
-    {
-        return commonBuild(box, Constants.TABLE_CAPTION_BOX);
+        Anchor ret = anchors.get(e);
+        if (ret == null)
+        {
+            if ("a".equalsIgnoreCase(e.getTagName().trim()))
+                ret = Anchor.forElement(e);
+            else if (e.getParentNode() != null && e.getParentNode().getNodeType() == Node.ELEMENT_NODE)
+                ret = getAnchor((org.w3c.dom.Element) e.getParentNode());
+            else
+                ret = Anchor.INACTIVE;
+            anchors.put(e, ret);
+        }
+        return ret;
     }
 
-    private SimpleAttributeSet buildTableBodyBox(TableBodyBox box)
+    private AttributeSet buildText(TextBox box)
     {
-        return commonBuild(box, Constants.TABLE_BODY_BOX);
-    }
+        VisualContext vc = box.getVisualContext();
+        BoxAttributeSet.TextStyle style = new BoxAttributeSet.TextStyle(vc.getFont(),
+                vc.getColor(), vc.getFontVariant(), vc.getTextDecoration());
+        BoxAttributeSet.TextStyle shared = styles.putIfAbsent(style, style);
 
-    private SimpleAttributeSet buildTableRowBox(TableRowBox box)
-    {
-        return commonBuild(box, Constants.TABLE_ROW_BOX);
-    }
+        Node parent = (box.getNode() == null) ? null : box.getNode().getParentNode();
+        Anchor anchor = (parent instanceof org.w3c.dom.Element)
+                ? getAnchor((org.w3c.dom.Element) parent) : Anchor.INACTIVE;
 
-    private SimpleAttributeSet buildTableCellBox(TableCellBox box)
-    {
-        return commonBuild(box, Constants.TABLE_CELL_BOX);
+        return new BoxAttributeSet(Constants.TEXT_BOX, box, anchor, null,
+                (shared == null) ? style : shared, null, order++);
     }
 
-    private SimpleAttributeSet buildTableColumn(TableColumn box)
+    private AttributeSet buildReplacedBox(ReplacedBox box)
     {
-        return commonBuild(box, Constants.TABLE_COLUMN);
-    }
+        Object name;
+        if (box instanceof BlockReplacedBox)
+            name = Constants.BLOCK_REPLACED_BOX;
+        else if (box instanceof InlineBlockReplacedBox)
+            name = Constants.INLINE_BLOCK_REPLACED_BOX;
+        else
+            name = Constants.INLINE_REPLACED_BOX;
 
-    private SimpleAttributeSet buildTableColumnGroup(TableColumnGroup box)
-    {
-        return commonBuild(box, Constants.TABLE_COLUMN_GROUP);
+        return new BoxAttributeSet(name, (Box) box, getAnchor(((ElementBox) box).getElement()), null, null,
+                box.getContentObj(), order++);
     }
 
-    private SimpleAttributeSet buildListItemBox(ListItemBox box)
-    {
-        return commonBuild(box, Constants.LIST_ITEM_BOX);
-    }
-    
-    private SimpleAttributeSet commonBuild( ElementBox box, Object elementNameValue)
+    private AttributeSet commonBuild(ElementBox box, Object elementNameValue)
     {
         // when there are no special requirements to build an element, use this
         // one
-        SimpleAttributeSet attr = new SimpleAttributeSet();
-        attr.addAttribute(SwingBoxDocument.ElementNameAttribute, elementNameValue);
-        attr.addAttribute(Constants.ATTRIBUTE_ANCHOR_REFERENCE, new Anchor());
-        attr.addAttribute(Constants.ATTRIBUTE_BOX_REFERENCE, box);
-        attr.addAttribute(Constants.ATTRIBUTE_ELEMENT_ID, box.getElement().getAttribute("id"));
-
-        return attr;
+        return new BoxAttributeSet(elementNameValue, box, getAnchor(box.getElement()),
+                box.getElement().getAttribute("id"), null, null, order++);
     }
 
     //======================================================================================================================
@@ -302,12 +293,11 @@ public class ContentReader implements org.fit.cssbox.render.BoxRenderer
     {
         if (!elem.isReplaced())
         {
-            SimpleAttributeSet attr = buildElement(elem);
+            Object name = getElementName(elem);
 
-            if(attr != null) {
-                attr.addAttribute( Constants.ATTRIBUTE_DRAWING_ORDER, order++ );
+            if(name != null) {
                 elements.add( new ElementSpec(
-                    attr, ElementSpec.StartTagType, "{".toCharArray(),1,0 ) );
+                    commonBuild(elem, name), ElementSpec.StartTagType, START_TAG,1,0 ) );
             }
         }
     }
@@ -315,19 +305,18 @@ public class ContentReader implements org.fit.cssbox.render.BoxRenderer
     @Override
     public void finishElementContents(ElementBox elem)
     {
-        if (!elem.isReplaced())
+        // the attributes of the end tags are not used by the document
+        if (!elem.isReplaced() && getElementName(elem) != null)
         {
-            SimpleAttributeSet attr = buildElement(elem);
-            elements.add(new ElementSpec(attr, ElementSpec.EndTagType, "}".toCharArray(), 1, 0));
+            elements.add(new ElementSpec(SimpleAttributeSet.EMPTY, ElementSpec.EndTagType, END_TAG, 1, 0));
         }
     }
 
     @Override
     public void renderElementBackground(ElementBox elem)
     {
-        SimpleAttributeSet attr = buildElementBackground(elem);
-        attr.addAttribute(Constants.ATTRIBUTE_DRAWING_ORDER, order++);
-        elements.add(new ElementSpec(attr, ElementSpec.ContentType, "*".toCharArray(), 0, 1));
+        AttributeSet attr = commonBuild(elem, Constants.BACKGROUND);
+        elements.add(new ElementSpec(attr, ElementSpec.ContentType, BACKGROUND, 0, 1));
     }
 
     @Override
@@ -340,8 +329,7 @@ public class ContentReader implements org.fit.cssbox.render.BoxRenderer
     public void renderTextContent(TextBox box)
     {
         String text = box.getText();
-        SimpleAttributeSet attr = buildText(box);
-        attr.addAttribute(Constants.ATTRIBUTE_DRAWING_ORDER, order++);
+        AttributeSet attr = buildText(box);
         elements.add(new ElementSpec(attr, ElementSpec.ContentType, text.toCharArray(), 0, text.length()));
     }
 
@@ -359,8 +347,7 @@ public class ContentReader implements org.fit.cssbox.render.BoxRenderer
         else
             text = "{object}";
 
-        SimpleAttributeSet attr = buildReplacedBox(box);
-        attr.addAttribute(Constants.ATTRIBUTE_DRAWING_ORDER, order++);
+        AttributeSet attr = buildReplacedBox(box);
         elements.add(new ElementSpec(attr, ElementSpec.ContentType, text.toCharArray(), 0, text.length()));
     }
 
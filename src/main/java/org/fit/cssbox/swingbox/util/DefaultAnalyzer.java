@@ -25,15 +25,24 @@ import org.fit.cssbox.io.DocumentSource;
 import org.fit.cssbox.layout.BrowserCanvas;
 import org.fit.cssbox.layout.Viewport;
 import org.fit.cssbox.swingbox.performance.FastBrowserConfig;
-import org.jsoup.Jsoup;
-import org.jsoup.helper.W3CDom;
+import org.fit.cssbox.swingbox.performance.ResourceLoader;
+import org.fit.cssbox.swingbox.performance.ResourcePrefetcher;
+import org.fit.cssbox.swingbox.performance.StyleSheetCache;
 
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.net.URL;
+import java.util.LinkedHashSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
 
 import static java.awt.image.BufferedImage.TYPE_INT_RGB;
-import static org.apache.commons.codec.CharEncoding.UTF_8;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.fit.cssbox.css.DOMAnalyzer.Origin.AGENT;
+import static org.fit.cssbox.swingbox.util.LoadTimings.Stage.LAYOUT;
+import static org.fit.cssbox.swingbox.util.LoadTimings.Stage.PARSE;
+import static org.fit.cssbox.swingbox.util.LoadTimings.Stage.STYLE;
 
 /**
  * This is customizable default implementation of CSSBoxAnalyzer.
@@ -43,49 +52,210 @@ import static org.fit.cssbox.css.DOMAnalyzer.Origin.AGENT;
  */
 @SuppressWarnings("unused")
 public class DefaultAnalyzer implements CSSBoxAnalyzer {
-  private final W3CDom mDom = new W3CDom();
-  private final FastBrowserConfig mBrowserConfig = new FastBrowserConfig();
+  /**
+   * The maximal time to wait for the prefetched style sheets, the remaining
+   * ones are loaded by the layout engine. The other resources are never
+   * waited for.
+   */
+  private static final long PREFETCH_TIMEOUT = 3;
+
+  static {
+    // the network processor of jStyleParser is shared by the whole process,
+    // it is only replaced on request
+    if( Boolean.getBoolean( Constants.CSS_NETWORK_PROCESSOR_PROPERTY ) ) {
+      ResourceLoader.installNetworkProcessor();
+    }
+
+    // the parsed style sheets of the documents are shared by all the
+    // documents on request only, the parser factory of jStyleParser is
+    // shared by the whole process as well; the user agent sheets are always
+    // taken from the cache, see addAgentStyleSheet
+    if( Boolean.getBoolean( Constants.STYLESHEET_CACHE_INSTALL_PROPERTY ) ) {
+      StyleSheetCache.install();
+    }
+  }
+
+  private final FastBrowserConfig mBrowserConfig;
 
   private org.w3c.dom.Document w3cdoc;
   private BrowserCanvas canvas;
+  private LayoutCache mLayoutCache = LayoutCache.fromProperties();
+  private ResourcePrefetcher mPrefetcher = ResourcePrefetcher.getDefault();
 
   public DefaultAnalyzer() {
+    mBrowserConfig = new FastBrowserConfig();
     mBrowserConfig.setLoadImages( true );
     mBrowserConfig.setLoadBackgroundImages( true );
   }
 
+  /**
+   * Creates an analyzer configured as another one. The configuration of the
+   * layout engine is copied, the prefetcher is shared and the layout cache
+   * is replaced by an empty one with the same limits.
+   *
+   * @param analyzer The analyzer whose configuration is copied.
+   */
+  protected DefaultAnalyzer( final DefaultAnalyzer analyzer ) {
+    mBrowserConfig = new FastBrowserConfig( analyzer.mBrowserConfig );
+    mPrefetcher = analyzer.mPrefetcher;
+
+    final var cache = analyzer.mLayoutCache;
+    mLayoutCache = cache == null ? null : new LayoutCache( cache );
+  }
+
+  /**
+   * Creates a copy of this analyzer by {@link #DefaultAnalyzer(DefaultAnalyzer)}.
+   * The subclasses should override this method, the instances of the
+   * subclasses that do not are not copied.
+   *
+   * @return The new analyzer or {@code null} for the subclasses.
+   */
+  @Override
+  public CSSBoxAnalyzer newInstance() {
+    return getClass() == DefaultAnalyzer.class ? new DefaultAnalyzer( this ) : null;
+  }
+
+  /**
+   * Enables caching of the layouts created for the individual viewport sizes.
+   * The cache is disabled by default unless the
+   * {@link Constants#LAYOUT_CACHE_SIZE_PROPERTY} system property is set.
+   *
+   * @param cache The cache to use or {@code null} for disabling the cache.
+   */
+  public void setLayoutCache( final LayoutCache cache ) {
+    mLayoutCache = cache;
+  }
+
+  @Override
+  public LayoutCache getLayoutCache() {
+    return mLayoutCache;
+  }
+
+  /**
+   * Sets the prefetcher that loads the style sheets and images of the
+   * analyzed documents in parallel. The shared prefetcher is used by default
+   * unless disabled by the {@link Constants#PREFETCH_THREADS_PROPERTY} system
+   * property.
+   *
+   * @param prefetcher The prefetcher to use or {@code null} for loading the
+   *                   resources sequentially by the layout engine.
+   */
+  public void setPrefetcher( final ResourcePrefetcher prefetcher ) {
+    mPrefetcher = prefetcher;
+  }
+
+  /**
+   * Returns the configuration of the layout engine. The HTML parser used for
+   * the documents may be replaced by registering another
+   * {@link org.fit.cssbox.io.DOMSource} implementation, e.g.
+   * {@code getBrowserConfig().registerDOMSource( DefaultDOMSource.class )}.
+   * The configuration is copied to the analyzers created by
+   * {@link #newInstance()}, i.e. to those of the documents read afterwards by
+   * the editor kit.
+   *
+   * @return The configuration used for the analyzed documents.
+   */
+  public FastBrowserConfig getBrowserConfig() {
+    return mBrowserConfig;
+  }
+
   @Override
   public Viewport analyze( final DocumentSource docSource, final Dimension dim )
       throws Exception {
     final var url = docSource.getURL();
-    final var uri = url.toURI();
 
-    final var document = Jsoup.parse(
-        docSource.getInputStream(), UTF_8, uri.toString() );
-    docSource.close();
+    try {
+      w3cdoc = mBrowserConfig.createDOMSource( docSource ).parse();
+    } finally {
+      docSource.close();
+    }
+    PageLoader.endStage( PARSE );
+
+    // fetch the style sheets and images in parallel, so that the sequential
+    // requests of the layout engine are served from the HTTP cache; the
+    // style sheets are only fetched and waited for when jStyleParser loads
+    // them through the cache, the images are fetched in background
+    final var prefetcher = mPrefetcher;
+    CompletableFuture<Void> prefetch = null;
+
+    if( prefetcher != null ) {
+      final var sheets = new LinkedHashSet<URL>();
+      final var others = new LinkedHashSet<URL>();
+      ResourcePrefetcher.scan( w3cdoc, url, sheets, others );
+
+      if( !ResourceLoader.isNetworkProcessorInstalled() ) {
+        // the style sheets would be downloaded again by jStyleParser
+        sheets.clear();
+      }
 
-    w3cdoc = mDom.fromJsoup( document );
+      prefetch = prefetcher.prefetch( sheets, others );
+    }
 
     // Create the CSS analyzer
     final var da = new DOMAnalyzer( w3cdoc, url );
     da.attributesToStyles();
-    da.addStyleSheet( null, CSSNorm.stdStyleSheet(), AGENT );
-    da.addStyleSheet( null, CSSNorm.userStyleSheet(), AGENT );
+    addAgentStyleSheet( da, CSSNorm.stdStyleSheet() );
+    addAgentStyleSheet( da, CSSNorm.userStyleSheet() );
+    await( prefetch );
+    PageLoader.checkCancelled();
     da.getStyleSheets();
+    PageLoader.endStage( STYLE );
 
     final var image = new BufferedImage( 1, 1, TYPE_INT_RGB );
     canvas = new BrowserCanvas( da.getRoot(), da, url );
     canvas.setConfig( mBrowserConfig );
     canvas.setImage( image );
     canvas.createLayout( dim );
+    PageLoader.endStage( LAYOUT );
+
+    final var cache = mLayoutCache;
+    if( cache != null ) {
+      cache.clear();
+      cache.putViewport( dim, canvas.getViewport() );
+    }
 
     return canvas.getViewport();
   }
 
+  /**
+   * Adds a user agent style sheet, which is parsed only once for the whole
+   * process.
+   */
+  private static void addAgentStyleSheet( final DOMAnalyzer da,
+                                          final String css ) {
+    if( !StyleSheetCache.getInstance().addStyleSheet( da, css, AGENT ) ) {
+      da.addStyleSheet( null, css, AGENT );
+    }
+  }
+
+  private static void await( final CompletableFuture<Void> prefetch ) {
+    if( prefetch != null ) {
+      try {
+        prefetch.get( PREFETCH_TIMEOUT, SECONDS );
+      } catch( final InterruptedException e ) {
+        Thread.currentThread().interrupt();
+      } catch( final ExecutionException | TimeoutException ignored ) {
+        // the remaining resources are loaded sequentially
+      }
+    }
+  }
+
   @Override
   public Viewport update( Dimension dim ) {
-    canvas.createLayout( dim );
-    return canvas.getViewport();
+    final var cache = mLayoutCache;
+    if( cache == null ) {
+      canvas.createLayout( dim );
+      return canvas.getViewport();
+    }
+
+    var viewport = cache.getViewport( dim );
+    if( viewport == null ) {
+      canvas.createLayout( dim );
+      viewport = canvas.getViewport();
+      cache.putViewport( dim, viewport );
+    }
+
+    return viewport;
   }
 
   @Override
@@ -0,0 +1,163 @@
+/*
+ * (c) Peter Bielik and Radek Burget, 2011-2012
+ *
+ * SwingBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SwingBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with SwingBox. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.fit.cssbox.swingbox.util;
+
+import org.fit.cssbox.swingbox.SwingBoxDocument;
+
+import java.awt.*;
+import java.lang.ref.SoftReference;
+import java.net.URL;
+
+/**
+ * A bounded LRU cache of the documents displayed recently, used for going
+ * back and forward in the navigation history without loading the pages
+ * again. The documents keep their analyzers and thus their layouts; they are
+ * referenced softly, so that they may be reclaimed when the memory is low.
+ * The pages are keyed by their URLs without the fragment.
+ *
+ * @author Radek Burget
+ */
+public class HistoryCache extends PageCache<SoftReference<HistoryCache.Page>>
+{
+    private static final int DEFAULT_SIZE = 5;
+
+    /**
+     * Creates a new cache.
+     *
+     * @param maxEntries
+     *            maximal number of the documents kept
+     */
+    public HistoryCache(final int maxEntries)
+    {
+        super(maxEntries);
+    }
+
+    /**
+     * Creates a cache of the size given by the
+     * {@link Constants#HISTORY_CACHE_SIZE_PROPERTY} system property.
+     *
+     * @return the new cache or <code>null</code> when the size is not positive
+     */
+    public static HistoryCache fromProperties()
+    {
+        int size = getSizeProperty(Constants.HISTORY_CACHE_SIZE_PROPERTY, DEFAULT_SIZE);
+        return (size > 0) ? new HistoryCache(size) : null;
+    }
+
+    /**
+     * Stores a document that is not displayed any more.
+     *
+     * @param page
+     *            the URL of the document
+     * @param entry
+     *            the document and its state
+     */
+    public synchronized void put(URL page, Page entry)
+    {
+        entries.put(key(page), new SoftReference<>(entry));
+    }
+
+    /**
+     * Removes the document from the cache in order to display it again.
+     *
+     * @param page
+     *            the URL of the document
+     * @return the document or <code>null</code> when it is not in the cache
+     *         or it has been reclaimed
+     */
+    public synchronized Page take(URL page)
+    {
+        SoftReference<Page> ref = entries.remove(key(page));
+        return (ref == null) ? null : ref.get();
+    }
+
+    /**
+     * A document that has been displayed, together with the state of the
+     * component that displayed it.
+     */
+    public static class Page
+    {
+        private final SwingBoxDocument document;
+        private final String contentType;
+        private final Dimension size;
+        private final Rectangle visibleRect;
+
+        /**
+         * Creates an entry.
+         *
+         * @param document
+         *            the document, owning its analyzer
+         * @param contentType
+         *            the content type of the document
+         * @param size
+         *            the size the document has been laid out for
+         * @param visibleRect
+         *            the visible part of the document
+         */
+        public Page(SwingBoxDocument document, String contentType, Dimension size,
+                Rectangle visibleRect)
+        {
+            this.document = document;
+            this.contentType = contentType;
+            this.size = new Dimension(size);
+            this.visibleRect = new Rectangle(visibleRect);
+        }
+
+        /**
+         * Obtains the document of the page.
+         *
+         * @return the document, owning its analyzer
+         */
+        public SwingBoxDocument getDocument()
+        {
+            return document;
+        }
+
+        /**
+         * Obtains the content type of the document.
+         *
+         * @return the content type
+         */
+        public String getContentType()
+        {
+            return contentType;
+        }
+
+        /**
+         * Obtains the size the document has been laid out for.
+         *
+         * @return a copy of the size
+         */
+        public Dimension getSize()
+        {
+            return new Dimension(size);
+        }
+
+        /**
+         * Obtains the part of the document that was visible when the page
+         * was left.
+         *
+         * @return a copy of the visible rectangle
+         */
+        public Rectangle getVisibleRect()
+        {
+            return new Rectangle(visibleRect);
+        }
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * (c) Peter Bielik and Radek Burget, 2011-2012
+ *
+ * SwingBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SwingBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with SwingBox. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.fit.cssbox.swingbox.util;
+
+import org.fit.cssbox.layout.Viewport;
+
+import javax.swing.text.DefaultStyledDocument.ElementSpec;
+import java.awt.*;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded LRU cache of the layouts of a single document. The layouts are
+ * stored for the viewport sizes rounded to buckets of the given size, so that
+ * returning to a previously used size takes a lookup only. Each layout may
+ * hold the elements created from it by the {@link ContentReader}.
+ * <p>
+ * The cache is used by {@link DefaultAnalyzer} when enabled and it is cleared
+ * whenever a new document is analyzed.
+ *
+ * @author Radek Burget
+ */
+public class LayoutCache
+{
+    private static final int DEFAULT_BUCKET_SIZE = 8;
+
+    private final int maxEntries;
+    private final int bucketSize;
+    private final Map<Long, Layout> entries;
+
+    /**
+     * Creates a new cache.
+     *
+     * @param maxEntries
+     *            maximal number of the layouts kept
+     * @param bucketSize
+     *            the size of the viewport size buckets in pixels; the layouts
+     *            created for the sizes within the same bucket are considered
+     *            equal
+     */
+    public LayoutCache(final int maxEntries, int bucketSize)
+    {
+        if (maxEntries < 1 || bucketSize < 1)
+            throw new IllegalArgumentException("The number of entries and the bucket size must be positive");
+
+        this.maxEntries = maxEntries;
+        this.bucketSize = bucketSize;
+        entries = new LinkedHashMap<Long, Layout>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Layout> eldest)
+            {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Creates an empty cache with the same limits as another cache.
+     *
+     * @param cache
+     *            the cache whose limits are used
+     */
+    public LayoutCache(LayoutCache cache)
+    {
+        this(cache.maxEntries, cache.bucketSize);
+    }
+
+    /**
+     * Creates a cache configured by the {@link Constants#LAYOUT_CACHE_SIZE_PROPERTY}
+     * and {@link Constants#LAYOUT_CACHE_BUCKET_PROPERTY} system properties.
+     *
+     * @return the new cache or <code>null</code> when the cache size is not set
+     *         or it is not positive
+     */
+    public static LayoutCache fromProperties()
+    {
+        int size = getIntProperty(Constants.LAYOUT_CACHE_SIZE_PROPERTY, 0);
+        int bucket = getIntProperty(Constants.LAYOUT_CACHE_BUCKET_PROPERTY, DEFAULT_BUCKET_SIZE);
+        if (size > 0)
+            return new LayoutCache(size, Math.max(1, bucket));
+        else
+            return null;
+    }
+
+    /**
+     * Gets the size of the viewport size buckets.
+     *
+     * @return the bucket size in pixels
+     */
+    public int getBucketSize()
+    {
+        return bucketSize;
+    }
+
+    /**
+     * Finds the layout created for the given viewport size.
+     *
+     * @param dim
+     *            the viewport size
+     * @return the viewport of the layout or <code>null</code> when there is no
+     *         layout for the size bucket
+     */
+    public synchronized Viewport getViewport(Dimension dim)
+    {
+        Layout entry = entries.get(key(dim));
+        return (entry == null) ? null : entry.viewport;
+    }
+
+    /**
+     * Stores a layout created for the given viewport size.
+     *
+     * @param dim
+     *            the viewport size
+     * @param viewport
+     *            the viewport of the layout
+     */
+    public synchronized void putViewport(Dimension dim, Viewport viewport)
+    {
+        entries.put(key(dim), new Layout(viewport));
+    }
+
+    /**
+     * Obtains the elements created from a cached layout.
+     *
+     * @param viewport
+     *            the viewport of the layout
+     * @return the elements or <code>null</code> when the layout is not cached
+     *         or the elements have not been stored yet
+     */
+    public synchronized ElementSpec[] getElements(Viewport viewport)
+    {
+        for (Layout entry : entries.values())
+        {
+            if (entry.viewport == viewport)
+                return entry.elements;
+        }
+        return null;
+    }
+
+    /**
+     * Stores the elements created from a cached layout. Nothing is stored
+     * when the layout is not cached.
+     *
+     * @param viewport
+     *            the viewport of the layout
+     * @param elements
+     *            the elements created from the layout
+     */
+    public synchronized void putElements(Viewport viewport, ElementSpec[] elements)
+    {
+        for (Layout entry : entries.values())
+        {
+            if (entry.viewport == viewport)
+                entry.elements = elements;
+        }
+    }
+
+    /**
+     * Removes all the cached layouts.
+     */
+    public synchronized void clear()
+    {
+        entries.clear();
+    }
+
+    /**
+     * Obtains the number of the cached layouts.
+     *
+     * @return the number of entries
+     */
+    public synchronized int size()
+    {
+        return entries.size();
+    }
+
+    //==================================================================================
+
+    private long key(Dimension dim)
+    {
+        long w = dim.width / bucketSize;
+        long h = dim.height / bucketSize;
+        return (w << 32) | (h & 0xffffffffL);
+    }
+
+    private static int getIntProperty(String name, int def)
+    {
+        try
+        {
+            return Integer.parseInt(System.getProperty(name, String.valueOf(def)));
+        } catch (NumberFormatException e)
+        {
+            return def;
+        }
+    }
+
+    private static class Layout
+    {
+        public final Viewport viewport;
+        public ElementSpec[] elements;
+
+        public Layout(Viewport viewport)
+        {
+            this.viewport = viewport;
+        }
+    }
+
+}
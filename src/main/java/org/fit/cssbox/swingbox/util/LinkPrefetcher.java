@@ -0,0 +1,296 @@
+/*
+ * (c) Peter Bielik and Radek Burget, 2011-2012
+ *
+ * SwingBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SwingBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with SwingBox. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.fit.cssbox.swingbox.util;
+
+import org.apache.http.entity.ContentType;
+import org.apache.http.util.EntityUtils;
+import org.fit.cssbox.io.StreamDocumentSource;
+import org.fit.cssbox.swingbox.BrowserPane;
+import org.fit.cssbox.swingbox.performance.JsoupDOMSource;
+import org.fit.cssbox.swingbox.performance.ResourceLoader;
+import org.fit.cssbox.swingbox.performance.ResourcePrefetcher;
+
+import javax.swing.*;
+import javax.swing.event.HyperlinkEvent;
+import javax.swing.event.HyperlinkListener;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Prefetches the target of a link while the mouse pointer rests over it, so
+ * that the page is ready or nearly ready when the link is clicked. The
+ * prefetching starts when the pointer has stayed over the link for the given
+ * dwell time after the {@link HyperlinkEvent.EventType#ENTERED} event; a
+ * prefetch that has not started yet is cancelled when the pointer leaves the
+ * link.
+ * <p>
+ * In the {@link Mode#FETCH} mode, the HTML pages are fetched into the HTTP
+ * cache of the shared {@link ResourceLoader}, which serves them when the
+ * links are followed by the {@link BrowserPane}, and the style sheets and
+ * images they reference are prefetched. In the {@link Mode#PRELOAD} mode, the pages
+ * are completely prepared by {@link BrowserPane#preload(URL, java.util.concurrent.Executor)}
+ * for the size of the component when the dwell time elapses. The number of
+ * the concurrent prefetches is limited and they run on threads of a low
+ * priority, apart from the threads loading the pages on navigation.
+ * <p>
+ * The prefetching is not enabled by default, it has to be installed to a
+ * component by {@link #install()}.
+ *
+ * @author Radek Burget
+ */
+public class LinkPrefetcher implements HyperlinkListener
+{
+    /** the default time the pointer must stay over a link in milliseconds */
+    public static final int DEFAULT_DWELL_TIME = 150;
+    /** the default number of the concurrent prefetches */
+    public static final int DEFAULT_CONCURRENCY = 2;
+
+    private static final int RECENT_SIZE = 64;
+
+    /**
+     * What is done with the target of a link.
+     */
+    public enum Mode
+    {
+        /** fetches the page and its resources into the HTTP cache */
+        FETCH,
+        /** fetches, parses, analyzes and lays out the page */
+        PRELOAD
+    }
+
+    private final BrowserPane pane;
+    private final Mode mode;
+    private final ThreadPoolExecutor executor;
+    private final Timer timer;
+    /** the URLs fetched recently in the FETCH mode */
+    private final Map<String, Boolean> recent;
+
+    /** the link under the pointer, accessed on the event dispatch thread only */
+    private URL hovered;
+    /** the prefetch of the hovered link */
+    private Future<?> pending;
+    private String pendingKey;
+    /** the hovered link whose preparation has been queued in the PRELOAD mode */
+    private URL pendingPreload;
+
+    /**
+     * Creates a prefetcher in the {@link Mode#FETCH} mode with the default
+     * dwell time and concurrency.
+     *
+     * @param pane
+     *            the component whose links are prefetched
+     */
+    public LinkPrefetcher(BrowserPane pane)
+    {
+        this(pane, Mode.FETCH, DEFAULT_DWELL_TIME, DEFAULT_CONCURRENCY);
+    }
+
+    /**
+     * Creates a prefetcher.
+     *
+     * @param pane
+     *            the component whose links are prefetched
+     * @param mode
+     *            what is done with the target of a link
+     * @param dwellTime
+     *            the time the pointer must stay over a link in milliseconds
+     * @param maxConcurrent
+     *            maximal number of the concurrent prefetches
+     */
+    public LinkPrefetcher(BrowserPane pane, Mode mode, int dwellTime, int maxConcurrent)
+    {
+        if (maxConcurrent < 1)
+            throw new IllegalArgumentException("The number of the concurrent prefetches must be positive");
+
+        this.pane = pane;
+        this.mode = mode;
+
+        AtomicInteger count = new AtomicInteger();
+        executor = new ThreadPoolExecutor(maxConcurrent, maxConcurrent,
+                30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, "swingbox-link-prefetch-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    t.setPriority(Thread.MIN_PRIORITY);
+                    return t;
+                });
+        executor.allowCoreThreadTimeOut(true);
+
+        timer = new Timer(Math.max(0, dwellTime), e -> dwellElapsed());
+        timer.setRepeats(false);
+
+        recent = new LinkedHashMap<String, Boolean>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest)
+            {
+                return size() > RECENT_SIZE;
+            }
+        };
+    }
+
+    /**
+     * Starts prefetching the links of the component.
+     */
+    public void install()
+    {
+        pane.addHyperlinkListener(this);
+    }
+
+    /**
+     * Stops prefetching the links of the component. The prefetches that have
+     * started already are finished.
+     */
+    public void uninstall()
+    {
+        pane.removeHyperlinkListener(this);
+        timer.stop();
+        hovered = null;
+        cancelPending();
+    }
+
+    @Override
+    public void hyperlinkUpdate(HyperlinkEvent evt)
+    {
+        if (evt.getEventType() == HyperlinkEvent.EventType.ENTERED)
+        {
+            cancelPending();
+            hovered = evt.getURL();
+            if (hovered != null && isPrefetchable(hovered))
+                timer.restart();
+            else
+                timer.stop();
+        }
+        else if (evt.getEventType() == HyperlinkEvent.EventType.EXITED)
+        {
+            timer.stop();
+            hovered = null;
+            cancelPending();
+        }
+        else if (evt.getEventType() == HyperlinkEvent.EventType.ACTIVATED)
+        {
+            // the prefetch in progress, if any, is used by the navigation
+            timer.stop();
+            hovered = null;
+            pending = null;
+            pendingPreload = null;
+        }
+    }
+
+    /**
+     * Checks whether the target of a link should be prefetched. The links
+     * within the current page are skipped, as well as the URLs that cannot be
+     * fetched into the HTTP cache in the {@link Mode#FETCH} mode.
+     *
+     * @param url
+     *            the target of the link
+     * @return <code>true</code> when the target should be prefetched
+     */
+    protected boolean isPrefetchable(URL url)
+    {
+        URL page = pane.getPage();
+        if (page != null && page.sameFile(url))
+            return false;
+        return mode == Mode.PRELOAD || ResourceLoader.isSupported(url);
+    }
+
+    private void dwellElapsed()
+    {
+        final URL url = hovered;
+        if (url == null)
+            return;
+
+        if (mode == Mode.FETCH)
+        {
+            final String key = url.toExternalForm();
+            synchronized (recent)
+            {
+                if (recent.put(key, Boolean.TRUE) != null)
+                    return;
+            }
+            pendingKey = key;
+            pending = executor.submit(() -> fetch(url));
+        }
+        else
+        {
+            // on the event dispatch thread, so that the size of the component
+            // is read safely; the executor is only used for a new preparation
+            pane.preload(url, task -> {
+                pendingPreload = url;
+                executor.execute(task);
+            });
+        }
+    }
+
+    private void cancelPending()
+    {
+        if (pending != null && pending.cancel(false) && pendingKey != null)
+        {
+            // not started, it may be prefetched later
+            synchronized (recent)
+            {
+                recent.remove(pendingKey);
+            }
+        }
+        pending = null;
+        pendingKey = null;
+
+        if (pendingPreload != null)
+        {
+            // the preparations that have started already are finished
+            pane.cancelPreload(pendingPreload);
+            pendingPreload = null;
+        }
+    }
+
+    /**
+     * Fetches the page into the HTTP cache and prefetches the style sheets
+     * and images referenced by an HTML page.
+     */
+    private void fetch(URL url)
+    {
+        try (var response = ResourceLoader.getDefault().fetch(url))
+        {
+            byte[] content = EntityUtils.toByteArray(response.getEntity());
+            ContentType type = ContentType.get(response.getEntity());
+            ResourcePrefetcher prefetcher = ResourcePrefetcher.getDefault();
+
+            if (prefetcher != null && type != null
+                    && "text/html".equalsIgnoreCase(type.getMimeType()))
+            {
+                StreamDocumentSource src = new StreamDocumentSource(
+                        new ByteArrayInputStream(content), url, type.toString());
+                org.w3c.dom.Document doc = new JsoupDOMSource(src).parse();
+                prefetcher.prefetch(ResourcePrefetcher.scan(doc, url)).join();
+            }
+        } catch (IOException | RuntimeException ignored)
+        {
+            // the page will be loaded on navigation
+        }
+    }
+}
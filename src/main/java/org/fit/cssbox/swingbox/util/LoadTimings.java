@@ -0,0 +1,131 @@
+/*
+ * (c) Peter Bielik and Radek Burget, 2011-2012
+ *
+ * SwingBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SwingBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with SwingBox. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.fit.cssbox.swingbox.util;
+
+import java.net.URL;
+import java.time.Duration;
+
+/**
+ * The time spent in the individual stages of a page load. Each stage lasts
+ * from the end of the previous stage to the call of
+ * {@link #endStage(Stage)}; the stages that have not been reached take no
+ * time.
+ *
+ * @author Radek Burget
+ */
+public class LoadTimings
+{
+    /**
+     * The stages of a page load, in the order of processing.
+     */
+    public enum Stage
+    {
+        /** waiting for a loader thread */
+        QUEUED,
+        /** connecting and receiving the response headers */
+        FETCH,
+        /** reading and parsing the document */
+        PARSE,
+        /** loading the style sheets and computing the styles */
+        STYLE,
+        /** laying out the boxes */
+        LAYOUT,
+        /** creating the elements from the boxes */
+        ELEMENTS,
+        /** filling the Swing document */
+        DOCUMENT,
+        /** replacing the document of the component and creating the views */
+        DISPLAY
+    }
+
+    private final URL page;
+    private final long[] durations = new long[Stage.values().length];
+    private final long start;
+    private long last;
+
+    /**
+     * Starts measuring a page load.
+     *
+     * @param page
+     *            the loaded page
+     */
+    public LoadTimings(URL page)
+    {
+        this.page = page;
+        start = last = System.nanoTime();
+    }
+
+    /**
+     * Gets the loaded page.
+     *
+     * @return the URL of the page
+     */
+    public URL getPage()
+    {
+        return page;
+    }
+
+    /**
+     * Ends the given stage now.
+     *
+     * @param stage
+     *            the stage that has been finished
+     */
+    public synchronized void endStage(Stage stage)
+    {
+        long now = System.nanoTime();
+        durations[stage.ordinal()] += now - last;
+        last = now;
+    }
+
+    /**
+     * Gets the time spent in the given stage.
+     *
+     * @param stage
+     *            the stage
+     * @return the duration of the stage
+     */
+    public synchronized Duration getDuration(Stage stage)
+    {
+        return Duration.ofNanos(durations[stage.ordinal()]);
+    }
+
+    /**
+     * Gets the time from the start of the load to the end of the last stage.
+     *
+     * @return the duration of the load
+     */
+    public synchronized Duration getTotal()
+    {
+        return Duration.ofNanos(last - start);
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        StringBuilder ret = new StringBuilder().append(page).append(':');
+        for (Stage stage : Stage.values())
+        {
+            ret.append(' ').append(stage.name().toLowerCase()).append(' ')
+                    .append(durations[stage.ordinal()] / 1000000).append(" ms");
+        }
+        return ret.append(", total ").append((last - start) / 1000000)
+                .append(" ms").toString();
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * (c) Peter Bielik and Radek Burget, 2011-2012
+ *
+ * SwingBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SwingBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with SwingBox. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.fit.cssbox.swingbox.util;
+
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The base of the bounded LRU caches of pages. The pages are keyed by their
+ * URLs without the fragment, so that the same page is found when navigating
+ * to different anchors of it.
+ *
+ * @author Radek Burget
+ * @param <V>
+ *            the type of the cached values
+ */
+public abstract class PageCache<V>
+{
+    /** the cached values, synchronized on this cache */
+    protected final Map<String, V> entries;
+
+    /**
+     * Creates a new cache.
+     *
+     * @param maxEntries
+     *            maximal number of the pages kept
+     */
+    protected PageCache(final int maxEntries)
+    {
+        if (maxEntries < 1)
+            throw new IllegalArgumentException("The number of entries must be positive");
+
+        entries = new LinkedHashMap<String, V>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> eldest)
+            {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Removes all the pages.
+     */
+    public synchronized void clear()
+    {
+        entries.clear();
+    }
+
+    /**
+     * Obtains the number of the cached pages.
+     *
+     * @return the number of entries
+     */
+    public synchronized int size()
+    {
+        return entries.size();
+    }
+
+    //==================================================================================
+
+    /**
+     * Obtains the key of a page, that is its URL without the fragment.
+     *
+     * @param page
+     *            the URL of the page
+     * @return the key
+     */
+    protected static String key(URL page)
+    {
+        String ret = page.toExternalForm();
+        int hash = ret.indexOf('#');
+        return (hash == -1) ? ret : ret.substring(0, hash);
+    }
+
+    /**
+     * Reads the size of a cache from a system property.
+     *
+     * @param name
+     *            the property name
+     * @param def
+     *            the default size used when the property is not set or it is
+     *            not a number
+     * @return the size, possibly not positive
+     */
+    protected static int getSizeProperty(String name, int def)
+    {
+        try
+        {
+            return Integer.parseInt(System.getProperty(name, String.valueOf(def)));
+        } catch (NumberFormatException e)
+        {
+            return def;
+        }
+    }
+}
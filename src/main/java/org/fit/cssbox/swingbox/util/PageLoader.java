@@ -0,0 +1,403 @@
+/*
+ * (c) Peter Bielik and Radek Burget, 2011-2012
+ *
+ * SwingBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SwingBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with SwingBox. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.fit.cssbox.swingbox.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.fit.cssbox.swingbox.util.LoadTimings.Stage;
+
+/**
+ * Runs the page loads of a single component. Every navigation obtains a new
+ * generation number; starting a navigation cancels the previous one, so that
+ * at most one load of the component is in progress and the results of the
+ * older loads are discarded.
+ * <p>
+ * The cancellation is cooperative: the running load is interrupted, its
+ * input stream is closed and the load stops at the next call of
+ * {@link #checkCancelled()}, which is made between the stages of the
+ * processing (fetching, parsing, styling, layout and creating the elements).
+ * <p>
+ * The time spent in the stages is recorded by {@link #endStage(Stage)} in
+ * the {@link LoadTimings} of the load, if any.
+ * <p>
+ * The asynchronous loads of all the components share an executor with a
+ * bounded number of threads given by the
+ * {@link Constants#LOADER_THREADS_PROPERTY} system property. Any other
+ * executor may be used instead, e.g. one that creates a virtual thread per
+ * task where available.
+ *
+ * @author Radek Burget
+ */
+public class PageLoader
+{
+    private static final int DEFAULT_THREADS = 2;
+
+    /** the load running in the current thread, if any */
+    private static final ThreadLocal<Load> currentLoad = new ThreadLocal<>();
+
+    private static ExecutorService defaultExecutor;
+
+    private final ExecutorService executor;
+    private final AtomicInteger generation = new AtomicInteger();
+    /** the running asynchronous load */
+    private Future<?> running;
+    /** the input of the current load */
+    private Closeable input;
+    /** the result of the current navigation, completed by its caller */
+    private CompletableFuture<?> result;
+
+    /**
+     * Creates a loader that uses the shared executor.
+     */
+    public PageLoader()
+    {
+        this(getDefaultExecutor());
+    }
+
+    /**
+     * Creates a loader.
+     *
+     * @param executor
+     *            the executor that runs the asynchronous loads
+     */
+    public PageLoader(ExecutorService executor)
+    {
+        this.executor = executor;
+    }
+
+    /**
+     * Obtains the executor shared by the loaders of all the components.
+     *
+     * @return the shared executor
+     */
+    public static synchronized ExecutorService getDefaultExecutor()
+    {
+        if (defaultExecutor == null)
+        {
+            int threads = DEFAULT_THREADS;
+            try
+            {
+                threads = Math.max(1, Integer.parseInt(System.getProperty(
+                        Constants.LOADER_THREADS_PROPERTY, String.valueOf(DEFAULT_THREADS))));
+            } catch (NumberFormatException ignored)
+            {
+            }
+
+            AtomicInteger count = new AtomicInteger();
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads,
+                    30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+                        Thread t = new Thread(r, "swingbox-loader-" + count.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    });
+            pool.allowCoreThreadTimeOut(true);
+            defaultExecutor = pool;
+        }
+        return defaultExecutor;
+    }
+
+    /**
+     * Starts a new navigation. The load in progress, if any, is cancelled.
+     *
+     * @return the generation of the new navigation
+     */
+    public int begin()
+    {
+        return begin(null);
+    }
+
+    /**
+     * Starts a new navigation whose outcome is reported by the given future.
+     * The load in progress, if any, is cancelled together with its future.
+     *
+     * @param future
+     *            the result of the navigation or <code>null</code>
+     * @return the generation of the new navigation
+     */
+    public int begin(CompletableFuture<?> future)
+    {
+        CompletableFuture<?> previous;
+        int gen;
+        synchronized (this)
+        {
+            cancelRunning();
+            previous = result;
+            result = future;
+            gen = generation.incrementAndGet();
+        }
+        // the dependent actions of the future must not run under the lock
+        if (previous != null)
+            previous.cancel(false);
+        return gen;
+    }
+
+    /**
+     * Cancels the load in progress without starting a new one.
+     */
+    public void cancel()
+    {
+        CompletableFuture<?> previous;
+        synchronized (this)
+        {
+            cancelRunning();
+            previous = result;
+            result = null;
+            generation.incrementAndGet();
+        }
+        if (previous != null)
+            previous.cancel(false);
+    }
+
+    /**
+     * Cancels the given navigation unless a newer one has been started.
+     *
+     * @param gen
+     *            the generation of the navigation
+     */
+    public void cancel(int gen)
+    {
+        synchronized (this)
+        {
+            if (!isCurrent(gen))
+                return;
+        }
+        cancel();
+    }
+
+    /**
+     * Checks whether the given navigation is the latest one.
+     *
+     * @param gen
+     *            the generation obtained from {@link #begin()}
+     * @return <code>true</code> when no newer navigation has been started
+     */
+    public boolean isCurrent(int gen)
+    {
+        return generation.get() == gen;
+    }
+
+    /**
+     * Registers the input of the given navigation, it is closed when the
+     * navigation is cancelled. The input of an outdated navigation is closed
+     * immediately.
+     *
+     * @param gen
+     *            the generation of the navigation
+     * @param in
+     *            the input to be closed on cancellation
+     */
+    public synchronized void setInput(int gen, Closeable in)
+    {
+        if (isCurrent(gen))
+            input = in;
+        else
+            closeQuietly(in);
+    }
+
+    /**
+     * Runs the load in the current thread.
+     *
+     * @param gen
+     *            the generation of the navigation
+     * @param timings
+     *            the timings of the load or <code>null</code>
+     * @param task
+     *            the load
+     */
+    public void run(int gen, LoadTimings timings, Runnable task)
+    {
+        Load previous = currentLoad.get();
+        currentLoad.set(new Load(this, gen, timings));
+        try
+        {
+            task.run();
+        } finally
+        {
+            currentLoad.set(previous);
+            finished(gen);
+        }
+    }
+
+    /**
+     * Runs a task that is not a navigation, e.g. preparing a page in advance,
+     * in the current thread. The stages of the task are recorded in the given
+     * timings. The task is not cancelled by any loader, it only stops when its
+     * thread is interrupted.
+     *
+     * @param timings
+     *            the timings of the task
+     * @param task
+     *            the task
+     * @return the result of the task
+     * @throws Exception
+     *             the exception thrown by the task
+     */
+    public static <T> T measure(LoadTimings timings, Callable<T> task) throws Exception
+    {
+        Load previous = currentLoad.get();
+        currentLoad.set(new Load(null, 0, timings));
+        try
+        {
+            return task.call();
+        } finally
+        {
+            currentLoad.set(previous);
+        }
+    }
+
+    /**
+     * Runs the load asynchronously. The task is skipped when the navigation
+     * is outdated before the task starts.
+     *
+     * @param gen
+     *            the generation of the navigation
+     * @param timings
+     *            the timings of the load or <code>null</code>
+     * @param task
+     *            the load
+     */
+    public synchronized void submit(int gen, LoadTimings timings, Runnable task)
+    {
+        if (!isCurrent(gen))
+            return;
+        running = executor.submit(() -> {
+            if (isCurrent(gen))
+                run(gen, timings, task);
+        });
+    }
+
+    /**
+     * Runs the given action unless the navigation is outdated. No other
+     * navigation may start while the action is running, so that the action
+     * may e.g. replace the document of the component safely. Once the action
+     * has been run, the navigation is not cancelled any more and its caller
+     * is responsible for completing its future.
+     *
+     * @param gen
+     *            the generation of the navigation
+     * @param action
+     *            the action to run
+     * @return <code>true</code> when the action has been run
+     */
+    public synchronized boolean commit(int gen, Runnable action)
+    {
+        if (!isCurrent(gen))
+            return false;
+        action.run();
+        result = null;
+        return true;
+    }
+
+    /**
+     * Ends the given stage of the load running in the current thread and
+     * stops the load when it has been cancelled.
+     *
+     * @param stage
+     *            the stage that has been finished
+     * @throws InterruptedIOException
+     *             when the load has been cancelled
+     * @see #checkCancelled()
+     */
+    public static void endStage(Stage stage) throws InterruptedIOException
+    {
+        Load load = currentLoad.get();
+        if (load != null && load.timings != null)
+            load.timings.endStage(stage);
+        checkCancelled();
+    }
+
+    /**
+     * Stops the current load when it has been cancelled. This method should
+     * be called between the stages of the load. Outside of a load started by
+     * a {@link PageLoader}, only the interrupted status of the thread is
+     * checked.
+     *
+     * @throws InterruptedIOException
+     *             when the load has been cancelled
+     */
+    public static void checkCancelled() throws InterruptedIOException
+    {
+        Load load = currentLoad.get();
+        if (Thread.currentThread().isInterrupted()
+                || (load != null && load.loader != null
+                        && !load.loader.isCurrent(load.generation)))
+            throw new InterruptedIOException("The page load has been cancelled");
+    }
+
+    private synchronized void finished(int gen)
+    {
+        if (isCurrent(gen))
+        {
+            running = null;
+            input = null;
+        }
+    }
+
+    private void cancelRunning()
+    {
+        if (running != null)
+        {
+            running.cancel(true);
+            running = null;
+        }
+        if (input != null)
+        {
+            // unblocks the reading
+            closeQuietly(input);
+            input = null;
+        }
+    }
+
+    private static void closeQuietly(Closeable in)
+    {
+        try
+        {
+            in.close();
+        } catch (IOException ignored)
+        {
+        }
+    }
+
+    /**
+     * A load running in a thread.
+     */
+    private static class Load
+    {
+        private final PageLoader loader;
+        private final int generation;
+        private final LoadTimings timings;
+
+        public Load(PageLoader loader, int generation, LoadTimings timings)
+        {
+            this.loader = loader;
+            this.generation = generation;
+            this.timings = timings;
+        }
+    }
+}
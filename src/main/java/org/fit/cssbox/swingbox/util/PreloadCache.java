@@ -0,0 +1,112 @@
+/*
+ * (c) Peter Bielik and Radek Burget, 2011-2012
+ *
+ * SwingBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SwingBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with SwingBox. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.fit.cssbox.swingbox.util;
+
+import java.net.URL;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A bounded LRU cache of the pages being prepared or prepared in advance,
+ * keyed by their URLs without the fragment. A page is removed from the cache
+ * when it is used, since a {@link PreparedPage} may be used for a single
+ * document only. The pages whose preparation has failed are removed as well.
+ *
+ * @author Radek Burget
+ */
+public class PreloadCache extends PageCache<CompletableFuture<PreparedPage>>
+{
+    private static final int DEFAULT_SIZE = 4;
+
+    /**
+     * Creates a new cache.
+     *
+     * @param maxEntries
+     *            maximal number of the pages kept
+     */
+    public PreloadCache(final int maxEntries)
+    {
+        super(maxEntries);
+    }
+
+    /**
+     * Creates a cache of the size given by the
+     * {@link Constants#PRELOAD_CACHE_SIZE_PROPERTY} system property.
+     *
+     * @return the new cache
+     */
+    public static PreloadCache fromProperties()
+    {
+        int size = getSizeProperty(Constants.PRELOAD_CACHE_SIZE_PROPERTY, DEFAULT_SIZE);
+        return new PreloadCache(Math.max(1, size));
+    }
+
+    /**
+     * Finds the page being prepared or prepared already.
+     *
+     * @param page
+     *            the URL of the page
+     * @return the page or <code>null</code> when the page is not in the cache
+     */
+    public synchronized CompletableFuture<PreparedPage> get(URL page)
+    {
+        return entries.get(key(page));
+    }
+
+    /**
+     * Stores a page being prepared. The page is removed when its preparation
+     * fails.
+     *
+     * @param page
+     *            the URL of the page
+     * @param prepared
+     *            the result of the preparation
+     */
+    public void put(URL page, CompletableFuture<PreparedPage> prepared)
+    {
+        final String key = key(page);
+        synchronized (this)
+        {
+            entries.put(key, prepared);
+        }
+        prepared.whenComplete((p, e) -> {
+            if (e != null)
+                remove(key, prepared);
+        });
+    }
+
+    /**
+     * Removes the page from the cache in order to use it.
+     *
+     * @param page
+     *            the URL of the page
+     * @return the page being prepared or prepared already or
+     *         <code>null</code> when the page is not in the cache
+     */
+    public synchronized CompletableFuture<PreparedPage> take(URL page)
+    {
+        return entries.remove(key(page));
+    }
+
+    //==================================================================================
+
+    private synchronized void remove(String key, CompletableFuture<PreparedPage> prepared)
+    {
+        entries.remove(key, prepared);
+    }
+}
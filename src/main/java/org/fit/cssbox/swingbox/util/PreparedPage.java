@@ -0,0 +1,162 @@
+/*
+ * (c) Peter Bielik and Radek Burget, 2011-2012
+ *
+ * SwingBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SwingBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with SwingBox. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.fit.cssbox.swingbox.util;
+
+import javax.swing.text.DefaultStyledDocument.ElementSpec;
+import java.awt.*;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * A page that has been fetched, analyzed and laid out in advance. It holds
+ * the elements of the layout together with the analyzer that created them,
+ * so that a document may be created from the page without processing it
+ * again and laid out again later when the size of the component changes.
+ * <p>
+ * The analyzer is owned by the document created from the page, therefore
+ * a prepared page may be used for a single document only.
+ *
+ * @author Radek Burget
+ */
+public class PreparedPage
+{
+    private final URL page;
+    private final String contentType;
+    private final Map<String, Object> properties;
+    private final Dimension size;
+    private final ElementSpec[] elements;
+    private final CSSBoxAnalyzer analyzer;
+    private final String title;
+    private final LoadTimings timings;
+
+    /**
+     * Creates a prepared page.
+     *
+     * @param page
+     *            the URL of the page
+     * @param contentType
+     *            the content type of the page
+     * @param properties
+     *            the properties of the document, e.g. the response headers
+     * @param size
+     *            the size the page has been laid out for
+     * @param elements
+     *            the elements of the layout
+     * @param analyzer
+     *            the analyzer that holds the layout
+     * @param title
+     *            the title of the page
+     * @param timings
+     *            the time spent in preparing the page
+     */
+    public PreparedPage(URL page, String contentType, Map<String, Object> properties,
+            Dimension size, ElementSpec[] elements, CSSBoxAnalyzer analyzer,
+            String title, LoadTimings timings)
+    {
+        this.page = page;
+        this.contentType = contentType;
+        this.properties = Collections.unmodifiableMap(properties);
+        this.size = new Dimension(size);
+        this.elements = elements;
+        this.analyzer = analyzer;
+        this.title = title;
+        this.timings = timings;
+    }
+
+    /**
+     * Obtains the URL of the page.
+     *
+     * @return the URL
+     */
+    public URL getPage()
+    {
+        return page;
+    }
+
+    /**
+     * Obtains the content type of the page.
+     *
+     * @return the content type
+     */
+    public String getContentType()
+    {
+        return contentType;
+    }
+
+    /**
+     * Obtains the properties of the document, e.g. the response headers.
+     *
+     * @return the unmodifiable properties
+     */
+    public Map<String, Object> getProperties()
+    {
+        return properties;
+    }
+
+    /**
+     * Obtains the size the page has been laid out for.
+     *
+     * @return a copy of the size
+     */
+    public Dimension getSize()
+    {
+        return new Dimension(size);
+    }
+
+    /**
+     * Obtains the elements of the layout.
+     *
+     * @return the elements
+     */
+    public ElementSpec[] getElements()
+    {
+        return elements;
+    }
+
+    /**
+     * Obtains the analyzer that holds the layout.
+     *
+     * @return the analyzer
+     */
+    public CSSBoxAnalyzer getAnalyzer()
+    {
+        return analyzer;
+    }
+
+    /**
+     * Obtains the title of the page.
+     *
+     * @return the title
+     */
+    public String getTitle()
+    {
+        return title;
+    }
+
+    /**
+     * Obtains the time spent in preparing the page.
+     *
+     * @return the timings
+     */
+    public LoadTimings getTimings()
+    {
+        return timings;
+    }
+}
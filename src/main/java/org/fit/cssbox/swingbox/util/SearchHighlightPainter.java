@@ -0,0 +1,128 @@
+/*
+ * (c) Peter Bielik and Radek Burget, 2011-2012
+ *
+ * SwingBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SwingBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with SwingBox. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.fit.cssbox.swingbox.util;
+
+import javax.swing.text.DefaultHighlighter;
+import javax.swing.text.JTextComponent;
+import javax.swing.text.View;
+import java.awt.*;
+import java.util.Arrays;
+
+/**
+ * Paints all the occurrences of a searched string by a single highlight.
+ * Adding a highlight for each occurrence would repaint the component for each
+ * of them and the highlighter would examine all of them when painting each
+ * view. The highlight painted by this painter covers the whole document and
+ * the occurrences within the painted view are found by a binary search.
+ *
+ * @author Radek Burget
+ */
+public class SearchHighlightPainter extends DefaultHighlighter.DefaultHighlightPainter
+{
+    /** the default color of the highlighted occurrences */
+    public static final Color DEFAULT_COLOR = new Color(255, 230, 80);
+
+    /** the document offsets of the occurrences */
+    private final int[] starts;
+    /** the document offsets following the occurrences, in ascending order */
+    private final int[] ends;
+
+    /**
+     * Creates a painter.
+     *
+     * @param color
+     *            the color of the highlighted occurrences
+     * @param starts
+     *            the document offsets of the occurrences in ascending order
+     * @param ends
+     *            the document offsets following the occurrences; the
+     *            occurrences must not overlap
+     */
+    public SearchHighlightPainter(Color color, int[] starts, int[] ends)
+    {
+        super(color);
+        if (starts.length != ends.length)
+            throw new IllegalArgumentException("The numbers of the starts and ends differ");
+        this.starts = starts;
+        this.ends = ends;
+    }
+
+    /**
+     * Obtains the number of the highlighted occurrences.
+     *
+     * @return the number of the occurrences
+     */
+    public int getCount()
+    {
+        return starts.length;
+    }
+
+    /**
+     * Obtains the document offset of an occurrence.
+     *
+     * @param index
+     *            the index of the occurrence
+     * @return the document offset
+     */
+    public int getStartOffset(int index)
+    {
+        return starts[index];
+    }
+
+    /**
+     * Obtains the document offset following an occurrence.
+     *
+     * @param index
+     *            the index of the occurrence
+     * @return the document offset
+     */
+    public int getEndOffset(int index)
+    {
+        return ends[index];
+    }
+
+    @Override
+    public void paint(Graphics g, int offs0, int offs1, Shape bounds, JTextComponent c)
+    {
+        for (int i = first(offs0); i < starts.length && starts[i] < offs1; i++)
+            super.paint(g, Math.max(starts[i], offs0), Math.min(ends[i], offs1), bounds, c);
+    }
+
+    @Override
+    public Shape paintLayer(Graphics g, int offs0, int offs1, Shape bounds, JTextComponent c, View view)
+    {
+        Rectangle ret = null;
+        for (int i = first(offs0); i < starts.length && starts[i] < offs1; i++)
+        {
+            Shape s = super.paintLayer(g, Math.max(starts[i], offs0), Math.min(ends[i], offs1), bounds, c, view);
+            if (s != null)
+                ret = (ret == null) ? s.getBounds() : ret.union(s.getBounds());
+        }
+        return ret;
+    }
+
+    /**
+     * Finds the first occurrence that ends after the offset.
+     */
+    private int first(int offs)
+    {
+        int i = Arrays.binarySearch(ends, offs);
+        return (i >= 0) ? i + 1 : -i - 1;
+    }
+}
@@ -0,0 +1,340 @@
+/*
+ * (c) Peter Bielik and Radek Burget, 2011-2012
+ *
+ * SwingBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SwingBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with SwingBox. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.fit.cssbox.swingbox.util;
+
+import org.fit.cssbox.layout.Box;
+import org.fit.cssbox.swingbox.SwingBoxDocument;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.Segment;
+import java.awt.*;
+import java.util.Arrays;
+
+/**
+ * The plain text of a document used for searching. The document text
+ * contains the markers of the elements and backgrounds besides the text of
+ * the boxes; the index contains the text of the text boxes only, in the
+ * document order. The text boxes on the same line are joined directly, the
+ * text boxes on different lines are separated by a space unless there is a
+ * white space between them already.
+ * <p>
+ * The text is stored with the case folded, so that the search is case
+ * insensitive. Each run of the text is mapped to the document offset of its
+ * text box, so that the offsets of the text found may be converted to the
+ * document offsets.
+ *
+ * @author Radek Burget
+ */
+public class TextIndex
+{
+    private static final char SEPARATOR = ' ';
+
+    /** the case folded text */
+    private final String text;
+    /** the offsets of the runs in the text */
+    private final int[] runStarts;
+    /** the document offsets of the runs */
+    private final int[] docStarts;
+    /** the lengths of the runs, shorter than the distance to the next run for the separators */
+    private final int[] runLengths;
+
+    /**
+     * Creates the index of a document. The document should be locked for
+     * reading by the caller.
+     *
+     * @param doc
+     *            the document to be indexed
+     */
+    public TextIndex(Document doc)
+    {
+        Builder b = new Builder(doc);
+        b.add(doc.getDefaultRootElement());
+        text = new String(b.chars, 0, b.length);
+        runStarts = Arrays.copyOf(b.runStarts, b.runs);
+        docStarts = Arrays.copyOf(b.docStarts, b.runs);
+        runLengths = Arrays.copyOf(b.runLengths, b.runs);
+    }
+
+    /**
+     * Obtains the indexed text with the case folded.
+     *
+     * @return the text
+     */
+    public String getText()
+    {
+        return text;
+    }
+
+    /**
+     * Finds all the occurrences of a string in the text, ignoring the case.
+     * The occurrences may overlap, see {@link #removeOverlaps(int[], int)}.
+     *
+     * @param query
+     *            the string to be found
+     * @return the offsets of the occurrences in the text, in ascending order
+     */
+    public int[] find(String query)
+    {
+        String q = foldCase(query);
+        if (q.isEmpty())
+            return new int[0];
+
+        int[] ret = new int[16];
+        int cnt = 0;
+        int pos = text.indexOf(q);
+        while (pos != -1)
+        {
+            if (cnt == ret.length)
+                ret = Arrays.copyOf(ret, cnt * 2);
+            ret[cnt++] = pos;
+            pos = text.indexOf(q, pos + 1);
+        }
+        return Arrays.copyOf(ret, cnt);
+    }
+
+    /**
+     * Finds all the occurrences of a string in the text, using the result of
+     * a previous search for a prefix of the string. Each occurrence of the
+     * string is an occurrence of its prefix, so only these positions are
+     * checked. This is used for the incremental search while the string is
+     * being typed.
+     *
+     * @param query
+     *            the string to be found
+     * @param prefix
+     *            the string found previously
+     * @param prefixHits
+     *            the occurrences of the prefix returned by this index
+     * @return the offsets of the occurrences in the text, in ascending order
+     */
+    public int[] find(String query, String prefix, int[] prefixHits)
+    {
+        String q = foldCase(query);
+        if (prefix.isEmpty() || !q.startsWith(foldCase(prefix)))
+            return find(query);
+
+        int[] ret = new int[prefixHits.length];
+        int cnt = 0;
+        for (int pos : prefixHits)
+        {
+            if (text.startsWith(q, pos))
+                ret[cnt++] = pos;
+        }
+        return Arrays.copyOf(ret, cnt);
+    }
+
+    /**
+     * Removes the occurrences that overlap the preceding ones, as when the
+     * text is searched from the beginning to the end.
+     *
+     * @param hits
+     *            the occurrences in ascending order
+     * @param length
+     *            the length of the string found
+     * @return the occurrences that do not overlap
+     */
+    public static int[] removeOverlaps(int[] hits, int length)
+    {
+        int[] ret = new int[hits.length];
+        int cnt = 0;
+        int end = Integer.MIN_VALUE;
+        for (int pos : hits)
+        {
+            if (pos >= end)
+            {
+                ret[cnt++] = pos;
+                end = pos + length;
+            }
+        }
+        return (cnt == hits.length) ? hits : Arrays.copyOf(ret, cnt);
+    }
+
+    /**
+     * Converts the occurrences of a string in the text to the ranges of the
+     * document. The occurrences consisting of the separators only are
+     * skipped.
+     *
+     * @param hits
+     *            the offsets of the occurrences in the text in ascending order
+     * @param length
+     *            the length of the string found
+     * @param starts
+     *            receives the document offsets of the occurrences
+     * @param ends
+     *            receives the document offsets following the occurrences
+     * @return the number of the ranges stored
+     */
+    public int getDocumentRanges(int[] hits, int length, int[] starts, int[] ends)
+    {
+        int cnt = 0;
+        // the occurrences are sorted, so the runs are found by a single pass
+        int startRun = 0;
+        int endRun = 0;
+        for (int pos : hits)
+        {
+            while (startRun + 1 < runStarts.length && runStarts[startRun + 1] <= pos)
+                startRun++;
+            int last = pos + length - 1;
+            while (endRun + 1 < runStarts.length && runStarts[endRun + 1] <= last)
+                endRun++;
+
+            int start;
+            if (pos - runStarts[startRun] < runLengths[startRun])
+                start = docStarts[startRun] + pos - runStarts[startRun];
+            else if (startRun + 1 < docStarts.length)
+                start = docStarts[startRun + 1]; // a separator
+            else
+                continue;
+            int end = docStarts[endRun] + Math.min(last + 1 - runStarts[endRun], runLengths[endRun]);
+            if (end > start)
+            {
+                starts[cnt] = start;
+                ends[cnt] = end;
+                cnt++;
+            }
+        }
+        return cnt;
+    }
+
+    //==================================================================================
+
+    /**
+     * Converts a string so that the strings equal ignoring the case are
+     * equal, as in {@link String#equalsIgnoreCase(String)}. The length of the
+     * string is preserved.
+     */
+    private static String foldCase(String s)
+    {
+        char[] chars = s.toCharArray();
+        foldCase(chars, 0, chars.length);
+        return new String(chars);
+    }
+
+    private static void foldCase(char[] chars, int start, int end)
+    {
+        for (int i = start; i < end; i++)
+        {
+            char c = chars[i];
+            // most of the text is plain ASCII
+            if (c < 128)
+                chars[i] = (c >= 'A' && c <= 'Z') ? (char) (c + ('a' - 'A')) : c;
+            else
+                chars[i] = Character.toLowerCase(Character.toUpperCase(c));
+        }
+    }
+
+    /**
+     * Collects the text of the text boxes.
+     */
+    private static class Builder
+    {
+        private final Document doc;
+        private final Segment segment = new Segment();
+        private char[] chars = new char[4096];
+        private int length;
+        private int[] runStarts = new int[256];
+        private int[] docStarts = new int[256];
+        private int[] runLengths = new int[256];
+        private int runs;
+        private Rectangle lastBounds;
+
+        public Builder(Document doc)
+        {
+            this.doc = doc;
+            segment.setPartialReturn(false);
+        }
+
+        public void add(Element elem)
+        {
+            if (elem.isLeaf())
+            {
+                if (Constants.TEXT_BOX.equals(elem.getAttributes().getAttribute(SwingBoxDocument.ElementNameAttribute)))
+                    addText(elem);
+            }
+            else
+            {
+                for (int i = 0; i < elem.getElementCount(); i++)
+                    add(elem.getElement(i));
+            }
+        }
+
+        private void addText(Element elem)
+        {
+            int start = elem.getStartOffset();
+            int len = elem.getEndOffset() - start;
+            try
+            {
+                doc.getText(start, len, segment);
+            } catch (BadLocationException e)
+            {
+                return;
+            }
+            if (len == 0)
+                return;
+
+            Object box = elem.getAttributes().getAttribute(Constants.ATTRIBUTE_BOX_REFERENCE);
+            Rectangle bounds = (box instanceof Box) ? ((Box) box).getAbsoluteBounds() : null;
+            if (length > 0 && !sameLine(lastBounds, bounds)
+                    && !Character.isWhitespace(chars[length - 1])
+                    && !Character.isWhitespace(segment.array[segment.offset]))
+                append(SEPARATOR);
+            lastBounds = bounds;
+
+            if (runs == runStarts.length)
+            {
+                runStarts = Arrays.copyOf(runStarts, runs * 2);
+                docStarts = Arrays.copyOf(docStarts, runs * 2);
+                runLengths = Arrays.copyOf(runLengths, runs * 2);
+            }
+            runStarts[runs] = length;
+            docStarts[runs] = start;
+            runLengths[runs] = len;
+            runs++;
+
+            ensureCapacity(length + len);
+            System.arraycopy(segment.array, segment.offset, chars, length, len);
+            foldCase(chars, length, length + len);
+            length += len;
+        }
+
+        private void append(char c)
+        {
+            ensureCapacity(length + 1);
+            chars[length++] = c;
+        }
+
+        private void ensureCapacity(int capacity)
+        {
+            if (capacity > chars.length)
+                chars = Arrays.copyOf(chars, Math.max(capacity, chars.length * 2));
+        }
+
+        /**
+         * Checks whether the boxes follow each other on the same line.
+         */
+        private static boolean sameLine(Rectangle prev, Rectangle next)
+        {
+            return prev != null && next != null
+                    && prev.y < next.y + next.height && next.y < prev.y + prev.height
+                    && next.x >= prev.x;
+        }
+    }
+}
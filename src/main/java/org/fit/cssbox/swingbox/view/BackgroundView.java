@@ -22,10 +22,10 @@ import org.fit.cssbox.layout.ElementBox;
 import org.fit.cssbox.swingbox.util.Anchor;
 import org.fit.cssbox.swingbox.util.Constants;
 
+import javax.swing.event.DocumentEvent;
 import javax.swing.text.*;
 import javax.swing.text.Position.Bias;
 import java.awt.*;
-import java.util.Map;
 
 /**
  * @author Peter Bielik
@@ -34,19 +34,23 @@ import java.util.Map;
  */
 public class BackgroundView extends View implements CSSBoxView
 {
-    private final ElementBox box;
-    private final int order;
+    private ElementBox box;
+    private int order;
     
     /** the cache of attributes */
     private AttributeSet attributes;
     /** decides whether to construct a cache from current working properties */
     private boolean refreshAttributes;
-    private final Anchor anchor;
+    private Anchor anchor;
 
     public BackgroundView(Element elem)
     {
         super(elem);
-        AttributeSet tmpAttr = elem.getAttributes();
+        loadBox(elem.getAttributes());
+    }
+
+    private void loadBox(AttributeSet tmpAttr)
+    {
         Object obj = tmpAttr.getAttribute(Constants.ATTRIBUTE_BOX_REFERENCE);
         anchor = (Anchor) tmpAttr.getAttribute(Constants.ATTRIBUTE_ANCHOR_REFERENCE);
         Integer i = (Integer) tmpAttr.getAttribute(Constants.ATTRIBUTE_DRAWING_ORDER);
@@ -60,31 +64,11 @@ public class BackgroundView extends View implements CSSBoxView
         {
             throw new IllegalArgumentException("Box reference is not an instance of ElementBox");
         }
-        
-        if (box.getElement() != null)
+
+        if (anchor == null)
         {
-            Map<String, String> elementAttributes = anchor.getProperties();
-            org.w3c.dom.Element pelem = Anchor.findAnchorElement(box.getElement());
-            if (pelem != null)
-            {
-                anchor.setActive(true);
-                elementAttributes.put(Constants.ELEMENT_A_ATTRIBUTE_HREF, pelem.getAttribute("href"));
-                elementAttributes.put(Constants.ELEMENT_A_ATTRIBUTE_NAME, pelem.getAttribute("name"));
-                elementAttributes.put(Constants.ELEMENT_A_ATTRIBUTE_TITLE, pelem.getAttribute("title"));
-                String target = pelem.getAttribute("target");
-                if ("".equals(target))
-                {
-                    target = "_self";
-                }
-                elementAttributes.put(Constants.ELEMENT_A_ATTRIBUTE_TARGET, target);
-            }
-            else
-            {
-                anchor.setActive(false);
-                elementAttributes.clear();
-            }
+            anchor = Anchor.INACTIVE;
         }
-        
     }
 
     @Override
@@ -113,6 +97,19 @@ public class BackgroundView extends View implements CSSBoxView
         refreshAttributes = true;
     }
 
+    @Override
+    public void changedUpdate(DocumentEvent e, Shape a, ViewFactory f)
+    {
+        // the element may have been retargeted to a new layout of the document
+        AttributeSet attr = getElement().getAttributes();
+        if (attr.getAttribute(Constants.ATTRIBUTE_BOX_REFERENCE) != box)
+        {
+            loadBox(attr);
+            refreshAttributes = true;
+        }
+        super.changedUpdate(e, a, f);
+    }
+
     @Override
     public boolean isVisible()
     {
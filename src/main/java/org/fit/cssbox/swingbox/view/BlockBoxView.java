@@ -33,7 +33,7 @@ import java.awt.*;
  */
 public class BlockBoxView extends ElementBoxView
 {
-    private final String overflowX;
+    private String overflowX;
 
     /**
      * @param elem
@@ -45,6 +45,13 @@ public class BlockBoxView extends ElementBoxView
         overflowX = ((BlockBox) box).getOverflowXString();
     }
 
+    @Override
+    protected void boxChanged()
+    {
+        super.boxChanged();
+        overflowX = ((BlockBox) box).getOverflowXString();
+    }
+
     @Override
     public AttributeSet getAttributes()
     {
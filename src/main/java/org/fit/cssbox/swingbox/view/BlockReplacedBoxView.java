@@ -56,10 +56,16 @@ public class BlockReplacedBoxView extends BlockBoxView
         // bonus : spravit klikaciu mapu :)
         super(elem);
 
+        loadContent();
+    }
+
+    private void loadContent()
+    {
         content = ((BlockReplacedBox) box).getContentObj();
         if (content instanceof ReplacedImage)
         {
             repImage = (ReplacedImage) content;
+            repImage.setImageObserver(createImageObserver(repImage));
         }
         else
         {
@@ -69,6 +75,14 @@ public class BlockReplacedBoxView extends BlockBoxView
         loadElementAttributes();
     }
 
+    @Override
+    protected void boxChanged()
+    {
+        super.boxChanged();
+        loadContent();
+        if (repImage != null && container != null) repImage.setContainer(container);
+    }
+
     private void loadElementAttributes()
     {
         /*
@@ -0,0 +1,390 @@
+/*
+ * (c) Peter Bielik and Radek Burget, 2011-2012
+ *
+ * SwingBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SwingBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with SwingBox. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.fit.cssbox.swingbox.view;
+
+import org.fit.cssbox.layout.BlockBox;
+import org.fit.cssbox.layout.Box;
+import org.fit.cssbox.layout.ElementBox;
+
+import javax.swing.text.View;
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A spatial index of the boxes of a single layout. It is used for hit testing
+ * instead of scanning all the leaf views of the view tree. The boxes are
+ * stored in a {@link RectangleTree}, so a point query takes a logarithmic
+ * time with respect to the number of boxes.
+ * <p>
+ * Moreover, the index holds the bounds of the complete subtree of each box
+ * (the box together with all its visible descendants) clipped by the
+ * clipping blocks of the boxes. These bounds are used as the allocations of
+ * the views and for skipping the invisible views when painting.
+ * <p>
+ * The leaf views are also kept in the document order, so that the view
+ * displaying a document position may be found by a binary search.
+ * <p>
+ * The index is immutable. It is created for a {@link ViewportView} and must
+ * be thrown away whenever a new layout is created.
+ *
+ * @author Radek Burget
+ */
+public class BoxIndex
+{
+    /** All the boxes in the tree order */
+    private final List<Box> boxes;
+    /** The boxes in an open addressing hash table, see {@link #getBoxId(Box)} */
+    private final Box[] idKeys;
+    /** Box numbers assigned to the boxes in the hash table */
+    private final int[] idValues;
+    /** Bounds (x, y, width, height) of the box subtrees clipped by their clipping blocks */
+    private int[] subtrees;
+    /** Index of the parent box for each of the boxes, -1 for the root */
+    private final int[] parents;
+    /** Visibility of the boxes */
+    private final boolean[] visible;
+    /** The leaf views that correspond to the individual boxes, by the box numbers */
+    private final View[][] leaves;
+    /** The views of the leaf elements in the document order */
+    private final View[] positions;
+
+    /** The tree of the box content bounds */
+    private final RectangleTree tree;
+    /** The box numbers of the rectangles in the tree */
+    private final int[] boxNumbers;
+
+    /**
+     * Creates the index for the given viewport view and its current layout.
+     *
+     * @param root
+     *            the viewport view
+     */
+    public BoxIndex(ViewportView root)
+    {
+        Map<Box, List<View>> leafMap = new IdentityHashMap<>();
+        List<View> positionList = new ArrayList<>();
+        findLeaves(root, leafMap, positionList);
+        positions = positionList.toArray(new View[0]);
+
+        boxes = new ArrayList<>();
+        subtrees = new int[64];
+        List<Integer> parentList = new ArrayList<>();
+        List<Boolean> visibleList = new ArrayList<>();
+        List<Rectangle> rects = new ArrayList<>();
+        List<Integer> ids = new ArrayList<>();
+        collectBoxes(root.box, -1, parentList, visibleList, rects, ids);
+        subtrees = Arrays.copyOf(subtrees, 4 * boxes.size());
+
+        // a table of at most a half load
+        int capacity = Integer.highestOneBit(Math.max(1, boxes.size())) * 4;
+        idKeys = new Box[capacity];
+        idValues = new int[capacity];
+        leaves = new View[boxes.size()][];
+        for (int i = 0; i < boxes.size(); i++)
+        {
+            Box b = boxes.get(i);
+            int slot = slot(b);
+            while (idKeys[slot] != null && idKeys[slot] != b)
+                slot = (slot + 1) & (capacity - 1);
+            if (idKeys[slot] == null)
+            {
+                idKeys[slot] = b;
+                idValues[slot] = i;
+            }
+            List<View> views = leafMap.get(b);
+            if (views != null)
+                leaves[i] = views.toArray(new View[0]);
+        }
+
+        parents = new int[boxes.size()];
+        visible = new boolean[boxes.size()];
+        for (int i = 0; i < parents.length; i++)
+        {
+            parents[i] = parentList.get(i);
+            visible[i] = visibleList.get(i);
+        }
+
+        int[] bounds = new int[4 * rects.size()];
+        boxNumbers = new int[rects.size()];
+        for (int i = 0; i < rects.size(); i++)
+        {
+            Rectangle r = rects.get(i);
+            bounds[4 * i] = r.x;
+            bounds[4 * i + 1] = r.y;
+            bounds[4 * i + 2] = r.width;
+            bounds[4 * i + 3] = r.height;
+            boxNumbers[i] = ids.get(i);
+        }
+        tree = new RectangleTree(bounds, rects.size());
+    }
+
+    /**
+     * Obtains the number of boxes in the index.
+     *
+     * @return the box count
+     */
+    public int getBoxCount()
+    {
+        return boxes.size();
+    }
+
+    /**
+     * Obtains the bounds of the given box together with all its visible
+     * descendant boxes, clipped by the clipping blocks of the boxes. The
+     * bounds are used as the allocation of the view of the box; nothing of
+     * the subtree is painted outside of them.
+     *
+     * @param box
+     *            the box
+     * @param dest
+     *            the rectangle to store the bounds to
+     * @return {@code true} when the box is contained in the index and the
+     *         bounds have been stored, {@code false} otherwise
+     */
+    public boolean getSubtreeBounds(Box box, Rectangle dest)
+    {
+        return getBounds(subtrees, box, dest);
+    }
+
+    /**
+     * Finds the topmost leaf view that is displayed at the given point. A leaf
+     * view is displayed at the given point when its box or any visible box
+     * nested in it contains the point. When there are more such views, the one
+     * with the highest drawing order is returned.
+     *
+     * @param x
+     *            the X coordinate
+     * @param y
+     *            the Y coordinate
+     * @return the leaf view or {@code null} when there is no view at the point
+     */
+    public View findLeafAt(int x, int y)
+    {
+        final View[] ret = new View[1];
+        final int[] retorder = new int[1];
+        tree.findAt(x, y, i -> {
+            // walk up the visible ancestors, each of them may have a leaf view assigned
+            int b = boxNumbers[i];
+            while (b != -1 && visible[b])
+            {
+                View[] views = leaves[b];
+                if (views != null)
+                {
+                    for (View v : views)
+                    {
+                        int o = ((CSSBoxView) v).getDrawingOrder();
+                        if (ret[0] == null || o >= retorder[0])
+                        {
+                            ret[0] = v;
+                            retorder[0] = o;
+                        }
+                    }
+                }
+                b = parents[b];
+            }
+        });
+        return ret[0];
+    }
+
+    /**
+     * Finds the leaf view that displays the given document position. The
+     * leaf views cover disjoint ranges of the document, they are searched in
+     * a logarithmic time.
+     *
+     * @param pos
+     *            the document position
+     * @return the index of the leaf view in the document order or -1 when
+     *         there is no view for the position
+     * @see #getLeaf(int)
+     */
+    public int findLeafIndex(int pos)
+    {
+        int lo = 0;
+        int hi = positions.length - 1;
+        while (lo <= hi)
+        {
+            int mid = (lo + hi) >>> 1;
+            View v = positions[mid];
+            if (pos < v.getStartOffset())
+                hi = mid - 1;
+            else if (pos >= v.getEndOffset())
+                lo = mid + 1;
+            else
+                return mid;
+        }
+        return -1;
+    }
+
+    /**
+     * Obtains the number of the leaf views that display a part of the
+     * document.
+     *
+     * @return the leaf view count
+     */
+    public int getLeafCount()
+    {
+        return positions.length;
+    }
+
+    /**
+     * Obtains a leaf view in the document order.
+     *
+     * @param index
+     *            the index of the view, see {@link #findLeafIndex(int)}
+     * @return the leaf view
+     */
+    public View getLeaf(int index)
+    {
+        return positions[index];
+    }
+
+    /**
+     * Obtains the allocation of a leaf view, i.e. the bounds of its box
+     * together with all its visible descendants, clipped as in
+     * {@link #getSubtreeBounds(Box, Rectangle)}.
+     *
+     * @param leaf
+     *            the leaf view
+     * @param dest
+     *            the rectangle to store the bounds to
+     * @return {@code true} when the box of the view is contained in the index
+     *         and the bounds have been stored, {@code false} otherwise
+     */
+    public boolean getLeafBounds(View leaf, Rectangle dest)
+    {
+        Box b = ElementBoxView.getBox(leaf);
+        return b != null && getSubtreeBounds(b, dest);
+    }
+
+    //====================================================================================
+
+    private boolean getBounds(int[] src, Box box, Rectangle dest)
+    {
+        int id = getBoxId(box);
+        if (id == -1)
+            return false;
+        int i = 4 * id;
+        dest.setBounds(src[i], src[i + 1], src[i + 2], src[i + 3]);
+        return true;
+    }
+
+    /**
+     * Finds the number of a box.
+     * @return the box number or -1 when the box is not contained in the index
+     */
+    private int getBoxId(Box box)
+    {
+        int slot = slot(box);
+        Box key;
+        while ((key = idKeys[slot]) != null)
+        {
+            if (key == box)
+                return idValues[slot];
+            slot = (slot + 1) & (idKeys.length - 1);
+        }
+        return -1;
+    }
+
+    private int slot(Box box)
+    {
+        int h = System.identityHashCode(box);
+        // spread the bits, the identity hash codes need not be well distributed
+        h ^= (h >>> 16);
+        return (h * 0x9E3779B9) >>> 1 & (idKeys.length - 1);
+    }
+
+    private void findLeaves(View root, Map<Box, List<View>> leafMap, List<View> positionList)
+    {
+        if (root instanceof ElementBoxView && root.getViewCount() > 0)
+        {
+            for (int i = 0; i < root.getViewCount(); i++)
+                findLeaves(root.getView(i), leafMap, positionList);
+        }
+        else if (root instanceof CSSBoxView)
+        {
+            Box b = ElementBoxView.getBox(root);
+            leafMap.computeIfAbsent(b, k -> new ArrayList<>(1)).add(root);
+            // the empty branch elements do not cover any position
+            if (root.getElement().isLeaf())
+                positionList.add(root);
+        }
+    }
+
+    /**
+     * Collects the box and its descendants and computes the clipped subtree bounds.
+     * @return the subtree bounds of the box
+     */
+    private Rectangle collectBoxes(Box box, int parent, List<Integer> parentList, List<Boolean> visibleList,
+            List<Rectangle> rects, List<Integer> ids)
+    {
+        int id = boxes.size();
+        boxes.add(box);
+        parentList.add(parent);
+        visibleList.add(box.isVisible());
+
+        if (box.isVisible())
+        {
+            Rectangle bounds = box.getAbsoluteContentBounds();
+            BlockBox clip = box.getClipBlock();
+            if (clip != null)
+                bounds = bounds.intersection(clip.getClippedContentBounds());
+            if (!bounds.isEmpty())
+            {
+                rects.add(bounds);
+                ids.add(id);
+            }
+        }
+
+        // the invisible subtrees are traversed as well; they may contain leaf views
+        // whose visible content is checked separately
+        Rectangle subtree = box.getAbsoluteBounds();
+        if (box instanceof ElementBox)
+        {
+            ElementBox eb = (ElementBox) box;
+            for (int i = eb.getStartChild(); i < eb.getEndChild(); i++)
+            {
+                Box child = eb.getSubBox(i);
+                Rectangle r = collectBoxes(child, id, parentList, visibleList, rects, ids);
+                if (child.isVisible())
+                    subtree.add(r);
+            }
+        }
+        BlockBox clip = box.getClipBlock();
+        if (clip != null)
+            subtree = subtree.intersection(clip.getClippedContentBounds());
+
+        if (subtrees.length < 4 * (id + 1))
+            subtrees = Arrays.copyOf(subtrees, Math.max(2 * subtrees.length, 4 * (id + 1)));
+        store(subtrees, id, subtree);
+        return subtree;
+    }
+
+    private static void store(int[] dest, int id, Rectangle r)
+    {
+        dest[4 * id] = r.x;
+        dest[4 * id + 1] = r.y;
+        dest[4 * id + 2] = r.width;
+        dest[4 * id + 3] = r.height;
+    }
+
+}
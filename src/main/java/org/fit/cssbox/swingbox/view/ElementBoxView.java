@@ -28,7 +28,7 @@ import javax.swing.*;
 import javax.swing.event.DocumentEvent;
 import javax.swing.text.*;
 import java.awt.*;
-import java.util.Map;
+import java.awt.image.ImageObserver;
 import java.util.Vector;
 
 /**
@@ -38,6 +38,9 @@ import java.util.Vector;
 @SuppressWarnings("unused")
 public class ElementBoxView extends CompositeView implements CSSBoxView
 {
+    /** the number of child views from which the children are culled using a tree of their allocations */
+    private static final int CHILD_TREE_THRESHOLD = 32;
+
     protected ElementBox box;
     protected Anchor anchor;
     protected int order;
@@ -47,6 +50,10 @@ public class ElementBoxView extends CompositeView implements CSSBoxView
     /** decides whether to construct a cache from current working properties */
     private boolean refreshAttributes;
     private final Dimension oldDimension;
+    /** the viewport view this view belongs to */
+    private ViewportView viewport;
+    /** the tree of the child allocations used for culling when painting */
+    private RectangleTree childTree;
 
     private int majorAxis;
     private boolean majorAllocValid;
@@ -60,8 +67,13 @@ public class ElementBoxView extends CompositeView implements CSSBoxView
     {
         // Y axis as default
         super(elem);
+        loadBox(elem.getAttributes());
+        oldDimension = new Dimension();
+    }
+
+    private void loadBox(AttributeSet tmpAttr)
+    {
         majorAxis = Y_AXIS;
-        AttributeSet tmpAttr = elem.getAttributes();
         Object obj = tmpAttr.getAttribute(Constants.ATTRIBUTE_BOX_REFERENCE);
         Integer i = (Integer) tmpAttr.getAttribute(Constants.ATTRIBUTE_DRAWING_ORDER);
         order = (i == null) ? -1 : i;
@@ -91,35 +103,6 @@ public class ElementBoxView extends CompositeView implements CSSBoxView
         {
             throw new IllegalArgumentException("Anchor reference is null or not an instance of Anchor");
         }
-
-        oldDimension = new Dimension();
-
-        loadElementAttributes();
-    }
-
-    private void loadElementAttributes()
-    {
-        org.w3c.dom.Element elem = Anchor.findAnchorElement(box.getElement());
-        Map<String, String> elementAttributes = anchor.getProperties();
-
-        if (elem != null)
-        {
-            anchor.setActive(true);
-            elementAttributes.put(Constants.ELEMENT_A_ATTRIBUTE_HREF, elem.getAttribute("href"));
-            elementAttributes.put(Constants.ELEMENT_A_ATTRIBUTE_NAME, elem.getAttribute("name"));
-            elementAttributes.put(Constants.ELEMENT_A_ATTRIBUTE_TITLE, elem.getAttribute("title"));
-            String target = elem.getAttribute("target");
-            if ("".equals(target))
-            {
-                target = "_self";
-            }
-            elementAttributes.put(Constants.ELEMENT_A_ATTRIBUTE_TARGET, target);
-        }
-        else
-        {
-            anchor.setActive(false);
-            elementAttributes.clear();
-        }
     }
 
     @Override
@@ -239,6 +222,12 @@ public class ElementBoxView extends CompositeView implements CSSBoxView
     @Override
     public void setParent(View parent)
     {
+        // the children are loaded in super.setParent(), they obtain the viewport from us
+        if (parent instanceof ElementBoxView)
+            viewport = ((ElementBoxView) parent).getViewportView();
+        else
+            viewport = null;
+        
         super.setParent(parent);
         if (parent != null)
         {
@@ -275,6 +264,7 @@ public class ElementBoxView extends CompositeView implements CSSBoxView
     {
         super.replace(offset, length, views);
 
+        childTree = null;
         majorReqValid = false;
         majorAllocValid = false;
         minorReqValid = false;
@@ -303,6 +293,38 @@ public class ElementBoxView extends CompositeView implements CSSBoxView
         }
     }
 
+    @Override
+    public void changedUpdate(DocumentEvent e, Shape a, ViewFactory f)
+    {
+        // the element may have been retargeted to a new layout of the document
+        if (getElement().getAttributes().getAttribute(Constants.ATTRIBUTE_BOX_REFERENCE) != box)
+        {
+            boxChanged();
+            // the whole layout has changed and it is repainted at once by the viewport,
+            // there is no need to compute the child allocations for partial repaints
+            a = null;
+        }
+        super.changedUpdate(e, a, f);
+    }
+
+    /**
+     * Called when the element of this view has been retargeted to a new box,
+     * i.e. the document has been updated to a new layout of the same content.
+     * Reloads the box related properties and invalidates the layout. The
+     * subclasses that derive any state from the box should extend this method.
+     */
+    protected void boxChanged()
+    {
+        loadBox(getElement().getAttributes());
+        setPropertiesFromAttributes(getElement().getAttributes());
+        refreshAttributes = true;
+        childTree = null;
+        majorReqValid = false;
+        majorAllocValid = false;
+        minorReqValid = false;
+        minorAllocValid = false;
+    }
+
     @Override
     public void preferenceChanged(View child, boolean width, boolean height)
     {
@@ -408,17 +430,51 @@ public class ElementBoxView extends CompositeView implements CSSBoxView
 
         Rectangle clip = toRect(g.getClip());
 
-        Rectangle alloc = toRect(allocation);
+        Rectangle bounds = new Rectangle();
         int count = getViewCount();
-        for (int i = 0; i < count; i++)
+        if (count >= CHILD_TREE_THRESHOLD)
         {
-            Rectangle bounds = new Rectangle(alloc);
-            childAllocation(i, bounds);
-            if (clip.intersects(bounds))
-                getView(i).paint(g, allocation);
+            // examine only the children that may intersect the clip, in their drawing order
+            for (int i : getChildTree().findIntersecting(clip))
+                paintChild(g, allocation, clip, i, bounds);
+        }
+        else
+        {
+            for (int i = 0; i < count; i++)
+                paintChild(g, allocation, clip, i, bounds);
         }
     }
 
+    private void paintChild(Graphics2D g, Shape allocation, Rectangle clip, int index, Rectangle bounds)
+    {
+        ViewportView root = getViewportView();
+        if (root != null)
+            root.viewVisited();
+        childAllocation(index, bounds);
+        if (clip.intersects(bounds))
+            getView(index).paint(g, allocation);
+    }
+
+    private RectangleTree getChildTree()
+    {
+        if (childTree == null)
+        {
+            int count = getViewCount();
+            int[] rects = new int[4 * count];
+            Rectangle bounds = new Rectangle();
+            for (int i = 0; i < count; i++)
+            {
+                childAllocation(i, bounds);
+                rects[4 * i] = bounds.x;
+                rects[4 * i + 1] = bounds.y;
+                rects[4 * i + 2] = bounds.width;
+                rects[4 * i + 3] = bounds.height;
+            }
+            childTree = new RectangleTree(rects, count);
+        }
+        return childTree;
+    }
+
     @Override
     public Shape getChildAllocation(int index, Shape a)
     {
@@ -433,18 +489,42 @@ public class ElementBoxView extends CompositeView implements CSSBoxView
         return null;
     }
 
+    /**
+     * Obtains the allocation of a child view, which is also the area where the view
+     * may paint.
+     */
     @Override
     protected void childAllocation(int index, Rectangle alloc)
     {
-        alloc.setBounds(getCompleteBoxAllocation(getBox(getView(index))));
+        Box b = getBox(getView(index));
+        ViewportView root = getViewportView();
+        if (root == null || !root.getBoxIndex().getSubtreeBounds(b, alloc))
+            alloc.setBounds(computeCompleteBoxAllocation(b));
     }
 
     /**
-     * Obtains the allocation of a box together with all its child boxes.
+     * Obtains the allocation of a box together with all its child boxes, clipped by the
+     * clipping blocks of the boxes. The allocations are precomputed for the whole layout
+     * in the box index of the viewport.
      * @param b the box
-     * @return the smallest rectangle containing the box and all its child boxes
+     * @return the smallest rectangle containing the visible parts of the box and all its child boxes
      */
     private Rectangle getCompleteBoxAllocation(Box b)
+    {
+        Rectangle ret = new Rectangle();
+        ViewportView root = getViewportView();
+        if (root != null && root.getBoxIndex().getSubtreeBounds(b, ret))
+            return ret;
+        else
+            return computeCompleteBoxAllocation(b);
+    }
+    
+    /**
+     * Computes the allocation of a box together with all its child boxes by traversing the box subtree.
+     * @param b the box
+     * @return the smallest rectangle containing the visible parts of the box and all its child boxes
+     */
+    private Rectangle computeCompleteBoxAllocation(Box b)
     {
         Rectangle ret = b.getAbsoluteBounds();
         if (b instanceof ElementBox)
@@ -455,12 +535,14 @@ public class ElementBoxView extends CompositeView implements CSSBoxView
                 Box child = eb.getSubBox(i);
                 if (child.isVisible())
                 {
-                    Rectangle r = getCompleteBoxAllocation(child);
+                    Rectangle r = computeCompleteBoxAllocation(child);
                     ret.add(r);
                 }
             }
         }
-        return ret.intersection(b.getClipBlock().getClippedContentBounds());
+        if (b.getClipBlock() != null)
+            return ret.intersection(b.getClipBlock().getClippedContentBounds());
+        return ret;
     }
     
     @Override
@@ -576,6 +658,64 @@ public class ElementBoxView extends CompositeView implements CSSBoxView
 
     @Override
     protected View getViewAtPoint(int x, int y, Rectangle alloc)
+    {
+        ViewportView root = getViewportView();
+        if (root != null)
+        {
+            // use the spatial index of the viewport for finding the topmost leaf
+            View leaf = root.getBoxIndex().findLeafAt(x, y);
+            if (leaf == null)
+                return null;
+            
+            View v = leaf;
+            while (v.getParent() != null && v.getParent() != this)
+                v = v.getParent();
+            if (v.getParent() == this)
+            {
+                alloc.setBounds(getCompleteBoxAllocation(getBox(leaf)));
+                return v;
+            }
+        }
+        // the leaf is not our descendant, scan our subtree
+        return findViewAtPoint(x, y, alloc);
+    }
+
+    /**
+     * Obtains the viewport view this view belongs to.
+     * @return the viewport view or {@code null} when the view is not connected to a viewport
+     */
+    protected ViewportView getViewportView()
+    {
+        return viewport;
+    }
+    
+    /**
+     * Creates an observer for an image drawn by this view. It discards the
+     * cached tiles covering the box when new image data arrive and passes
+     * the notification to the given observer.
+     * 
+     * @param observer
+     *            the original image observer
+     * @return the new image observer
+     */
+    protected ImageObserver createImageObserver(final ImageObserver observer)
+    {
+        return (img, flags, x, y, width, height) -> {
+            if ((flags & (ImageObserver.SOMEBITS | ImageObserver.FRAMEBITS | ImageObserver.ALLBITS)) != 0)
+            {
+                ViewportView root = getViewportView();
+                TileRenderer tiles = (root == null) ? null : root.getTileRenderer();
+                if (tiles != null)
+                    tiles.invalidate(box.getAbsoluteBounds());
+            }
+            return observer.imageUpdate(img, flags, x, y, width, height);
+        };
+    }
+    
+    /**
+     * Finds the child view at the given point by scanning all the leaf views in the subtree.
+     */
+    private View findViewAtPoint(int x, int y, Rectangle alloc)
     {
         View retv = null;
         int retorder = -1;
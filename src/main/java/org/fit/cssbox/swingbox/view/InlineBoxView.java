@@ -62,9 +62,12 @@ public class InlineBoxView extends ElementBoxView
             // Rectangle alloc = allocation instanceof Rectangle ? (Rectangle)
             // allocation : allocation.getBounds();
 
+            ViewportView root = getViewportView();
             for (int i = 0; i < n; i++)
             {
                 View v = getView(i);
+                if (root != null)
+                    root.viewVisited();
                 v.paint(g, allocation);
             }
 
@@ -48,10 +48,16 @@ public class InlineReplacedBoxView extends InlineBoxView
     {
         super(elem);
 
+        loadContent();
+    }
+
+    private void loadContent()
+    {
         content = ((InlineReplacedBox) box).getContentObj();
         if (content instanceof ReplacedImage)
         {
             repImage = (ReplacedImage) content;
+            repImage.setImageObserver(createImageObserver(repImage));
         }
         else
         {
@@ -61,6 +67,14 @@ public class InlineReplacedBoxView extends InlineBoxView
         loadElementAttributes();
     }
 
+    @Override
+    protected void boxChanged()
+    {
+        super.boxChanged();
+        loadContent();
+        if (repImage != null && container != null) repImage.setContainer(container);
+    }
+
     private void loadElementAttributes()
     {
         alt = box.getElement().getAttribute("alt");
@@ -0,0 +1,188 @@
+/*
+ * (c) Peter Bielik and Radek Burget, 2011-2012
+ *
+ * SwingBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SwingBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with SwingBox. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.fit.cssbox.swingbox.view;
+
+import java.awt.*;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * A static R-tree of rectangles packed by the Sort-Tile-Recursive algorithm.
+ * The rectangles are identified by their indices in the input array. The
+ * tree is immutable once created.
+ *
+ * @author Radek Burget
+ */
+class RectangleTree
+{
+    /** Maximal number of children of a tree node */
+    private static final int NODE_SIZE = 16;
+
+    /** Rectangle numbers in the packed order */
+    private final int[] items;
+    /** Bounds (x1, y1, x2, y2) of the items (level 0) and tree nodes (levels 1..n) */
+    private final int[][] levels;
+    /** Stack used for walking the tree */
+    private final int[] stack;
+    /** Result buffer for the area queries */
+    private int[] found;
+
+    /**
+     * Creates a tree of rectangles.
+     *
+     * @param rects
+     *            the rectangles stored as (x, y, width, height) quadruples
+     * @param count
+     *            the number of rectangles
+     */
+    public RectangleTree(int[] rects, int count)
+    {
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++)
+            order[i] = i;
+
+        // sort by the X center, split to vertical slices and sort the slices by the Y center
+        Arrays.sort(order, (a, b) -> Integer.compare(center(rects, a, 0), center(rects, b, 0)));
+        int nodeCount = (count + NODE_SIZE - 1) / NODE_SIZE;
+        int sliceSize = Math.max(1, (int) Math.ceil(Math.sqrt(nodeCount))) * NODE_SIZE;
+        for (int start = 0; start < count; start += sliceSize)
+        {
+            int end = Math.min(start + sliceSize, count);
+            Arrays.sort(order, start, end, (a, b) -> Integer.compare(center(rects, a, 1), center(rects, b, 1)));
+        }
+
+        items = new int[count];
+        int[] level = new int[4 * count];
+        for (int i = 0; i < count; i++)
+        {
+            int r = 4 * order[i];
+            items[i] = order[i];
+            level[4 * i] = rects[r];
+            level[4 * i + 1] = rects[r + 1];
+            level[4 * i + 2] = rects[r] + rects[r + 2];
+            level[4 * i + 3] = rects[r + 1] + rects[r + 3];
+        }
+
+        // build the upper levels until there is a single root node
+        int[][] levelList = new int[1][];
+        levelList[0] = level;
+        while (level.length > 4)
+        {
+            int cnt = level.length / 4;
+            int[] upper = new int[4 * ((cnt + NODE_SIZE - 1) / NODE_SIZE)];
+            for (int i = 0; i < cnt; i++)
+            {
+                int node = 4 * (i / NODE_SIZE);
+                if (i % NODE_SIZE == 0)
+                {
+                    System.arraycopy(level, 4 * i, upper, node, 4);
+                }
+                else
+                {
+                    upper[node] = Math.min(upper[node], level[4 * i]);
+                    upper[node + 1] = Math.min(upper[node + 1], level[4 * i + 1]);
+                    upper[node + 2] = Math.max(upper[node + 2], level[4 * i + 2]);
+                    upper[node + 3] = Math.max(upper[node + 3], level[4 * i + 3]);
+                }
+            }
+            levelList = Arrays.copyOf(levelList, levelList.length + 1);
+            levelList[levelList.length - 1] = upper;
+            level = upper;
+        }
+        levels = levelList;
+        stack = new int[2 * (levels.length * NODE_SIZE + 1)];
+        found = new int[16];
+    }
+
+    /**
+     * Reports all the rectangles that contain the given point.
+     *
+     * @param x
+     *            the X coordinate
+     * @param y
+     *            the Y coordinate
+     * @param consumer
+     *            the consumer that receives the numbers of the rectangles found
+     */
+    public void findAt(int x, int y, IntConsumer consumer)
+    {
+        search(x, y, x + 1, y + 1, consumer);
+    }
+
+    /**
+     * Finds all the rectangles that intersect the given area.
+     *
+     * @param area
+     *            the area
+     * @return the numbers of the rectangles found in ascending order
+     */
+    public int[] findIntersecting(Rectangle area)
+    {
+        final int[] cnt = new int[1];
+        search(area.x, area.y, area.x + area.width, area.y + area.height, i -> {
+            if (cnt[0] == found.length)
+                found = Arrays.copyOf(found, 2 * found.length);
+            found[cnt[0]++] = i;
+        });
+        int[] ret = Arrays.copyOf(found, cnt[0]);
+        Arrays.sort(ret);
+        return ret;
+    }
+
+    private void search(int x1, int y1, int x2, int y2, IntConsumer consumer)
+    {
+        int top = levels.length - 1;
+        if (levels[top].length == 0)
+            return;
+
+        int sp = 0;
+        stack[sp++] = top;
+        stack[sp++] = 0;
+        while (sp > 0)
+        {
+            int index = stack[--sp];
+            int level = stack[--sp];
+            int[] b = levels[level];
+            int i = 4 * index;
+            if (x2 <= b[i] || y2 <= b[i + 1] || x1 >= b[i + 2] || y1 >= b[i + 3])
+                continue;
+
+            if (level == 0)
+            {
+                consumer.accept(items[index]);
+            }
+            else
+            {
+                int count = levels[level - 1].length / 4;
+                int last = Math.min((index + 1) * NODE_SIZE, count);
+                for (int c = index * NODE_SIZE; c < last; c++)
+                {
+                    stack[sp++] = level - 1;
+                    stack[sp++] = c;
+                }
+            }
+        }
+    }
+
+    private static int center(int[] rects, int index, int axis)
+    {
+        return rects[4 * index + axis] + rects[4 * index + 2 + axis] / 2;
+    }
+
+}
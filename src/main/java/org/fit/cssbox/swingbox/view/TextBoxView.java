@@ -46,14 +46,14 @@ import java.util.Map;
 @SuppressWarnings("unused")
 public class TextBoxView extends View implements CSSBoxView
 {
-    private final TextBox box;
+    private TextBox box;
     private Font font;
     private Color foreground;
     private List<TextDecoration> textDecoration;
     private String fontVariant;
     private TextLayout layout;
     private AffineTransform transform;
-    private final int order;
+    private int order;
 
     /** the cache of attributes */
     private AttributeSet attributes;
@@ -83,7 +83,11 @@ public class TextBoxView extends View implements CSSBoxView
     public TextBoxView(Element elem)
     {
         super(elem);
-        AttributeSet tmpAttr = elem.getAttributes();
+        loadBox(elem.getAttributes());
+    }
+
+    private void loadBox(AttributeSet tmpAttr)
+    {
         Object obj = tmpAttr.getAttribute(Constants.ATTRIBUTE_BOX_REFERENCE);
         anchor = (Anchor) tmpAttr.getAttribute(Constants.ATTRIBUTE_ANCHOR_REFERENCE);
         Integer i = (Integer) tmpAttr.getAttribute(Constants.ATTRIBUTE_DRAWING_ORDER);
@@ -98,31 +102,10 @@ public class TextBoxView extends View implements CSSBoxView
             throw new IllegalArgumentException("Box reference is not an instance of TextBox");
         }
 
-        if (box.getNode() != null && box.getNode().getParentNode() instanceof org.w3c.dom.Element)
+        if (anchor == null)
         {
-            org.w3c.dom.Element pelem = Anchor.findAnchorElement((org.w3c.dom.Element) box.getNode().getParentNode());
-            Map<String, String> elementAttributes = anchor.getProperties();
-
-            if (pelem != null)
-            {
-                anchor.setActive(true);
-                elementAttributes.put(Constants.ELEMENT_A_ATTRIBUTE_HREF, pelem.getAttribute("href"));
-                elementAttributes.put(Constants.ELEMENT_A_ATTRIBUTE_NAME, pelem.getAttribute("name"));
-                elementAttributes.put(Constants.ELEMENT_A_ATTRIBUTE_TITLE, pelem.getAttribute("title"));
-                String target = pelem.getAttribute("target");
-                if ("".equals(target))
-                {
-                    target = "_self";
-                }
-                elementAttributes.put(Constants.ELEMENT_A_ATTRIBUTE_TARGET, target);
-            }
-            else
-            {
-                anchor.setActive(false);
-                elementAttributes.clear();
-            }
+            anchor = Anchor.INACTIVE;
         }
-
     }
 
     @Override
@@ -144,17 +127,6 @@ public class TextBoxView extends View implements CSSBoxView
             refreshAttributes = true;
             refreshProperties = false;
             container = getContainer();
-            /*if (parent instanceof ElementBoxView)
-            {
-                // avoid a RootView or any other non-SwingBox views
-                Anchor parentAnchor = ((ElementBoxView) parent).getAnchor();
-                if (parentAnchor.isActive())
-                {
-                    // share elementAttributes
-                    anchor.setActive(true);
-                    anchor.getProperties().putAll(parentAnchor.getProperties());
-                }
-            }*/
         }
         else
         {
@@ -177,9 +149,15 @@ public class TextBoxView extends View implements CSSBoxView
     public void changedUpdate(DocumentEvent e, Shape a, ViewFactory f)
     {
         //assume that attributes have changed, reflect changes immediately
-        invalidateProperties();
-        syncProperties();
-        invalidateTextLayout();
+        AttributeSet attr = getElement().getAttributes();
+        if (attr.getAttribute(Constants.ATTRIBUTE_BOX_REFERENCE) != box)
+        {
+            // retargeted to a new layout of the same content
+            loadBox(attr);
+        }
+        // the text is the same, the text layout is recreated when the font changes
+        setPropertiesFromAttributes(attr);
+        invalidateCache();
         super.changedUpdate(e, a, f);
     }
 
@@ -334,9 +312,11 @@ public class TextBoxView extends View implements CSSBoxView
     {
         Graphics2D g = (Graphics2D) gg;
         AffineTransform tmpTransform = g.getTransform();
-        if (!tmpTransform.equals(transform))
+        if (!sameGlyphTransform(tmpTransform, transform))
         {
-            transform = tmpTransform;
+            // only scale and shear affect the glyphs, the translation (e.g. scrolling) does not
+            transform = new AffineTransform(tmpTransform.getScaleX(), tmpTransform.getShearY(),
+                    tmpTransform.getShearX(), tmpTransform.getScaleY(), 0, 0);
             invalidateTextLayout();
         }
 
@@ -713,7 +693,8 @@ public class TextBoxView extends View implements CSSBoxView
     }
 
     /**
-     * Gets the text layout.
+     * Gets the text layout. The layouts are shared among the views using the
+     * {@link TextLayoutCache}.
      *
      * @return the text layout
      */
@@ -722,12 +703,30 @@ public class TextBoxView extends View implements CSSBoxView
         if (refreshTextLayout)
         {
             refreshTextLayout = false;
-            layout = new TextLayout(getText(), getFont(), new FontRenderContext(transform, true, false));
+            layout = TextLayoutCache.getShared().getLayout(getText(), getFont(),
+                    new FontRenderContext(transform, true, false));
         }
 
         return layout;
     }
 
+    /**
+     * Checks whether two transformations have the same effect on glyph
+     * shapes, i.e. whether they differ in the translation only.
+     *
+     * @param t1
+     *            the first transformation
+     * @param t2
+     *            the second transformation
+     * @return true when the scale and shear components are the same
+     */
+    private static boolean sameGlyphTransform(AffineTransform t1, AffineTransform t2)
+    {
+        return t2 != null
+                && t1.getScaleX() == t2.getScaleX() && t1.getScaleY() == t2.getScaleY()
+                && t1.getShearX() == t2.getShearX() && t1.getShearY() == t2.getShearY();
+    }
+
     /**
      * Gets the font.
      *
@@ -0,0 +1,178 @@
+/*
+ * (c) Peter Bielik and Radek Burget, 2011-2012
+ *
+ * SwingBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SwingBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with SwingBox. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.fit.cssbox.swingbox.view;
+
+import org.fit.cssbox.swingbox.util.Constants;
+
+import java.awt.*;
+import java.awt.font.FontRenderContext;
+import java.awt.font.TextLayout;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A shared LRU cache of text layouts. The text layouts are immutable, so the
+ * same instance may be used by all the text views that display the same string
+ * using the same font and font render context. The maximal number of entries
+ * may be set using the {@link Constants#TEXT_LAYOUT_CACHE_SIZE_PROPERTY} system
+ * property.
+ *
+ * @author Radek Burget
+ */
+public class TextLayoutCache
+{
+    private static final int DEFAULT_SIZE = 4096;
+    private static TextLayoutCache shared;
+
+    private final Map<Key, TextLayout> layouts;
+
+    /**
+     * Creates a new cache.
+     *
+     * @param maxEntries
+     *            maximal number of the text layouts kept
+     */
+    public TextLayoutCache(final int maxEntries)
+    {
+        layouts = new LinkedHashMap<Key, TextLayout>(256, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, TextLayout> eldest)
+            {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Gets the cache shared by all the text views.
+     *
+     * @return the shared cache
+     */
+    public static synchronized TextLayoutCache getShared()
+    {
+        if (shared == null)
+        {
+            int size = DEFAULT_SIZE;
+            try
+            {
+                size = Integer.parseInt(System.getProperty(Constants.TEXT_LAYOUT_CACHE_SIZE_PROPERTY,
+                        String.valueOf(DEFAULT_SIZE)));
+            } catch (NumberFormatException ignored)
+            {
+            }
+            shared = new TextLayoutCache(size);
+        }
+        return shared;
+    }
+
+    /**
+     * Obtains the text layout for the given text, creating it when not cached yet.
+     *
+     * @param text
+     *            the text to be laid out, must not be empty
+     * @param font
+     *            the font
+     * @param frc
+     *            the font render context
+     * @return the text layout
+     */
+    public TextLayout getLayout(String text, Font font, FontRenderContext frc)
+    {
+        Key key = new Key(text, font, frc);
+        TextLayout ret;
+        synchronized (layouts)
+        {
+            ret = layouts.get(key);
+        }
+        if (ret == null)
+        {
+            // create outside of the lock; a concurrent duplicate is harmless
+            ret = new TextLayout(text, font, frc);
+            synchronized (layouts)
+            {
+                layouts.put(key, ret);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Removes all the cached text layouts.
+     */
+    public void clear()
+    {
+        synchronized (layouts)
+        {
+            layouts.clear();
+        }
+    }
+
+    /**
+     * Obtains the number of the cached text layouts.
+     *
+     * @return the number of entries
+     */
+    public int size()
+    {
+        synchronized (layouts)
+        {
+            return layouts.size();
+        }
+    }
+
+    //==================================================================================
+
+    private static class Key
+    {
+        private final String text;
+        private final Font font;
+        private final FontRenderContext frc;
+        private final int hash;
+
+        public Key(String text, Font font, FontRenderContext frc)
+        {
+            this.text = text;
+            this.font = font;
+            this.frc = frc;
+            this.hash = 31 * (31 * text.hashCode() + font.hashCode()) + frc.hashCode();
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof Key))
+                return false;
+            Key other = (Key) obj;
+            return hash == other.hash && text.equals(other.text)
+                    && font.equals(other.font) && frc.equals(other.frc);
+        }
+    }
+
+}
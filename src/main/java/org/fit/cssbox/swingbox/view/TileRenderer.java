@@ -0,0 +1,411 @@
+/*
+ * (c) Peter Bielik and Radek Burget, 2011-2012
+ *
+ * SwingBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SwingBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with SwingBox. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.fit.cssbox.swingbox.view;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * Paints a view using a cache of rendered tiles. The painted area is divided
+ * to square tiles of a fixed size that are rendered when they are painted for
+ * the first time. The rendered tiles are kept in an LRU cache bounded by the
+ * memory occupied by the tile images, so that scrolling over a long document
+ * only copies the cached images.
+ * <p>
+ * The tiles are rendered on the painting thread unless an executor is set.
+ * With an executor, the missing tiles are rendered in background and the
+ * component is repainted when they are ready. The painter is then called on
+ * the executor threads while the painted content may be used by other
+ * threads, e.g. the event dispatch thread; the painter is responsible for
+ * synchronizing the access to the content.
+ * <p>
+ * The cache must be invalidated whenever the painted content changes.
+ *
+ * @author Radek Burget
+ */
+public class TileRenderer
+{
+    /**
+     * Paints the content of the tiles.
+     */
+    public interface Painter
+    {
+        /**
+         * Paints the content. The clip of the graphics context is set to the
+         * area of the tile being rendered. The method may be called from the
+         * executor threads, see the class description.
+         *
+         * @param g
+         *            the graphics context
+         * @param allocation
+         *            the allocation of the whole painted view
+         */
+        void paint(Graphics2D g, Rectangle allocation);
+    }
+
+    /**
+     * Receives the tiles when exporting the content.
+     */
+    public interface TileSink
+    {
+        /**
+         * Called for each rendered tile, row by row. The image is reused for
+         * the following tiles, so it must be processed or copied before
+         * returning.
+         *
+         * @param column
+         *            the tile column
+         * @param row
+         *            the tile row
+         * @param bounds
+         *            the area covered by the tile
+         * @param image
+         *            the tile image; its size may exceed the tile bounds for
+         *            the last row and column
+         * @throws IOException
+         *             when the tile could not be processed; the export is
+         *             aborted
+         */
+        void tile(int column, int row, Rectangle bounds, BufferedImage image) throws IOException;
+    }
+
+    private final int tileSize;
+    private final long maxBytes;
+    private final Map<Long, BufferedImage> tiles;
+    private final Set<Long> scheduled;
+    private long bytes;
+    private int generation;
+    private double scale = 1.0;
+    private Executor executor;
+
+    /**
+     * Creates a tile renderer.
+     *
+     * @param tileSize
+     *            the tile width and height in pixels
+     * @param maxBytes
+     *            the maximal memory occupied by the cached tile images
+     */
+    public TileRenderer(int tileSize, long maxBytes)
+    {
+        if (tileSize < 1)
+            throw new IllegalArgumentException("The tile size must be positive");
+        this.tileSize = tileSize;
+        this.maxBytes = maxBytes;
+        tiles = new LinkedHashMap<>(64, 0.75f, true);
+        scheduled = new HashSet<>();
+    }
+
+    /**
+     * Sets the executor used for rendering the missing tiles in background.
+     *
+     * @param executor
+     *            the executor or <code>null</code> for rendering the tiles on
+     *            the painting thread
+     */
+    public synchronized void setExecutor(Executor executor)
+    {
+        this.executor = executor;
+    }
+
+    /**
+     * Gets the tile width and height.
+     *
+     * @return the tile size in pixels
+     */
+    public int getTileSize()
+    {
+        return tileSize;
+    }
+
+    /**
+     * Gets the number of cached tiles.
+     *
+     * @return the tile count
+     */
+    public synchronized int getTileCount()
+    {
+        return tiles.size();
+    }
+
+    /**
+     * Gets the memory occupied by the cached tile images.
+     *
+     * @return the memory size in bytes
+     */
+    public synchronized long getMemoryUsage()
+    {
+        return bytes;
+    }
+
+    /**
+     * Discards all the cached tiles. The tiles being rendered in background
+     * are discarded when finished.
+     */
+    public synchronized void invalidate()
+    {
+        tiles.clear();
+        bytes = 0;
+        generation++;
+    }
+
+    /**
+     * Discards the cached tiles that intersect the given area.
+     *
+     * @param area
+     *            the changed area
+     */
+    public synchronized void invalidate(Rectangle area)
+    {
+        for (Iterator<Map.Entry<Long, BufferedImage>> it = tiles.entrySet().iterator(); it.hasNext();)
+        {
+            Map.Entry<Long, BufferedImage> entry = it.next();
+            if (getTileBounds(entry.getKey()).intersects(area))
+            {
+                bytes -= imageBytes(entry.getValue());
+                it.remove();
+            }
+        }
+        generation++;
+    }
+
+    /**
+     * Paints the given area using the cached tiles. The missing tiles are
+     * rendered using the painter.
+     *
+     * @param g
+     *            the graphics context
+     * @param allocation
+     *            the allocation of the whole painted view
+     * @param painter
+     *            the painter used for rendering the missing tiles
+     * @param target
+     *            the component to be repainted when a tile rendered in
+     *            background is ready, may be <code>null</code>
+     */
+    public void paint(Graphics2D g, Rectangle allocation, Painter painter, Component target)
+    {
+        Rectangle clip = g.getClipBounds();
+        Rectangle area = new Rectangle(0, 0, allocation.x + allocation.width, allocation.y + allocation.height);
+        if (clip != null)
+            area = area.intersection(clip);
+        if (area.isEmpty())
+            return;
+
+        double s = g.getTransform().getScaleX();
+        Executor exec;
+        synchronized (this)
+        {
+            if (s != scale)
+            {
+                // the tiles are rendered for the device resolution
+                invalidate();
+                scale = s;
+            }
+            exec = executor;
+        }
+
+        RenderingHints hints = (RenderingHints) g.getRenderingHints().clone();
+        int c1 = area.x / tileSize;
+        int r1 = area.y / tileSize;
+        int c2 = (area.x + area.width - 1) / tileSize;
+        int r2 = (area.y + area.height - 1) / tileSize;
+        for (int row = r1; row <= r2; row++)
+        {
+            for (int col = c1; col <= c2; col++)
+            {
+                long key = key(col, row);
+                Rectangle bounds = getTileBounds(key);
+                BufferedImage tile;
+                int gen;
+                synchronized (this)
+                {
+                    tile = tiles.get(key);
+                    gen = generation;
+                }
+                if (tile == null)
+                {
+                    if (exec == null)
+                    {
+                        tile = render(bounds, allocation, painter, hints, s);
+                        store(key, tile, gen);
+                    }
+                    else
+                    {
+                        schedule(exec, key, bounds, allocation, painter, hints, s, target);
+                        continue;
+                    }
+                }
+                g.drawImage(tile, bounds.x, bounds.y, bounds.width, bounds.height, null);
+            }
+        }
+    }
+
+    /**
+     * Renders the given area tile by tile and passes the tiles to the sink.
+     * Only a single tile image is allocated regardless of the area size.
+     *
+     * @param painter
+     *            the painter of the content
+     * @param size
+     *            the size of the area to be exported
+     * @param tileSize
+     *            the tile width and height in pixels
+     * @param sink
+     *            the sink that receives the tiles
+     * @throws IOException
+     *             when the sink fails
+     */
+    public static void export(Painter painter, Dimension size, int tileSize, TileSink sink) throws IOException
+    {
+        Rectangle allocation = new Rectangle(size);
+        BufferedImage img = new BufferedImage(tileSize, tileSize, BufferedImage.TYPE_INT_ARGB);
+        int cols = (size.width + tileSize - 1) / tileSize;
+        int rows = (size.height + tileSize - 1) / tileSize;
+        for (int row = 0; row < rows; row++)
+        {
+            for (int col = 0; col < cols; col++)
+            {
+                Rectangle bounds = new Rectangle(col * tileSize, row * tileSize, tileSize, tileSize)
+                        .intersection(allocation);
+                Graphics2D g = img.createGraphics();
+                try
+                {
+                    g.setComposite(AlphaComposite.Clear);
+                    g.fillRect(0, 0, tileSize, tileSize);
+                    g.setComposite(AlphaComposite.SrcOver);
+                    g.translate(-bounds.x, -bounds.y);
+                    g.setClip(bounds);
+                    painter.paint(g, allocation);
+                } finally
+                {
+                    g.dispose();
+                }
+                sink.tile(col, row, bounds, img);
+            }
+        }
+    }
+
+    //==================================================================================
+
+    private void schedule(Executor exec, long key, Rectangle bounds, Rectangle allocation, Painter painter,
+            RenderingHints hints, double s, Component target)
+    {
+        final int gen;
+        synchronized (this)
+        {
+            if (!scheduled.add(key))
+                return;
+            gen = generation;
+        }
+        final Rectangle alloc = new Rectangle(allocation);
+        exec.execute(() -> {
+            try
+            {
+                boolean current;
+                synchronized (this)
+                {
+                    current = (gen == generation);
+                }
+                if (current)
+                {
+                    BufferedImage tile = render(bounds, alloc, painter, hints, s);
+                    if (store(key, tile, gen) && target != null)
+                        target.repaint(bounds.x, bounds.y, bounds.width, bounds.height);
+                }
+                else if (target != null)
+                {
+                    // invalidated meanwhile, let the next paint schedule it again
+                    target.repaint(bounds.x, bounds.y, bounds.width, bounds.height);
+                }
+            } finally
+            {
+                synchronized (this)
+                {
+                    scheduled.remove(key);
+                }
+            }
+        });
+    }
+
+    private BufferedImage render(Rectangle bounds, Rectangle allocation, Painter painter, RenderingHints hints, double s)
+    {
+        int w = (int) Math.ceil(bounds.width * s);
+        int h = (int) Math.ceil(bounds.height * s);
+        BufferedImage img = new BufferedImage(Math.max(1, w), Math.max(1, h), BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = img.createGraphics();
+        try
+        {
+            g.setRenderingHints(hints);
+            g.scale(s, s);
+            g.translate(-bounds.x, -bounds.y);
+            g.setClip(bounds);
+            painter.paint(g, allocation);
+        } finally
+        {
+            g.dispose();
+        }
+        return img;
+    }
+
+    private synchronized boolean store(long key, BufferedImage tile, int gen)
+    {
+        if (gen != generation)
+            return false;
+        BufferedImage old = tiles.put(key, tile);
+        if (old != null)
+            bytes -= imageBytes(old);
+        bytes += imageBytes(tile);
+        for (Iterator<BufferedImage> it = tiles.values().iterator(); bytes > maxBytes && it.hasNext();)
+        {
+            BufferedImage eldest = it.next();
+            if (eldest != tile)
+            {
+                bytes -= imageBytes(eldest);
+                it.remove();
+            }
+        }
+        return true;
+    }
+
+    private Rectangle getTileBounds(long key)
+    {
+        int col = (int) (key >> 32);
+        int row = (int) key;
+        return new Rectangle(col * tileSize, row * tileSize, tileSize, tileSize);
+    }
+
+    private static long key(int col, int row)
+    {
+        return ((long) col << 32) | (row & 0xffffffffL);
+    }
+
+    private static long imageBytes(BufferedImage img)
+    {
+        return 4L * img.getWidth() * img.getHeight();
+    }
+
+}
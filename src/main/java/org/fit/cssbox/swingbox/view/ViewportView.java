@@ -22,19 +22,39 @@ import org.fit.cssbox.swingbox.SwingBoxDocument;
 import org.fit.cssbox.swingbox.SwingBoxEditorKit;
 
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultStyledDocument.ElementSpec;
 import javax.swing.text.Document;
 import javax.swing.text.EditorKit;
 import javax.swing.text.Element;
+import javax.swing.text.Position;
 import javax.swing.text.View;
+import javax.swing.text.ViewFactory;
 import java.awt.*;
 import java.awt.event.ComponentEvent;
 import java.awt.event.ComponentListener;
 import java.io.IOException;
 import java.lang.ref.Reference;
 import java.lang.ref.WeakReference;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * The Class ViewportView.
+ * <p>
+ * When the size of the enclosing viewport changes, the resize events are
+ * coalesced and the new layout is computed in a background worker. Only the
+ * result of the latest resize is used; it replaces the document contents on
+ * the event dispatch thread.
+ * <p>
+ * When a {@link TileRenderer} with an executor is used, the tiles are painted
+ * by the views outside of the event dispatch thread while the views are
+ * queried and updated on the event dispatch thread. The views keep mutable
+ * state, e.g. the lazily created child indices and the query buffers, so all
+ * the operations that descend the view tree are serialized by a single view
+ * lock held by this view. The lock is always acquired after the document lock.
  * 
  * @author Peter Bielik
  * @version 1.0
@@ -42,9 +62,25 @@ import java.lang.ref.WeakReference;
  */
 public class ViewportView extends BlockBoxView implements ComponentListener
 {
+    /** the delay after the last resize event before the relayout starts [ms] */
+    private static final int RESIZE_DELAY = 150;
+
     private Reference<JViewport> cachedViewPort;
     private JEditorPane editor;
     private final Dimension tmpDimension;
+    private BoxIndex boxIndex;
+    /** the number of child views examined during the last paint */
+    private int visitedViews;
+    /** coalesces the resize events */
+    private Timer resizeTimer;
+    /** the last size reported by the viewport */
+    private final Dimension pendingSize;
+    /** the number of the latest relayout request; older results are discarded */
+    private final AtomicInteger layoutGeneration;
+    /** the cache of the rendered tiles, if used */
+    private volatile TileRenderer tileRenderer;
+    /** serializes the access to the view tree, see the class description */
+    private final Object viewLock = new Object();
 
     /**
      * Instantiates a new viewport view.
@@ -56,6 +92,8 @@ public class ViewportView extends BlockBoxView implements ComponentListener
     {
         super(elem);
         tmpDimension = new Dimension();
+        pendingSize = new Dimension();
+        layoutGeneration = new AtomicInteger();
     }
 
     @Override
@@ -80,9 +118,130 @@ public class ViewportView extends BlockBoxView implements ComponentListener
         else
             throw new RuntimeException("Unknown graphics enviroment, java.awt.Graphics2D required !");
         
-        box.getVisualContext().updateGraphics(g);
-        box.drawBackground(g);
-        super.paint(graphics, allocation);
+        TileRenderer tiles = tileRenderer;
+        if (tiles != null)
+            tiles.paint(g, allocation.getBounds(), this::paintTile, getContainer());
+        else
+            paintContent(g, allocation);
+    }
+
+    /**
+     * Paints the whole content of the viewport without using the tile cache.
+     *
+     * @param graphics
+     *            the graphics context
+     * @param allocation
+     *            the allocated region
+     */
+    public void paintContent(Graphics graphics, Shape allocation)
+    {
+        synchronized (viewLock)
+        {
+            Graphics2D g = (Graphics2D) graphics;
+            visitedViews = 0;
+            box.getVisualContext().updateGraphics(g);
+            box.drawBackground(g);
+            super.paint(graphics, allocation);
+        }
+    }
+
+    private void paintTile(Graphics2D g, Rectangle allocation)
+    {
+        // the tiles may be rendered outside of the event dispatch thread,
+        // paintContent() holds the view lock
+        Document doc = getDocument();
+        if (doc instanceof AbstractDocument)
+        {
+            ((AbstractDocument) doc).readLock();
+            try
+            {
+                if (getParent() != null)
+                    paintContent(g, allocation);
+            } finally
+            {
+                ((AbstractDocument) doc).readUnlock();
+            }
+        }
+        else
+            paintContent(g, allocation);
+    }
+
+    /**
+     * Sets the tile renderer used for painting the viewport. The tile cache
+     * is invalidated whenever the document changes.
+     *
+     * @param renderer
+     *            the tile renderer or <code>null</code> for painting the
+     *            views directly
+     */
+    public void setTileRenderer(TileRenderer renderer)
+    {
+        tileRenderer = renderer;
+        invalidateTiles();
+    }
+
+    /**
+     * Obtains the tile renderer used for painting the viewport.
+     *
+     * @return the tile renderer or <code>null</code> when not used
+     */
+    public TileRenderer getTileRenderer()
+    {
+        return tileRenderer;
+    }
+
+    /**
+     * Discards the cached tiles of the whole viewport.
+     */
+    public void invalidateTiles()
+    {
+        if (tileRenderer != null)
+            tileRenderer.invalidate();
+    }
+
+    /**
+     * Notifies the viewport that the content of the given area has changed
+     * without any change of the layout, e.g. an image has been loaded.
+     *
+     * @param area
+     *            the changed area
+     */
+    public void contentUpdated(Rectangle area)
+    {
+        if (tileRenderer != null)
+            tileRenderer.invalidate(area);
+        Container c = getContainer();
+        if (c != null)
+            c.repaint(area.x, area.y, area.width, area.height);
+    }
+
+    /**
+     * Obtains the number of views that have been examined during the last
+     * paint of the viewport. With clip culling, this number is proportional
+     * to the painted area rather than to the document size.
+     * 
+     * @return the number of views examined
+     */
+    public int getVisitedViewCount()
+    {
+        synchronized (viewLock)
+        {
+            return visitedViews;
+        }
+    }
+
+    /**
+     * Counts a view examined during painting.
+     */
+    void viewVisited()
+    {
+        visitedViews++;
+    }
+
+    @Override
+    protected ViewportView getViewportView()
+    {
+        return this;
     }
 
     @Override
@@ -91,6 +250,205 @@ public class ViewportView extends BlockBoxView implements ComponentListener
         return true;
     }
 
+    @Override
+    public Shape modelToView(int pos, Shape a, Position.Bias b) throws BadLocationException
+    {
+        synchronized (viewLock)
+        {
+            // find the leaf view directly instead of descending the view tree
+            BoxIndex index = getBoxIndex();
+            int testPos = (b == Position.Bias.Backward) ? Math.max(0, pos - 1) : pos;
+            int i = index.findLeafIndex(testPos);
+            Rectangle alloc = new Rectangle();
+            if (i != -1 && index.getLeafBounds(index.getLeaf(i), alloc))
+            {
+                View leaf = index.getLeaf(i);
+                Shape ret = leaf.modelToView(pos, alloc, b);
+                if (ret == null && leaf.getEndOffset() == pos && i + 1 < index.getLeafCount())
+                {
+                    leaf = index.getLeaf(i + 1);
+                    if (index.getLeafBounds(leaf, alloc))
+                        ret = leaf.modelToView(pos, alloc, b);
+                }
+                return ret;
+            }
+            return super.modelToView(pos, a, b);
+        }
+    }
+
+    @Override
+    public Shape modelToView(int p0, Position.Bias b0, int p1, Position.Bias b1, Shape a)
+            throws BadLocationException
+    {
+        synchronized (viewLock)
+        {
+            return super.modelToView(p0, b0, p1, b1, a);
+        }
+    }
+
+    @Override
+    public int viewToModel(float x, float y, Shape a, Position.Bias[] bias)
+    {
+        synchronized (viewLock)
+        {
+            // the topmost leaf at the point is found in the box index
+            Rectangle alloc = getInsideAllocation(a);
+            if (!isBefore((int) x, (int) y, alloc) && !isAfter((int) x, (int) y, alloc))
+            {
+                BoxIndex index = getBoxIndex();
+                View leaf = index.findLeafAt((int) x, (int) y);
+                if (leaf != null && index.getLeafBounds(leaf, alloc))
+                    return leaf.viewToModel(x, y, alloc, bias);
+            }
+            return super.viewToModel(x, y, a, bias);
+        }
+    }
+
+    @Override
+    public int getNextVisualPositionFrom(int pos, Position.Bias b, Shape a, int direction,
+            Position.Bias[] biasRet) throws BadLocationException
+    {
+        synchronized (viewLock)
+        {
+            return super.getNextVisualPositionFrom(pos, b, a, direction, biasRet);
+        }
+    }
+
+    @Override
+    public int getViewIndex(float x, float y, Shape allocation)
+    {
+        synchronized (viewLock)
+        {
+            return super.getViewIndex(x, y, allocation);
+        }
+    }
+
+    @Override
+    public Shape getChildAllocation(int index, Shape a)
+    {
+        synchronized (viewLock)
+        {
+            return super.getChildAllocation(index, a);
+        }
+    }
+
+    @Override
+    public String getToolTipText(float x, float y, Shape allocation)
+    {
+        synchronized (viewLock)
+        {
+            return super.getToolTipText(x, y, allocation);
+        }
+    }
+
+    @Override
+    public float getPreferredSpan(int axis)
+    {
+        synchronized (viewLock)
+        {
+            return super.getPreferredSpan(axis);
+        }
+    }
+
+    @Override
+    public float getMinimumSpan(int axis)
+    {
+        synchronized (viewLock)
+        {
+            return super.getMinimumSpan(axis);
+        }
+    }
+
+    @Override
+    public float getMaximumSpan(int axis)
+    {
+        synchronized (viewLock)
+        {
+            return super.getMaximumSpan(axis);
+        }
+    }
+
+    @Override
+    public void setSize(float width, float height)
+    {
+        synchronized (viewLock)
+        {
+            super.setSize(width, height);
+        }
+    }
+
+    /**
+     * Obtains the spatial index of the boxes of the current layout. The index
+     * is created on first use.
+     * 
+     * @return the box index
+     */
+    public BoxIndex getBoxIndex()
+    {
+        synchronized (viewLock)
+        {
+            if (boxIndex == null)
+                boxIndex = new BoxIndex(this);
+            return boxIndex;
+        }
+    }
+
+    /**
+     * Discards the box index. It is created again for the current layout
+     * when needed.
+     */
+    public void invalidateBoxIndex()
+    {
+        synchronized (viewLock)
+        {
+            boxIndex = null;
+        }
+    }
+
+    @Override
+    public void replace(int offset, int length, View[] views)
+    {
+        synchronized (viewLock)
+        {
+            super.replace(offset, length, views);
+            invalidateBoxIndex();
+        }
+        invalidateTiles();
+    }
+
+    @Override
+    public void insertUpdate(DocumentEvent e, Shape a, ViewFactory f)
+    {
+        synchronized (viewLock)
+        {
+            super.insertUpdate(e, a, f);
+        }
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent e, Shape a, ViewFactory f)
+    {
+        synchronized (viewLock)
+        {
+            super.removeUpdate(e, a, f);
+        }
+    }
+
+    @Override
+    public void changedUpdate(DocumentEvent e, Shape a, ViewFactory f)
+    {
+        synchronized (viewLock)
+        {
+            super.changedUpdate(e, a, f);
+            // the views may have been retargeted to a new layout, see SwingBoxDocument.update()
+            invalidateBoxIndex();
+        }
+        invalidateTiles();
+        Container c = getContainer();
+        if (c != null)
+            c.repaint();
+    }
+
     private void hook()
     {
         Container container = getContainer();
@@ -140,6 +498,11 @@ public class ViewportView extends BlockBoxView implements ComponentListener
 
     private void unhook()
     {
+        if (resizeTimer != null)
+            resizeTimer.stop();
+        // discard the pending relayouts
+        layoutGeneration.incrementAndGet();
+        
         if (cachedViewPort != null)
         {
             JComponent cachedObject;
@@ -155,7 +518,12 @@ public class ViewportView extends BlockBoxView implements ComponentListener
     public void setParent(View parent)
     {
         // do what we need
-        super.setParent(parent);
+        synchronized (viewLock)
+        {
+            super.setParent(parent);
+            invalidateBoxIndex();
+        }
+        invalidateTiles();
         if (parent == null)
         {
             unhook();
@@ -172,7 +540,13 @@ public class ViewportView extends BlockBoxView implements ComponentListener
     {
         if ((e.getSource() instanceof JViewport))
         {
-            checkSize(((JViewport) e.getSource()).getSize());
+            pendingSize.setSize(((JViewport) e.getSource()).getSize());
+            if (resizeTimer == null)
+            {
+                resizeTimer = new Timer(RESIZE_DELAY, ev -> checkSize(pendingSize));
+                resizeTimer.setRepeats(false);
+            }
+            resizeTimer.restart();
         }
     }
 
@@ -208,29 +582,101 @@ public class ViewportView extends BlockBoxView implements ComponentListener
                 return doLayout((SwingBoxDocument) doc, tmpDimension);
             }
         }
+        else
+        {
+            // back to the current size, the pending relayouts are not needed anymore
+            layoutGeneration.incrementAndGet();
+        }
 
         return false;
     }
 
     private boolean doLayout(SwingBoxDocument doc, Dimension dim)
     {
-        try
+        EditorKit kit = editor.getEditorKit();
+
+        if (kit instanceof SwingBoxEditorKit)
         {
-            EditorKit kit = editor.getEditorKit();
+            int generation = layoutGeneration.incrementAndGet();
+            new LayoutWorker((SwingBoxEditorKit) kit, doc, new Dimension(dim), generation).execute();
+            return true;
+        }
+
+        return false;
+    }
 
-            if (kit instanceof SwingBoxEditorKit)
+    /**
+     * Computes the new layout in background and swaps it to the document
+     * when it is still the latest one.
+     */
+    private class LayoutWorker extends SwingWorker<ElementSpec[], Void>
+    {
+        private final SwingBoxEditorKit kit;
+        private final SwingBoxDocument doc;
+        private final Dimension dim;
+        private final int generation;
+
+        public LayoutWorker(SwingBoxEditorKit kit, SwingBoxDocument doc, Dimension dim, int generation)
+        {
+            this.kit = kit;
+            this.doc = doc;
+            this.dim = dim;
+            this.generation = generation;
+        }
+
+        private boolean isStale()
+        {
+            return generation != layoutGeneration.get();
+        }
+
+        @Override
+        protected ElementSpec[] doInBackground() throws Exception
+        {
+            synchronized (kit.getCSSBoxAnalyzer(doc))
             {
-                ((SwingBoxEditorKit) kit).update(doc, dim);
+                // a newer size may have arrived while waiting for the analyzer
+                if (isStale())
+                    return null;
+                return kit.computeUpdate(doc, dim);
             }
+        }
 
-            preferenceChanged(null, true, true);
-            return true;
-        } 
-        catch (IOException ignored )
+        @Override
+        protected void done()
         {
+            if (isStale() || getDocument() != doc)
+                return;
+            try
+            {
+                ElementSpec[] elements = get();
+                if (elements != null)
+                {
+                    kit.applyUpdate(doc, elements);
+                    invalidateBoxIndex();
+                    preferenceChanged(null, true, true);
+                }
+            } catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e)
+            {
+                // the background layout failed, try it again synchronously
+                // rather than keeping the stale layout
+                try
+                {
+                    synchronized (kit.getCSSBoxAnalyzer(doc))
+                    {
+                        kit.update(doc, dim);
+                    }
+                    invalidateBoxIndex();
+                    preferenceChanged(null, true, true);
+                } catch (IOException | RuntimeException ex)
+                {
+                    ex.addSuppressed((e.getCause() != null) ? e.getCause() : e);
+                    kit.reportError(doc, ex);
+                }
+            }
         }
-
-        return false;
     }
     
 }
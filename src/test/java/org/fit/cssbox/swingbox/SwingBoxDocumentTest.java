@@ -0,0 +1,223 @@
+/*
+ * (c) Peter Bielik and Radek Burget, 2011-2012
+ *
+ * SwingBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SwingBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with SwingBox. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.fit.cssbox.swingbox;
+
+import org.fit.cssbox.layout.Box;
+import org.fit.cssbox.swingbox.util.Constants;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultStyledDocument.ElementSpec;
+import javax.swing.text.Element;
+import java.awt.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the incremental update of a document laid out again.
+ *
+ * @author Radek Burget
+ */
+public class SwingBoxDocumentTest
+{
+    private static final String PAGE = "<html><body>"
+            + "<h1 id='title'>Title</h1>"
+            + "<p id='text'>The quick brown fox jumps over the lazy dog. "
+            + "The quick brown fox jumps over the lazy dog. "
+            + "The quick brown fox jumps over the lazy dog.</p>"
+            + "</body></html>";
+
+    private BrowserPane pane;
+    private SwingBoxDocument doc;
+    private SwingBoxEditorKit kit;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        SwingUtilities.invokeAndWait(() -> {
+            pane = new BrowserPane();
+            pane.setSize(600, 400);
+            pane.setText(PAGE);
+            doc = (SwingBoxDocument) pane.getDocument();
+            kit = (SwingBoxEditorKit) pane.getEditorKit();
+        });
+    }
+
+    @Test
+    public void updateRetargetsElements() throws Exception
+    {
+        SwingUtilities.invokeAndWait(() -> {
+            Element title = doc.getReferencedElement("title");
+            Element text = doc.getReferencedElement("text");
+            Box oldBox = getBox(text);
+
+            assertTrue(kit.applyUpdate(doc, computeUpdate(200)));
+
+            // the elements are kept and point to the boxes of the new layout
+            assertSame(title, doc.getReferencedElement("title"));
+            assertSame(text, doc.getReferencedElement("text"));
+            assertNotSame(oldBox, getBox(text));
+            assertTrue(oldBox.getContentWidth() > 200);
+            assertTrue(getBox(text).getContentWidth() <= 200);
+        });
+    }
+
+    @Test
+    public void updateReportsReplacedText() throws Exception
+    {
+        SwingUtilities.invokeAndWait(() -> {
+            // a copy of the text kept up to date by the document events only
+            StringBuilder copy = new StringBuilder(getText());
+            int[] events = new int[2];
+            doc.addDocumentListener(new DocumentListener()
+            {
+                @Override
+                public void insertUpdate(DocumentEvent e)
+                {
+                    events[0]++;
+                    try
+                    {
+                        copy.insert(e.getOffset(), doc.getText(e.getOffset(), e.getLength()));
+                    } catch (BadLocationException ex)
+                    {
+                        throw new AssertionError(ex);
+                    }
+                }
+
+                @Override
+                public void removeUpdate(DocumentEvent e)
+                {
+                    events[1]++;
+                    copy.delete(e.getOffset(), e.getOffset() + e.getLength());
+                }
+
+                @Override
+                public void changedUpdate(DocumentEvent e)
+                {
+                }
+            });
+
+            assertTrue(kit.applyUpdate(doc, computeUpdate(200)));
+
+            // the lines of the paragraph are broken differently
+            assertTrue(events[0] > 0);
+            assertEquals(events[0], events[1]);
+            assertEquals(getText(), copy.toString());
+        });
+    }
+
+    @Test
+    public void referencedElementsAreFound() throws Exception
+    {
+        SwingUtilities.invokeAndWait(() -> {
+            pane.setText("<html><body>"
+                    + "<h1 id='Intro'>Introduction</h1>"
+                    + "<p id='dup'>first</p><p id='dup'>second</p>"
+                    + "<p><a name='link'>named link</a></p>"
+                    + "<p><a name='both'>link first</a></p><p id='both'>id second</p>"
+                    + "<p><a name='Name'>case</a></p>"
+                    + "</body></html>");
+            doc = (SwingBoxDocument) pane.getDocument();
+
+            // the ids are case insensitive
+            assertEquals("Intro", getId(doc.getReferencedElement("intro")));
+            assertSame(doc.getReferencedElement("Intro"), doc.getReferencedElement("INTRO"));
+            // the first element is found for a duplicate reference
+            assertEquals("first", getText(doc.getReferencedElement("dup")));
+            assertEquals("named link", getText(doc.getReferencedElement("link")));
+            assertEquals("link first", getText(doc.getReferencedElement("both")));
+            // the link names are case sensitive
+            assertEquals("case", getText(doc.getReferencedElement("Name")));
+            assertNull(doc.getReferencedElement("name"));
+            assertNull(doc.getReferencedElement("missing"));
+        });
+    }
+
+    @Test
+    public void referencedElementsAreFoundAfterUpdate() throws Exception
+    {
+        SwingUtilities.invokeAndWait(() -> {
+            assertNotNull(doc.getReferencedElement("text"));
+            assertTrue(kit.applyUpdate(doc, computeUpdate(200)));
+            assertEquals("text", getId(doc.getReferencedElement("text")));
+            assertTrue(getText(doc.getReferencedElement("text")).startsWith("The quick brown fox"));
+
+            // the document created again is indexed again
+            doc.create(computeUpdate(300));
+            assertEquals("text", getId(doc.getReferencedElement("text")));
+            assertEquals("title", getId(doc.getReferencedElement("TITLE")));
+        });
+    }
+
+    private ElementSpec[] computeUpdate(int width)
+    {
+        try
+        {
+            return kit.computeUpdate(doc, new Dimension(width, 400));
+        } catch (java.io.IOException e)
+        {
+            throw new AssertionError(e);
+        }
+    }
+
+    private String getText()
+    {
+        try
+        {
+            return doc.getText(0, doc.getLength());
+        } catch (BadLocationException e)
+        {
+            throw new AssertionError(e);
+        }
+    }
+
+    private String getText(Element elem)
+    {
+        assertNotNull(elem);
+        try
+        {
+            return doc.getText(elem.getStartOffset(), elem.getEndOffset() - elem.getStartOffset()).trim();
+        } catch (BadLocationException e)
+        {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static String getId(Element elem)
+    {
+        assertNotNull(elem);
+        return (String) elem.getAttributes().getAttribute(Constants.ATTRIBUTE_ELEMENT_ID);
+    }
+
+    private static Box getBox(Element elem)
+    {
+        Box box = (Box) elem.getAttributes().getAttribute(Constants.ATTRIBUTE_BOX_REFERENCE);
+        assertNotNull(box);
+        return box;
+    }
+}
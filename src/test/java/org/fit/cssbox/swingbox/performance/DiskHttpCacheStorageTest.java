@@ -0,0 +1,91 @@
+/*
+ * Copyright 2020 White Magic Software, Ltd.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.fit.cssbox.swingbox.performance;
+
+import org.apache.http.Header;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.cache.HttpCacheEntry;
+import org.apache.http.impl.client.cache.HeapResource;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.message.BasicStatusLine;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Date;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks that the entries survive a restart of the storage unchanged.
+ */
+public class DiskHttpCacheStorageTest {
+  @Rule
+  public final TemporaryFolder mFolder = new TemporaryFolder();
+
+  @Test
+  public void test_PutEntry_LongHeaders_EntryRestored() throws Exception {
+    // longer than the 64 KiB limit of DataOutputStream.writeUTF
+    final var cookie = "id=" + "éx".repeat( 40_000 );
+    final var key = "http://example.com/" + "k".repeat( 70_000 );
+    final var body = "<html></html>".getBytes( UTF_8 );
+    final var entry = new HttpCacheEntry(
+        new Date( 1000 ), new Date( 2000 ),
+        new BasicStatusLine( HttpVersion.HTTP_1_1, 200, "OK" ),
+        new Header[]{
+            new BasicHeader( "Content-Type", "text/html" ),
+            new BasicHeader( "Set-Cookie", cookie )
+        },
+        new HeapResource( body ),
+        Map.of( "variant", "x".repeat( 70_000 ) ) );
+
+    final var dir = mFolder.getRoot().toPath();
+    new DiskHttpCacheStorage( dir, 10_000_000 ).putEntry( key, entry );
+
+    final var storage = new DiskHttpCacheStorage( dir, 10_000_000 );
+    final var restored = storage.getEntry( key );
+    assertNotNull( restored );
+    assertEquals( 1, storage.getEntryCount() );
+    assertEquals( entry.getRequestDate(), restored.getRequestDate() );
+    assertEquals( entry.getResponseDate(), restored.getResponseDate() );
+    assertEquals( 200, restored.getStatusCode() );
+    assertEquals( "OK", restored.getReasonPhrase() );
+    assertEquals( cookie, restored.getFirstHeader( "Set-Cookie" ).getValue() );
+    assertEquals( "text/html",
+                  restored.getFirstHeader( "Content-Type" ).getValue() );
+    assertEquals( entry.getVariantMap(), restored.getVariantMap() );
+    assertArrayEquals(
+        body, restored.getResource().getInputStream().readAllBytes() );
+    assertNull( storage.getEntry( "http://example.com/other" ) );
+  }
+}
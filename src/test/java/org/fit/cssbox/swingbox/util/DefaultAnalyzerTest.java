@@ -0,0 +1,157 @@
+/*
+ * (c) Peter Bielik and Radek Burget, 2011-2012
+ *
+ * SwingBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SwingBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with SwingBox. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.fit.cssbox.swingbox.util;
+
+import com.sun.net.httpserver.HttpServer;
+import org.fit.cssbox.layout.BlockBox;
+import org.fit.cssbox.layout.ElementBox;
+import org.fit.cssbox.layout.Viewport;
+import org.fit.cssbox.swingbox.performance.FastDocumentSource;
+import org.fit.cssbox.swingbox.performance.ResourceLoader;
+import org.fit.cssbox.swingbox.performance.ResourcePrefetcher;
+import org.fit.cssbox.swingbox.performance.StyleSheetCache;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.*;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the resources of an analyzed document are not downloaded
+ * more than once and the user agent style sheets are not parsed again.
+ *
+ * @author Radek Burget
+ */
+public class DefaultAnalyzerTest
+{
+    private static final String PAGE = "<html><head>"
+            + "<link rel='stylesheet' href='a.css'>"
+            + "<style>@import 'b.css';</style>"
+            + "</head><body><p>text</p></body></html>";
+
+    private final Map<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+    private HttpServer server;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            String path = exchange.getRequestURI().getPath();
+            requests.computeIfAbsent(path, p -> new AtomicInteger()).incrementAndGet();
+            String body = path.endsWith(".css") ? "p { color: red }" : PAGE;
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type",
+                    path.endsWith(".css") ? "text/css" : "text/html; charset=utf-8");
+            exchange.sendResponseHeaders(200, bytes.length);
+            exchange.getResponseBody().write(bytes);
+            exchange.close();
+        });
+        server.start();
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void tearDown()
+    {
+        executor.shutdownNow();
+        server.stop(0);
+    }
+
+    @Test
+    public void styleSheetsAreRequestedOnce() throws Exception
+    {
+        assertFalse("the test expects the default network processor",
+                ResourceLoader.isNetworkProcessorInstalled());
+
+        URL page = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/page.html");
+        DefaultAnalyzer analyzer = new DefaultAnalyzer();
+        analyzer.setLayoutCache(null);
+        analyzer.setPrefetcher(new ResourcePrefetcher(ResourceLoader.getDefault(), executor));
+        analyzer.analyze(new FastDocumentSource(page), new Dimension(400, 300));
+
+        // the background requests of the prefetcher are counted as well
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(1, count("/page.html"));
+        assertEquals(1, count("/a.css"));
+        assertEquals(1, count("/b.css"));
+    }
+
+    @Test
+    public void agentStyleSheetsAreParsedOnce() throws Exception
+    {
+        URL page = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/page.html");
+        StyleSheetCache cache = StyleSheetCache.getInstance();
+        analyze(page);
+        long misses = cache.getMissCount();
+        long hits = cache.getHitCount();
+
+        Viewport viewport = analyze(page);
+        assertEquals(misses, cache.getMissCount());
+        assertEquals(hits + 2, cache.getHitCount());
+        // the paragraph is a block thanks to the user agent style sheet
+        assertTrue(findBox(viewport, "p") instanceof BlockBox);
+    }
+
+    private Viewport analyze(URL page) throws Exception
+    {
+        DefaultAnalyzer analyzer = new DefaultAnalyzer();
+        analyzer.setLayoutCache(null);
+        analyzer.setPrefetcher(null);
+        return analyzer.analyze(new FastDocumentSource(page), new Dimension(400, 300));
+    }
+
+    private static ElementBox findBox(ElementBox box, String name)
+    {
+        if (name.equals(box.getElement().getNodeName()))
+            return box;
+        for (int i = box.getStartChild(); i < box.getEndChild(); i++)
+        {
+            if (box.getSubBox(i) instanceof ElementBox)
+            {
+                ElementBox ret = findBox((ElementBox) box.getSubBox(i), name);
+                if (ret != null)
+                    return ret;
+            }
+        }
+        return null;
+    }
+
+    private int count(String path)
+    {
+        AtomicInteger ret = requests.get(path);
+        return (ret == null) ? 0 : ret.get();
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * (c) Peter Bielik and Radek Burget, 2011-2012
+ *
+ * SwingBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SwingBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with SwingBox. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.fit.cssbox.swingbox.util;
+
+import org.fit.cssbox.swingbox.BrowserPane;
+import org.fit.cssbox.swingbox.SwingBoxDocument;
+import org.fit.cssbox.swingbox.SwingBoxEditorKit;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.swing.*;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Highlighter;
+import java.awt.*;
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the search in the plain text of a document and the highlighting
+ * of the occurrences found.
+ *
+ * @author Radek Burget
+ */
+public class TextIndexTest
+{
+    private static final String PAGE = "<html><body>"
+            + "<p>Hello <b>World</b>, hello again.</p>"
+            + "<p>The quick brown fox jumps over the lazy dog, "
+            + "the quick brown fox jumps over the lazy dog.</p>"
+            + "<p>aaaa</p>"
+            + "</body></html>";
+
+    private BrowserPane pane;
+    private SwingBoxDocument doc;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        SwingUtilities.invokeAndWait(() -> {
+            pane = new BrowserPane();
+            pane.setSize(600, 400);
+            pane.setText(PAGE);
+            doc = (SwingBoxDocument) pane.getDocument();
+        });
+    }
+
+    @Test
+    public void textOfBoxesIsIndexed() throws Exception
+    {
+        SwingUtilities.invokeAndWait(() -> {
+            TextIndex index = doc.getTextIndex();
+            // the case is folded, the paragraphs are separated by a space
+            assertTrue(index.getText(), index.getText().startsWith("hello world, hello again. the quick"));
+            assertTrue(index.getText(), index.getText().endsWith("lazy dog. aaaa"));
+            // kept until the document changes
+            assertSame(index, doc.getTextIndex());
+        });
+    }
+
+    @Test
+    public void occurrencesAreFound() throws Exception
+    {
+        SwingUtilities.invokeAndWait(() -> {
+            TextIndex index = doc.getTextIndex();
+            String text = index.getText();
+            int[] hits = index.find("HELLO");
+            assertEquals(2, hits.length);
+            assertEquals(text.indexOf("hello"), hits[0]);
+            assertEquals(text.lastIndexOf("hello"), hits[1]);
+            assertEquals(0, index.find("missing").length);
+            assertEquals(0, index.find("").length);
+
+            // the occurrences overlap until removed
+            int[] overlapping = index.find("aa");
+            assertEquals(3, overlapping.length);
+            assertArrayEquals(new int[] { overlapping[0], overlapping[2] },
+                    TextIndex.removeOverlaps(overlapping, 2));
+
+            // the incremental search gives the same results as a new one
+            int[] prefix = index.find("the q");
+            assertArrayEquals(index.find("the quick brown"),
+                    index.find("the quick brown", "the q", prefix));
+            assertArrayEquals(index.find("lazy"), index.find("lazy", "the q", prefix));
+        });
+    }
+
+    @Test
+    public void occurrencesAreHighlighted() throws Exception
+    {
+        SwingUtilities.invokeAndWait(() -> {
+            assertEquals(4, pane.find("the"));
+            for (int i = 0; i < 4; i++)
+                assertEquals("the", getText(pane.getSearchHitStart(i), pane.getSearchHitEnd(i)).toLowerCase());
+            assertEquals(1, countSearchHighlights());
+
+            // an occurrence spanning several boxes
+            assertEquals(1, pane.find("hello world"));
+            String hit = getText(pane.getSearchHitStart(0), pane.getSearchHitEnd(0));
+            assertTrue(hit, hit.startsWith("Hello") && hit.endsWith("World"));
+
+            pane.clearSearch();
+            assertEquals(0, pane.getSearchHitCount());
+            assertEquals(0, countSearchHighlights());
+        });
+    }
+
+    @Test
+    public void highlightFollowsRelayout() throws Exception
+    {
+        SwingUtilities.invokeAndWait(() -> {
+            assertEquals(2, pane.find("fox"));
+            SwingBoxEditorKit kit = (SwingBoxEditorKit) pane.getEditorKit();
+            try
+            {
+                assertTrue(kit.applyUpdate(doc, kit.computeUpdate(doc, new Dimension(150, 400))));
+            } catch (IOException e)
+            {
+                throw new AssertionError(e);
+            }
+        });
+        // the search is refreshed later on the event dispatch thread
+        SwingUtilities.invokeAndWait(() -> {
+        });
+        SwingUtilities.invokeAndWait(() -> {
+            assertEquals(2, pane.getSearchHitCount());
+            for (int i = 0; i < 2; i++)
+                assertEquals("fox", getText(pane.getSearchHitStart(i), pane.getSearchHitEnd(i)));
+        });
+    }
+
+    private int countSearchHighlights()
+    {
+        int cnt = 0;
+        for (Highlighter.Highlight h : pane.getHighlighter().getHighlights())
+        {
+            if (h.getPainter() instanceof SearchHighlightPainter)
+                cnt++;
+        }
+        return cnt;
+    }
+
+    private String getText(int start, int end)
+    {
+        try
+        {
+            return doc.getText(start, end - start);
+        } catch (BadLocationException e)
+        {
+            throw new AssertionError(e);
+        }
+    }
+}
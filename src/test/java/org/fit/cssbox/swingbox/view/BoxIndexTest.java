@@ -0,0 +1,154 @@
+/*
+ * (c) Peter Bielik and Radek Burget, 2011-2012
+ *
+ * SwingBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SwingBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with SwingBox. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.fit.cssbox.swingbox.view;
+
+import org.fit.cssbox.swingbox.BrowserPane;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.swing.*;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Position;
+import javax.swing.text.View;
+import java.awt.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the mapping of the document positions to the leaf views through
+ * the box index against the descent of the view tree.
+ *
+ * @author Radek Burget
+ */
+public class BoxIndexTest
+{
+    private static final String PAGE = "<html><body>"
+            + "<div><div><p>Some <b>nested <i>inline</i> text</b> that is long enough "
+            + "to be broken into several lines of the paragraph.</p></div></div>"
+            + "<ul><li>first item</li><li>second <a href='#'>item</a></li></ul>"
+            + "<table><tr><td>cell one</td><td>cell two</td></tr></table>"
+            + "</body></html>";
+
+    private ViewportView viewport;
+    private Rectangle allocation;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        SwingUtilities.invokeAndWait(() -> {
+            BrowserPane pane = new BrowserPane();
+            pane.setSize(300, 400);
+            pane.setText(PAGE);
+            viewport = findViewport(pane.getUI().getRootView(pane));
+            assertNotNull(viewport);
+            allocation = new Rectangle(0, 0, (int) viewport.getPreferredSpan(View.X_AXIS),
+                    (int) viewport.getPreferredSpan(View.Y_AXIS));
+        });
+    }
+
+    @Test
+    public void leavesAreFoundByPosition() throws Exception
+    {
+        SwingUtilities.invokeAndWait(() -> {
+            BoxIndex index = viewport.getBoxIndex();
+            assertTrue(index.getLeafCount() > 10);
+            for (int pos = 0; pos <= viewport.getEndOffset(); pos++)
+            {
+                int expected = -1;
+                for (int i = 0; i < index.getLeafCount(); i++)
+                {
+                    View v = index.getLeaf(i);
+                    if (v.getStartOffset() <= pos && pos < v.getEndOffset())
+                        expected = i;
+                }
+                assertEquals("position " + pos, expected, index.findLeafIndex(pos));
+            }
+        });
+    }
+
+    @Test
+    public void modelToViewMatchesTreeDescent() throws Exception
+    {
+        SwingUtilities.invokeAndWait(() -> {
+            int found = 0;
+            for (int pos = viewport.getStartOffset(); pos < viewport.getEndOffset(); pos++)
+            {
+                Shape expected = descend(viewport, pos, allocation);
+                if (expected != null)
+                {
+                    assertEquals("position " + pos, expected.getBounds(), modelToView(pos).getBounds());
+                    found++;
+                }
+            }
+            assertTrue(found > 100);
+        });
+    }
+
+    private Shape modelToView(int pos)
+    {
+        try
+        {
+            Shape ret = viewport.modelToView(pos, allocation, Position.Bias.Forward);
+            assertNotNull("position " + pos, ret);
+            return ret;
+        } catch (BadLocationException e)
+        {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Maps a position the way the composite views do, one level at a time.
+     */
+    private static Shape descend(View view, int pos, Shape alloc)
+    {
+        try
+        {
+            while (view.getViewCount() > 0)
+            {
+                int i = view.getViewIndex(pos, Position.Bias.Forward);
+                if (i < 0)
+                    return null;
+                alloc = view.getChildAllocation(i, alloc);
+                view = view.getView(i);
+                if (alloc == null)
+                    return null;
+            }
+            return view.modelToView(pos, alloc, Position.Bias.Forward);
+        } catch (BadLocationException e)
+        {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static ViewportView findViewport(View view)
+    {
+        if (view instanceof ViewportView)
+            return (ViewportView) view;
+        for (int i = 0; i < view.getViewCount(); i++)
+        {
+            ViewportView ret = findViewport(view.getView(i));
+            if (ret != null)
+                return ret;
+        }
+        return null;
+    }
+}
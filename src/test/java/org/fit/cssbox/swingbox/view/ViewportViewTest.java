@@ -0,0 +1,106 @@
+/*
+ * (c) Peter Bielik and Radek Burget, 2011-2012
+ *
+ * SwingBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SwingBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with SwingBox. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.fit.cssbox.swingbox.view;
+
+import org.fit.cssbox.swingbox.BrowserPane;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.swing.*;
+import javax.swing.text.View;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that painting a part of the viewport examines only the views
+ * displayed in that part.
+ *
+ * @author Radek Burget
+ */
+public class ViewportViewTest
+{
+    private static final int PARAGRAPHS = 200;
+
+    private ViewportView viewport;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        StringBuilder page = new StringBuilder("<html><body>");
+        for (int i = 0; i < PARAGRAPHS; i++)
+            page.append("<p>Paragraph <b>number</b> ").append(i).append("</p>");
+        page.append("</body></html>");
+
+        SwingUtilities.invokeAndWait(() -> {
+            BrowserPane pane = new BrowserPane();
+            pane.setSize(600, 400);
+            pane.setText(page.toString());
+            viewport = findViewport(pane.getUI().getRootView(pane));
+        });
+        assertNotNull(viewport);
+    }
+
+    @Test
+    public void paintVisitsVisibleViewsOnly() throws Exception
+    {
+        SwingUtilities.invokeAndWait(() -> {
+            Rectangle all = new Rectangle(0, 0, (int) viewport.getPreferredSpan(View.X_AXIS),
+                    (int) viewport.getPreferredSpan(View.Y_AXIS));
+            int whole = paint(all, all);
+            int top = paint(all, new Rectangle(0, 0, all.width, 100));
+            int bottom = paint(all, new Rectangle(0, all.height - 100, all.width, 100));
+
+            assertTrue(whole > 2 * PARAGRAPHS);
+            // a few paragraphs fit in the clip
+            assertTrue("top: " + top + " of " + whole, top > 0 && top < whole / 10);
+            assertTrue("bottom: " + bottom + " of " + whole, bottom > 0 && bottom < whole / 10);
+        });
+    }
+
+    private int paint(Rectangle allocation, Rectangle clip)
+    {
+        BufferedImage img = new BufferedImage(allocation.width, allocation.height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = img.createGraphics();
+        try
+        {
+            g.setClip(clip);
+            viewport.paintContent(g, allocation);
+        } finally
+        {
+            g.dispose();
+        }
+        return viewport.getVisitedViewCount();
+    }
+
+    private static ViewportView findViewport(View view)
+    {
+        if (view instanceof ViewportView)
+            return (ViewportView) view;
+        for (int i = 0; i < view.getViewCount(); i++)
+        {
+            ViewportView ret = findViewport(view.getView(i));
+            if (ret != null)
+                return ret;
+        }
+        return null;
+    }
+}